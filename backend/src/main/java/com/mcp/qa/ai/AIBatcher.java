@@ -0,0 +1,195 @@
+package com.mcp.qa.ai;
+
+import com.mcp.qa.repo.SourceFile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Packs small files into one prompt per batch, up to a token budget, so a repository of many
+ * short files costs a few calls instead of one per file and the instructions and schema are paid
+ * for once per batch. Each file's section of the answer is handed to the same result mapping the
+ * single-file path uses. Large files, and any file the batch answer failed to cover, go through
+ * the single-file call instead.
+ */
+@Component
+public class AIBatcher {
+
+    public interface ContextLoader {
+        AIRequestBuilder.FileContext load(SourceFile file) throws IOException;
+    }
+
+    /**
+     * Files of one analysis, added as they become available. A batch is dispatched once it is
+     * full; flush dispatches a partly filled one so the lane is not left idle.
+     */
+    public final class Session<T> {
+        private final AIExecutionService.Lane lane;
+        private final AnalysisBudget budget;
+        private final AIRequestBuilder.Analysis analysis;
+        private final String systemPrompt;
+        private final ContextLoader contextLoader;
+        private final BiFunction<SourceFile, String, T> toResult;
+        private final Function<SourceFile, T> single;
+
+        private Map<SourceFile, CompletableFuture<T>> batch = new LinkedHashMap<>();
+        private int batchTokens;
+
+        private Session(AIExecutionService.Lane lane, AnalysisBudget budget, AIRequestBuilder.Analysis analysis,
+                        String systemPrompt, ContextLoader contextLoader,
+                        BiFunction<SourceFile, String, T> toResult, Function<SourceFile, T> single) {
+            this.lane = lane;
+            this.budget = budget;
+            this.analysis = analysis;
+            this.systemPrompt = systemPrompt;
+            this.contextLoader = contextLoader;
+            this.toResult = toResult;
+            this.single = single;
+        }
+
+        public synchronized CompletableFuture<T> add(SourceFile file) {
+            int tokens = requestBuilder.estimateTokens(file.getSize());
+            if (!enabled || maxFiles < 2 || tokens > maxFileTokens) {
+                return submitSingle(file);
+            }
+
+            if (!batch.isEmpty() && (batchTokens + tokens > tokenBudget || batch.size() >= maxFiles)) {
+                flush();
+            }
+            CompletableFuture<T> future = new CompletableFuture<>();
+            batch.put(file, future);
+            batchTokens += tokens;
+            return future;
+        }
+
+        public synchronized void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            Map<SourceFile, CompletableFuture<T>> pending = batch;
+            batch = new LinkedHashMap<>();
+            batchTokens = 0;
+
+            if (pending.size() == 1) {
+                Map.Entry<SourceFile, CompletableFuture<T>> only = pending.entrySet().iterator().next();
+                complete(only.getValue(), submitSingle(only.getKey()));
+                return;
+            }
+            lane.submit(() -> {
+                runBatch(pending);
+                return null;
+            });
+        }
+
+        private CompletableFuture<T> submitSingle(SourceFile file) {
+            return lane.submit(() -> {
+                budget.checkDeadline();
+                return single.apply(file);
+            });
+        }
+
+        private void runBatch(Map<SourceFile, CompletableFuture<T>> pending) {
+            if (budget.isExpired()) {
+                pending.values().forEach(future -> future.completeExceptionally(
+                    new CancellationException("time budget exhausted")));
+                return;
+            }
+
+            Map<String, String> responses = Collections.emptyMap();
+            Map<String, PromptCompactor.Compacted> compactedByFile = new HashMap<>();
+            try {
+                List<AIRequestBuilder.FileContext> contexts = new ArrayList<>();
+                for (SourceFile file : pending.keySet()) {
+                    AIRequestBuilder.FileContext context = contextLoader.load(file);
+                    PromptCompactor.Compacted compacted = compactor.compact(context.filePath(), context.codeContent());
+                    compactedByFile.put(context.filePath(), compacted);
+                    contexts.add(new AIRequestBuilder.FileContext(context.filePath(), compacted.content(),
+                        context.staticFindings(), context.metrics(), context.existingTests(), context.architectureContext()));
+                }
+                String prompt = requestBuilder.buildBatchPrompt(analysis, contexts);
+                responses = responseParser.splitBatchResponse(aiClient.callAIStreaming(systemPrompt, prompt,
+                    responseParser.streamBatchTo(budget, path -> {
+                        PromptCompactor.Compacted compacted = compactedByFile.get(path);
+                        return compacted != null ? compacted::originalLine : null;
+                    })));
+            } catch (Exception e) {
+                System.err.println("Batch of " + pending.size() + " files failed, analyzing them one by one: " + e.getMessage());
+            }
+
+            for (Map.Entry<SourceFile, CompletableFuture<T>> entry : pending.entrySet()) {
+                SourceFile file = entry.getKey();
+                CompletableFuture<T> future = entry.getValue();
+                String response = responses.get(file.getRelativePath());
+                if (response != null) {
+                    try {
+                        PromptCompactor.Compacted compacted = compactedByFile.get(file.getRelativePath());
+                        response = responseParser.remapLines(response, compacted::originalLine);
+                        future.complete(toResult.apply(file, response));
+                        // Files sent again on their own are counted by the single-file path
+                        budget.addTokensSaved(compactor.tokensSaved(compacted));
+                        continue;
+                    } catch (Exception e) {
+                        System.err.println("Batch result for " + file.getRelativePath() + " unusable: " + e.getMessage());
+                    }
+                }
+                complete(future, submitSingle(file));
+            }
+        }
+
+        private void complete(CompletableFuture<T> future, CompletableFuture<T> source) {
+            source.whenComplete((result, error) -> {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(result);
+                }
+            });
+        }
+    }
+
+    private final AIClient aiClient;
+    private final AIRequestBuilder requestBuilder;
+    private final AIResponseParser responseParser;
+    private final PromptCompactor compactor;
+    private final boolean enabled;
+    private final int tokenBudget;
+    private final int maxFileTokens;
+    private final int maxFiles;
+
+    public AIBatcher(AIClient aiClient, AIRequestBuilder requestBuilder, AIResponseParser responseParser,
+                     PromptCompactor compactor,
+                     @Value("${ai.batch.enabled:true}") boolean enabled,
+                     @Value("${ai.batch.token-budget:6000}") int tokenBudget,
+                     @Value("${ai.batch.max-file-tokens:1500}") int maxFileTokens,
+                     @Value("${ai.batch.max-files:6}") int maxFiles) {
+        this.aiClient = aiClient;
+        this.requestBuilder = requestBuilder;
+        this.responseParser = responseParser;
+        this.compactor = compactor;
+        this.enabled = enabled;
+        this.tokenBudget = tokenBudget;
+        this.maxFileTokens = Math.min(maxFileTokens, tokenBudget);
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Opens a session on the lane. toResult turns one file's JSON answer into its result; single
+     * analyzes a file on its own and must not throw. Work that reaches the front of the lane after
+     * the budget's deadline is not started and its future fails with a CancellationException.
+     */
+    public <T> Session<T> open(AIExecutionService.Lane lane,
+                               AnalysisBudget budget,
+                               AIRequestBuilder.Analysis analysis,
+                               String systemPrompt,
+                               ContextLoader contextLoader,
+                               BiFunction<SourceFile, String, T> toResult,
+                               Function<SourceFile, T> single) {
+        return new Session<>(lane, budget, analysis, systemPrompt, contextLoader, toResult, single);
+    }
+}
@@ -0,0 +1,91 @@
+package com.mcp.qa.ai;
+
+import com.mcp.qa.analyzer.SourceChunker;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Analyzes files too large for one prompt by splitting them on class and method boundaries,
+ * sending the chunks with the file's outline as shared context, and merging the answers back into
+ * one answer with file line numbers. The result has the same shape as a single-file answer, so
+ * engines parse it unchanged. Chunks queue on the caller's lane like any other call, and the
+ * calling task analyzes any chunk the lane has not started yet itself, so a large file takes its
+ * fair share of slots and never waits on a slot its own task holds.
+ */
+@Component
+public class AIChunker {
+
+    private final AIClient aiClient;
+    private final AIRequestBuilder requestBuilder;
+    private final AIResponseParser responseParser;
+    private final int thresholdChars;
+    private final int maxChunkChars;
+
+    public AIChunker(AIClient aiClient, AIRequestBuilder requestBuilder, AIResponseParser responseParser,
+                     @Value("${ai.chunk.threshold-chars:50000}") int thresholdChars,
+                     @Value("${ai.chunk.max-chars:16000}") int maxChunkChars) {
+        this.aiClient = aiClient;
+        this.requestBuilder = requestBuilder;
+        this.responseParser = responseParser;
+        this.thresholdChars = thresholdChars;
+        this.maxChunkChars = Math.min(maxChunkChars, thresholdChars);
+    }
+
+    public boolean needsChunking(String content) {
+        return content.length() > thresholdChars;
+    }
+
+    public String callChunked(AIExecutionService.Lane lane, AIRequestBuilder.Analysis analysis, String systemPrompt,
+                              AIRequestBuilder.FileContext file) throws Exception {
+        String filePath = file.filePath();
+        String extension = filePath.substring(filePath.lastIndexOf('.') + 1);
+        SourceChunker.Result split = SourceChunker.split(file.codeContent(), extension, maxChunkChars);
+        System.out.println("Analyzing " + filePath + " in " + split.chunks().size() + " chunks");
+
+        List<String> prompts = new ArrayList<>();
+        List<AtomicBoolean> claims = new ArrayList<>();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        List<Integer> lineOffsets = new ArrayList<>();
+        for (SourceChunker.Chunk chunk : split.chunks()) {
+            String prompt = requestBuilder.buildChunkPrompt(analysis, file, split, chunk);
+            AtomicBoolean claim = new AtomicBoolean();
+            prompts.add(prompt);
+            claims.add(claim);
+            futures.add(lane.submit(() -> claim.compareAndSet(false, true)
+                ? aiClient.callAI(systemPrompt, prompt) : null));
+            lineOffsets.add(chunk.startLine() - 1);
+        }
+
+        // Chunks still queued are analyzed here; the lane's copy then finds them claimed
+        for (int i = 0; i < futures.size(); i++) {
+            if (claims.get(i).compareAndSet(false, true)) {
+                CompletableFuture<String> local = futures.get(i);
+                try {
+                    futures.set(i, CompletableFuture.completedFuture(aiClient.callAI(systemPrompt, prompts.get(i))));
+                } catch (RuntimeException e) {
+                    futures.set(i, CompletableFuture.failedFuture(e));
+                }
+                local.cancel(false);
+            }
+        }
+
+        List<String> responses = new ArrayList<>();
+        for (CompletableFuture<String> future : futures) {
+            try {
+                responses.add(future.join());
+            } catch (CompletionException e) {
+                // A failed chunk leaves a gap in coverage rather than failing the whole file
+                System.err.println("Chunk of " + filePath + " failed: " + e.getCause().getMessage());
+                responses.add("");
+            }
+        }
+
+        return responseParser.mergeChunkResponses(responses, lineOffsets);
+    }
+}
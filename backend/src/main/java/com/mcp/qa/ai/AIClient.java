@@ -1,37 +1,68 @@
 package com.mcp.qa.ai;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.springframework.http.*;
-import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
+import jakarta.annotation.PreDestroy;
 
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Component
 public class AIClient {
 
-    private final RestTemplate restTemplate;
+    private static final int MAX_COMPLETION_TOKENS = 4000;
+    private static final int EXPECTED_COMPLETION_TOKENS = 800;
+
+    private final AIHttpTransport transport;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Waiting for key quota or a concurrency slot parks a virtual thread, never a platform thread
+    private final ExecutorService dispatcher = Executors.newVirtualThreadPerTaskExecutor();
     private final List<String> apiKeys;
-    private final AtomicInteger currentKeyIndex;
+    private final ApiKeyPool keyPool;
+    private final long keyWaitMillis;
     private final String apiUrl;
     private final String model;
+    private final AIResponseCache responseCache;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final int rateLimitRetries;
+    private final long rateLimitBackoffMillis;
 
     public AIClient(
             @Value("${ai.api.key:}") String apiKey,
             @Value("${ai.api.key.2:}") String apiKey2,
             @Value("${ai.api.key.3:}") String apiKey3,
             @Value("${ai.api.url:https://api.groq.com/openai/v1/chat/completions}") String apiUrl,
-            @Value("${ai.model:llama-3.1-8b-instant}") String model) {
-        this.restTemplate = new RestTemplate();
+            @Value("${ai.model:llama-3.1-8b-instant}") String model,
+            @Value("${ai.retry.rate-limit-attempts:3}") int rateLimitRetries,
+            @Value("${ai.retry.backoff-ms:1000}") long rateLimitBackoffMillis,
+            @Value("${ai.key.requests-per-minute:30}") int requestsPerMinute,
+            @Value("${ai.key.tokens-per-minute:6000}") int tokensPerMinute,
+            @Value("${ai.key.max-wait-ms:60000}") long keyWaitMillis,
+            AIHttpTransport transport,
+            AIResponseCache responseCache,
+            AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.transport = transport;
+        this.responseCache = responseCache;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.rateLimitRetries = rateLimitRetries;
+        this.rateLimitBackoffMillis = rateLimitBackoffMillis;
         this.apiKeys = new ArrayList<>();
-        this.currentKeyIndex = new AtomicInteger(0);
+        this.keyWaitMillis = keyWaitMillis;
         this.apiUrl = apiUrl;
         this.model = model;
         
@@ -47,6 +78,7 @@ public class AIClient {
                 addApiKeyIfPresent(key.trim());
             }
         }
+        this.keyPool = new ApiKeyPool(apiKeys, requestsPerMinute, tokensPerMinute);
         
         // Log configuration (without exposing full keys)
         if (this.apiKeys.isEmpty()) {
@@ -70,159 +102,369 @@ public class AIClient {
         }
     }
     
-    private String getCurrentApiKey() {
-        if (apiKeys.isEmpty()) {
-            throw new IllegalStateException("No API keys configured");
+    private boolean isRateLimitResponse(int status, String body) {
+        // Rate limit errors: 429 Too Many Requests
+        if (status == 429) {
+            return true;
         }
-        int index = currentKeyIndex.get() % apiKeys.size();
-        return apiKeys.get(index);
+        // Also check 4xx bodies for rate limit messages
+        return status >= 400 && status < 500 && body != null && (
+            body.contains("rate limit") ||
+            body.contains("rate_limit") ||
+            body.contains("quota") ||
+            body.contains("Too Many Requests"));
     }
-    
-    private void rotateToNextKey() {
-        if (apiKeys.size() > 1) {
-            int nextIndex = (currentKeyIndex.incrementAndGet()) % apiKeys.size();
-            System.out.println("Rotating to API key " + (nextIndex + 1) + " of " + apiKeys.size());
+
+    public String callAI(String systemPrompt, String userPrompt) {
+        try {
+            return callAIAsync(systemPrompt, userPrompt).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException("AI API call failed: " + e.getCause().getMessage(), e.getCause());
         }
     }
-    
-    private boolean isRateLimitError(Exception e) {
-        if (e instanceof HttpClientErrorException) {
-            HttpClientErrorException httpEx = (HttpClientErrorException) e;
-            int statusCode = httpEx.getStatusCode().value();
-            // Rate limit errors: 429 Too Many Requests
-            if (statusCode == 429) {
-                return true;
+
+    public CompletableFuture<String> callAIAsync(String systemPrompt, String userPrompt) {
+        // Identical model and prompts are answered from the cache without spending quota
+        String cacheKey = responseCache.key(model, systemPrompt, userPrompt);
+        String cached = responseCache.get(cacheKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        
+        return callWithBackoff(systemPrompt, userPrompt, false, this::exchange, 0).thenApply(content -> {
+            // A truncated or malformed answer would be replayed as a failure for the whole TTL
+            if (isCompleteJson(content)) {
+                responseCache.put(cacheKey, content);
             }
-            // Also check response body for rate limit messages
-            String errorBody = httpEx.getResponseBodyAsString();
-            if (errorBody != null && (
-                errorBody.contains("rate limit") || 
-                errorBody.contains("rate_limit") ||
-                errorBody.contains("quota") ||
-                errorBody.contains("Too Many Requests"))) {
-                return true;
+            return content;
+        });
+    }
+
+    /**
+     * Streams the completion and hands each object of an array in the answer to onItem as soon as
+     * it closes, with the keys leading to its array (see IncrementalJsonParser). A cached answer is
+     * replayed through onItem at once. Reading stops once the top-level JSON object is complete,
+     * and the returned document ends there; only a completed document is cached.
+     */
+    public String callAIStreaming(String systemPrompt, String userPrompt,
+                                  BiConsumer<List<String>, Map<String, Object>> onItem) {
+        IncrementalJsonParser parser = new IncrementalJsonParser(objectMapper, onItem);
+        String cacheKey = responseCache.key(model, systemPrompt, userPrompt);
+        String cached = responseCache.get(cacheKey);
+        if (cached != null) {
+            parser.feed(cached);
+            return cached;
+        }
+        
+        try {
+            String content = callWithBackoff(systemPrompt, userPrompt, true,
+                (apiKey, json, estimatedTokens) -> exchangeStreaming(apiKey, json, estimatedTokens, parser), 0).join();
+            // A stream cut short by the token limit or an error never completes the document
+            if (parser.isComplete()) {
+                responseCache.put(cacheKey, content);
+            }
+            return content;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
             }
+            throw new RuntimeException("AI API call failed: " + e.getCause().getMessage(), e.getCause());
         }
-        String message = e.getMessage();
-        return message != null && (
-            message.contains("429") ||
-            message.contains("rate limit") ||
-            message.contains("rate_limit") ||
-            message.contains("quota") ||
-            message.contains("Too Many Requests"));
     }
 
-    public String callAI(String systemPrompt, String userPrompt) {
+    private interface Exchange {
+        CompletableFuture<String> run(ApiKeyPool.ApiKey apiKey, String json, int estimatedTokens);
+    }
+
+    private CompletableFuture<String> callWithBackoff(String systemPrompt, String userPrompt, boolean stream,
+                                                      Exchange exchange, int retry) {
+        return callProvider(systemPrompt, userPrompt, stream, exchange).exceptionallyCompose(failure -> {
+            Throwable cause = unwrap(failure);
+            if (!(cause instanceof RateLimitExhaustedException) || retry >= rateLimitRetries) {
+                return CompletableFuture.failedFuture(cause);
+            }
+            // Every key is throttled: wait for the window to move on instead of failing the file
+            long backoff = rateLimitBackoffMillis << retry;
+            System.out.println("All API keys rate limited, retrying in " + backoff + "ms");
+            Executor delayed = CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS, dispatcher);
+            return CompletableFuture.supplyAsync(() -> retry + 1, delayed)
+                .thenCompose(next -> callWithBackoff(systemPrompt, userPrompt, stream, exchange, next));
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("model", model);
+        stats.put("apiKeys", keyPool.getStats());
+        stats.put("concurrency", concurrencyLimiter.getStats());
+        stats.put("responseCache", responseCache.getStats());
+        return stats;
+    }
+
+    private CompletableFuture<String> callProvider(String systemPrompt, String userPrompt, boolean stream,
+                                                   Exchange exchange) {
         if (apiKeys.isEmpty()) {
-            throw new IllegalStateException("AI API key not configured. Set ai.api.key in application.properties");
+            return CompletableFuture.failedFuture(
+                new IllegalStateException("AI API key not configured. Set ai.api.key in application.properties"));
         }
 
-        int maxRetries = apiKeys.size();
-        Exception lastException = null;
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("messages", List.of(
+            Map.of("role", "system", "content", systemPrompt),
+            Map.of("role", "user", "content", userPrompt)
+        ));
+        requestBody.put("temperature", 0.3);
+        requestBody.put("max_tokens", MAX_COMPLETION_TOKENS);
+        if (stream) {
+            requestBody.put("stream", true);
+        }
+
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(requestBody);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to encode AI request: " + e.getMessage(), e));
+        }
+        return attempt(json, estimateTokens(systemPrompt, userPrompt), exchange, 0, null);
+    }
+
+    private CompletableFuture<String> attempt(String json, int estimatedTokens, Exchange exchange,
+                                              int attempt, Throwable lastException) {
+        if (attempt >= apiKeys.size()) {
+            return CompletableFuture.failedFuture(new RateLimitExhaustedException(
+                "All API keys exhausted due to rate limits: " + lastException.getMessage(), lastException));
+        }
         
-        for (int attempt = 0; attempt < maxRetries; attempt++) {
-            String currentKey = getCurrentApiKey();
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(currentKey);
-
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("messages", List.of(
-                Map.of("role", "system", "content", systemPrompt),
-                Map.of("role", "user", "content", userPrompt)
-            ));
-            requestBody.put("temperature", 0.3);
-            requestBody.put("max_tokens", 4000);
-
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-
-            try {
-                ResponseEntity<Map> response = restTemplate.postForEntity(apiUrl, request, Map.class);
-                
-                // Check for HTTP errors
-                if (!response.getStatusCode().is2xxSuccessful()) {
-                    Map<String, Object> errorBody = response.getBody();
-                    String errorMsg = "HTTP " + response.getStatusCode().value();
-                    if (errorBody != null) {
-                        errorMsg += ": " + errorBody.toString();
-                    }
-                    throw new RuntimeException("AI API call failed: " + errorMsg);
-                }
-                
-                Map<String, Object> body = response.getBody();
-                if (body != null && body.containsKey("choices")) {
-                    List<Map<String, Object>> choices = (List<Map<String, Object>>) body.get("choices");
-                    if (!choices.isEmpty()) {
-                        Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
-                        Object content = message.get("content");
-                        return content != null ? content.toString() : "";
-                    }
-                }
-                
-                // Check for error in response
-                if (body != null && body.containsKey("error")) {
-                    Map<String, Object> error = (Map<String, Object>) body.get("error");
-                    String errorMsg = error.get("message") != null ? error.get("message").toString() : "Unknown error";
-                    
-                    // Check if it's a rate limit error
-                    if (errorMsg.toLowerCase().contains("rate limit") || 
-                        errorMsg.toLowerCase().contains("quota") ||
-                        errorMsg.toLowerCase().contains("429")) {
-                        if (attempt < maxRetries - 1) {
-                            System.out.println("Rate limit hit with key " + (currentKeyIndex.get() + 1) + ", trying next key...");
-                            rotateToNextKey();
-                            lastException = new RuntimeException("AI API rate limit: " + errorMsg);
-                            continue;
-                        }
-                    }
-                    
-                    throw new RuntimeException("AI API error: " + errorMsg);
+        return CompletableFuture.supplyAsync(() -> acquireKey(estimatedTokens), dispatcher)
+            .thenCompose(apiKey -> withConcurrencyLimit(() -> exchange.run(apiKey, json, estimatedTokens)))
+            .exceptionallyCompose(failure -> {
+                Throwable cause = unwrap(failure);
+                // A throttled key is parked by the pool; retry on whichever key has capacity
+                if (cause instanceof KeyRateLimitedException) {
+                    return attempt(json, estimatedTokens, exchange, attempt + 1, cause);
                 }
-                
-                throw new RuntimeException("Invalid AI API response format: " + body);
-            } catch (HttpClientErrorException e) {
-                String errorBody = e.getResponseBodyAsString();
-                String errorMsg = "HTTP " + e.getStatusCode().value() + ": " + e.getStatusText();
-                if (errorBody != null && !errorBody.isEmpty()) {
-                    errorMsg += " - " + errorBody;
-                }
-                
-                // Check if it's a rate limit error and we have more keys to try
-                if (isRateLimitError(e) && attempt < maxRetries - 1) {
-                    System.out.println("Rate limit hit with key " + (currentKeyIndex.get() + 1) + 
-                        " (HTTP " + e.getStatusCode().value() + "), trying next key...");
-                    rotateToNextKey();
-                    lastException = new RuntimeException("AI API call failed: " + errorMsg, e);
+                return CompletableFuture.failedFuture(cause);
+            });
+    }
+
+    private CompletableFuture<String> withConcurrencyLimit(Supplier<CompletableFuture<String>> call) {
+        try {
+            concurrencyLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for an AI call slot", e);
+        }
+        long start = System.nanoTime();
+        CompletableFuture<String> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            concurrencyLimiter.onDropped();
+            throw e;
+        }
+        return result.whenComplete((content, failure) -> {
+            if (failure == null) {
+                concurrencyLimiter.onSuccess(System.nanoTime() - start);
+            } else if (unwrap(failure) instanceof KeyRateLimitedException) {
+                concurrencyLimiter.onRateLimited();
+            } else {
+                concurrencyLimiter.onDropped();
+            }
+        });
+    }
+
+    private CompletableFuture<String> exchange(ApiKeyPool.ApiKey apiKey, String json, int estimatedTokens) {
+        return transport.postJson(apiUrl, apiKey.getValue(), json)
+            .exceptionally(failure -> {
+                Throwable cause = unwrap(failure);
+                throw new RuntimeException("AI API call failed: " + cause.getMessage(), cause);
+            })
+            .thenApply(response -> readContent(apiKey, response, estimatedTokens));
+    }
+
+    private CompletableFuture<String> exchangeStreaming(ApiKeyPool.ApiKey apiKey, String json, int estimatedTokens,
+                                                        IncrementalJsonParser parser) {
+        return transport.postJsonStreaming(apiUrl, apiKey.getValue(), json)
+            .exceptionally(failure -> {
+                Throwable cause = unwrap(failure);
+                throw new RuntimeException("AI API call failed: " + cause.getMessage(), cause);
+            })
+            .thenApplyAsync(response -> readStream(apiKey, response, estimatedTokens, parser), dispatcher);
+    }
+
+    private String readStream(ApiKeyPool.ApiKey apiKey, AIHttpTransport.StreamingResponse response,
+                              int estimatedTokens, IncrementalJsonParser parser) {
+        try (Stream<String> lines = response.lines()) {
+            if (response.status() < 200 || response.status() >= 300) {
+                String body = lines.collect(Collectors.joining("\n"));
+                return readContent(apiKey, new AIHttpTransport.Response(response.status(), response.headers(), body),
+                    estimatedTokens);
+            }
+            keyPool.onResponse(apiKey, response::header, estimatedTokens, 0);
+            
+            StringBuilder content = new StringBuilder();
+            Iterator<String> events = lines.iterator();
+            while (events.hasNext() && !parser.isComplete()) {
+                String line = events.next();
+                if (!line.startsWith("data:")) {
                     continue;
                 }
-                
-                throw new RuntimeException("AI API call failed: " + errorMsg, e);
-            } catch (Exception e) {
-                // Check if it's a rate limit error and we have more keys to try
-                if (isRateLimitError(e) && attempt < maxRetries - 1) {
-                    System.out.println("Rate limit error detected, trying next API key...");
-                    rotateToNextKey();
-                    lastException = e;
-                    continue;
+                String data = line.substring(5).trim();
+                if (data.equals("[DONE]")) {
+                    break;
+                }
+                String delta = deltaContent(parseBody(data));
+                if (delta != null) {
+                    content.append(delta);
+                    parser.feed(delta);
                 }
-                
-                throw new RuntimeException("AI API call failed: " + e.getMessage(), e);
             }
+            // Closing the lines early drops the connection, so the provider stops generating
+            return parser.isComplete() ? parser.getDocument() : content.toString();
+        }
+    }
+
+    private String deltaContent(Map<String, Object> chunk) {
+        if (chunk != null && chunk.get("choices") instanceof List<?> choices && !choices.isEmpty()
+                && choices.get(0) instanceof Map<?, ?> choice
+                && choice.get("delta") instanceof Map<?, ?> delta
+                && delta.get("content") instanceof String text) {
+            return text;
+        }
+        return null;
+    }
+
+    private String readContent(ApiKeyPool.ApiKey apiKey, AIHttpTransport.Response response, int estimatedTokens) {
+        if (isRateLimitResponse(response.status(), response.body())) {
+            System.out.println("Rate limit hit with key " + apiKey.getNumber() +
+                " (HTTP " + response.status() + "), trying another key...");
+            keyPool.onRateLimited(apiKey, response::header);
+            throw new KeyRateLimitedException("AI API call failed: HTTP " + response.status() + " - " + response.body());
         }
         
-        // If we've exhausted all keys, throw the last exception
-        if (lastException != null) {
-            throw new RuntimeException("All API keys exhausted due to rate limits: " + lastException.getMessage(), lastException);
+        Map<String, Object> body = parseBody(response.body());
+        keyPool.onResponse(apiKey, response::header, estimatedTokens, usedTokens(body));
+        
+        // Check for HTTP errors
+        if (response.status() < 200 || response.status() >= 300) {
+            String errorMsg = "HTTP " + response.status();
+            if (response.body() != null && !response.body().isEmpty()) {
+                errorMsg += " - " + response.body();
+            }
+            throw new RuntimeException("AI API call failed: " + errorMsg);
         }
         
-        throw new RuntimeException("Failed to call AI API after " + maxRetries + " attempts");
+        if (body != null && body.containsKey("choices")) {
+            List<Map<String, Object>> choices = (List<Map<String, Object>>) body.get("choices");
+            if (!choices.isEmpty()) {
+                Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
+                Object content = message.get("content");
+                return content != null ? content.toString() : "";
+            }
+        }
+        
+        // Check for error in response
+        if (body != null && body.containsKey("error")) {
+            Map<String, Object> error = (Map<String, Object>) body.get("error");
+            String errorMsg = error.get("message") != null ? error.get("message").toString() : "Unknown error";
+            
+            // Check if it's a rate limit error
+            if (errorMsg.toLowerCase().contains("rate limit") || 
+                errorMsg.toLowerCase().contains("quota") ||
+                errorMsg.toLowerCase().contains("429")) {
+                System.out.println("Rate limit hit with key " + apiKey.getNumber() + ", trying another key...");
+                keyPool.onRateLimited(apiKey, response::header);
+                throw new KeyRateLimitedException("AI API rate limit: " + errorMsg);
+            }
+            
+            throw new RuntimeException("AI API error: " + errorMsg);
+        }
+        
+        throw new RuntimeException("Invalid AI API response format: " + body);
     }
 
-    public String callAIStreaming(String systemPrompt, String userPrompt) {
-        return callAI(systemPrompt, userPrompt);
+    // The answer from its first '{' to its last '}' is one JSON document, as a complete answer is
+    private boolean isCompleteJson(String content) {
+        int start = content.indexOf('{');
+        int end = content.lastIndexOf('}');
+        if (start < 0 || end < start) {
+            return false;
+        }
+        try {
+            objectMapper.readTree(content.substring(start, end + 1));
+            return true;
+        } catch (JsonProcessingException e) {
+            return false;
+        }
+    }
+
+    private Map<String, Object> parseBody(String body) {
+        if (body == null || body.isBlank()) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(body, Map.class);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private ApiKeyPool.ApiKey acquireKey(int estimatedTokens) {
+        ApiKeyPool.ApiKey apiKey;
+        try {
+            apiKey = keyPool.acquire(estimatedTokens, keyWaitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for API key capacity", e);
+        }
+        if (apiKey == null) {
+            throw new RateLimitExhaustedException("No API key regained capacity within " + keyWaitMillis + "ms", null);
+        }
+        return apiKey;
     }
-}
 
+    // Roughly four characters per token plus the completion we typically get back; settled on response
+    private int estimateTokens(String systemPrompt, String userPrompt) {
+        return (systemPrompt.length() + userPrompt.length()) / 4 + EXPECTED_COMPLETION_TOKENS;
+    }
+
+    private int usedTokens(Map<String, Object> body) {
+        if (body != null && body.get("usage") instanceof Map<?, ?> usage
+                && usage.get("total_tokens") instanceof Number total) {
+            return total.intValue();
+        }
+        return 0;
+    }
 
+    private static Throwable unwrap(Throwable failure) {
+        while (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+    }
+
+    static class RateLimitExhaustedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        RateLimitExhaustedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static class KeyRateLimitedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        KeyRateLimitedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.mcp.qa.ai;
+
+import com.mcp.qa.repo.RepositorySnapshot;
+import com.mcp.qa.repo.SourceFile;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Runs code insights, defect prediction, test gap, refactoring and memory leak analysis with a
+ * single fused prompt per file, so the source is sent to the model once instead of five times.
+ */
+@Component
+public class AICombinedAnalyzer {
+
+    private static final String SYSTEM_PROMPT = "You are an expert code reviewer, QA engineer and software architect. " +
+                                                "Find hidden bugs, predict defects, identify missing tests, recommend refactorings " +
+                                                "and detect memory leaks. Return only valid JSON.";
+
+    private final AIClient aiClient;
+    private final AIRequestBuilder requestBuilder;
+    private final AIResponseParser responseParser;
+    private final AIPipeline pipeline;
+    private final AIExecutionService executionService;
+    private final AIDefectPredictor defectPredictor;
+    private final AIRefactorAdvisor refactorAdvisor;
+    private final AITestGapAnalyzer testGapAnalyzer;
+    private final AIBatcher batcher;
+    private final AIChunker chunker;
+    private final PromptCompactor compactor;
+
+    public AICombinedAnalyzer(AIClient aiClient, AIRequestBuilder requestBuilder,
+                              AIResponseParser responseParser, AIPipeline pipeline,
+                              AIExecutionService executionService, AIDefectPredictor defectPredictor,
+                              AIRefactorAdvisor refactorAdvisor, AITestGapAnalyzer testGapAnalyzer,
+                              AIBatcher batcher, AIChunker chunker,
+                              PromptCompactor compactor) {
+        this.aiClient = aiClient;
+        this.requestBuilder = requestBuilder;
+        this.responseParser = responseParser;
+        this.pipeline = pipeline;
+        this.executionService = executionService;
+        this.defectPredictor = defectPredictor;
+        this.refactorAdvisor = refactorAdvisor;
+        this.testGapAnalyzer = testGapAnalyzer;
+        this.batcher = batcher;
+        this.chunker = chunker;
+        this.compactor = compactor;
+    }
+
+    public Map<String, Object> analyzeRepository(Path repoPath, AnalysisBudget budget) {
+        try {
+            return analyzeRepository(RepositorySnapshot.of(repoPath), budget);
+        } catch (Exception e) {
+            return Map.of(
+                "status", "error",
+                "error", e.getMessage()
+            );
+        }
+    }
+
+    public Map<String, Object> analyzeRepository(RepositorySnapshot snapshot, AnalysisBudget budget) {
+        try {
+            Map<String, List<Map<String, Object>>> findingsByFile = new ConcurrentHashMap<>();
+            
+            List<SourceFile> codeFiles = snapshot.getFiles(this::isCodeFile);
+            List<SourceFile> contextFiles = snapshot.getContextFiles(this::isCodeFile);
+            Map<String, Object> architectureContext = refactorAdvisor.analyzeArchitecture(contextFiles);
+            Map<String, List<String>> testFilesBySource = testGapAnalyzer.groupTestFiles(contextFiles);
+            
+            AIExecutionService.Lane lane = executionService.openLane("combined");
+            
+            // Test files get no test gap section, as in the standalone test gap analysis
+            Map<String, List<String>> existingTestsByFile = new HashMap<>();
+            for (SourceFile file : codeFiles) {
+                String relativePath = file.getRelativePath();
+                if (!testGapAnalyzer.isTestFile(relativePath)) {
+                    existingTestsByFile.put(relativePath, testFilesBySource.getOrDefault(
+                        testGapAnalyzer.getBaseFileName(relativePath), Collections.emptyList()));
+                }
+            }
+            
+            AIBatcher.Session<Map<String, Object>> session = batcher.open(lane, budget,
+                AIRequestBuilder.Analysis.COMBINED, SYSTEM_PROMPT,
+                file -> new AIRequestBuilder.FileContext(file.getRelativePath(), file.getContent(),
+                    findingsByFile.getOrDefault(file.getRelativePath(), Collections.emptyList()),
+                    defectPredictor.calculateMetrics(file),
+                    existingTestsByFile.getOrDefault(file.getRelativePath(), Collections.emptyList()),
+                    architectureContext),
+                (file, aiResponse) -> toResult(file.getRelativePath(), aiResponse,
+                    existingTestsByFile.containsKey(file.getRelativePath())),
+                file -> analyzeFile(file,
+                    findingsByFile.getOrDefault(file.getRelativePath(), Collections.emptyList()),
+                    defectPredictor.calculateMetrics(file),
+                    existingTestsByFile.get(file.getRelativePath()),
+                    architectureContext, lane, budget));
+            
+            // Files reach the model as their static findings are ready; limited budgets take the riskiest
+            List<CompletableFuture<Map<String, Object>>> futures = pipeline.run(snapshot,
+                codeFiles, findingsByFile, budget, session);
+            
+            List<Map<String, Object>> allResults = budget.collect(futures).stream()
+                .collect(Collectors.toList());
+            
+            List<Map<String, Object>> analyses = allResults.stream()
+                .filter(result -> result.containsKey("defectPrediction"))
+                .collect(Collectors.toList());
+            
+            long errors = allResults.stream()
+                .filter(result -> "error".equals(result.get("status")))
+                .count();
+            
+            int totalFindings = sectionSize(analyses, "codeInsights");
+            int totalGaps = sectionSize(analyses, "testGaps");
+            int totalLeaks = sectionSize(analyses, "memoryLeaks");
+            
+            List<Integer> defectScores = analyses.stream()
+                .map(a -> (Integer) ((Map<String, Object>) a.get("defectPrediction")).getOrDefault("defectScore", 0))
+                .collect(Collectors.toList());
+            int highRiskFiles = (int) analyses.stream()
+                .filter(a -> "HIGH".equals(((Map<String, Object>) a.get("defectPrediction")).get("severity")))
+                .count();
+            int avgDefectScore = defectScores.stream().mapToInt(Integer::intValue).sum()
+                / (defectScores.isEmpty() ? 1 : defectScores.size());
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("status", "completed");
+            result.put("totalFilesAnalyzed", analyses.size());
+            result.put("errors", errors);
+            result.put("totalFindings", totalFindings);
+            result.put("highRiskFiles", highRiskFiles);
+            result.put("averageDefectScore", avgDefectScore);
+            result.put("totalGaps", totalGaps);
+            result.put("totalLeaks", totalLeaks);
+            result.put("analyses", analyses);
+            return budget.report(result);
+            
+        } catch (Exception e) {
+            return Map.of(
+                "status", "error",
+                "error", e.getMessage()
+            );
+        }
+    }
+
+    private Map<String, Object> analyzeFile(SourceFile file,
+                                            List<Map<String, Object>> staticFindings,
+                                            Map<String, Object> metrics,
+                                            List<String> existingTests,
+                                            Map<String, Object> architectureContext,
+                                            AIExecutionService.Lane lane, AnalysisBudget budget) {
+        try {
+            String relativePath = file.getRelativePath();
+            PromptCompactor.Compacted compacted = compactor.compact(relativePath, file.getContent(), budget);
+            String content = compacted.content();
+            
+            String aiResponse;
+            if (chunker.needsChunking(content)) {
+                aiResponse = chunker.callChunked(lane, AIRequestBuilder.Analysis.COMBINED, SYSTEM_PROMPT,
+                    new AIRequestBuilder.FileContext(relativePath, content, staticFindings, metrics,
+                        existingTests != null ? existingTests : Collections.emptyList(), architectureContext));
+            } else {
+                String prompt = requestBuilder.buildCombinedAnalysisPrompt(relativePath, content, staticFindings,
+                    metrics, existingTests != null ? existingTests : Collections.emptyList(), architectureContext);
+                aiResponse = aiClient.callAIStreaming(SYSTEM_PROMPT, prompt,
+                    responseParser.streamTo(budget, relativePath, compacted::originalLine));
+            }
+            aiResponse = responseParser.remapLines(aiResponse, compacted::originalLine);
+            return toResult(relativePath, aiResponse, existingTests != null);
+            
+        } catch (Exception e) {
+            System.err.println("Error processing file " + file.getRelativePath() + ": " + e.getMessage());
+            return Map.of(
+                "file", file.getRelativePath(),
+                "status", "error",
+                "error", e.getMessage()
+            );
+        }
+    }
+
+    private Map<String, Object> toResult(String relativePath, String aiResponse, boolean withTestGaps) {
+        Map<String, Object> analysis = responseParser.parseCombinedAnalysis(aiResponse);
+        analysis.put("file", relativePath);
+        if (!withTestGaps) {
+            analysis.put("testGaps", Collections.emptyList());
+        }
+        
+        return analysis;
+    }
+
+    private int sectionSize(List<Map<String, Object>> analyses, String section) {
+        return analyses.stream()
+            .mapToInt(a -> ((List<?>) a.getOrDefault(section, Collections.emptyList())).size())
+            .sum();
+    }
+
+    private boolean isCodeFile(SourceFile file) {
+        return file.hasExtension("java", "js", "ts", "py", "jsx", "tsx");
+    }
+}
@@ -1,69 +1,86 @@
 package com.mcp.qa.ai;
 
-import com.mcp.qa.analyzer.StaticAnalyzer;
+import com.mcp.qa.analyzer.SourceScanner;
+import com.mcp.qa.repo.FileHistory;
+import com.mcp.qa.repo.RepositorySnapshot;
+import com.mcp.qa.repo.SourceFile;
 import org.springframework.stereotype.Component;
-import jakarta.annotation.PreDestroy;
 
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.io.IOException;
 
 @Component
 public class AIDefectPredictor {
 
+    private static final String SYSTEM_PROMPT = "You are an expert software quality analyst. " +
+                                                "Predict defect probability based on code patterns, complexity, and static analysis. " +
+                                                "Return only valid JSON.";
+
     private final AIClient aiClient;
     private final AIRequestBuilder requestBuilder;
     private final AIResponseParser responseParser;
-    private final StaticAnalyzer staticAnalyzer;
-    private final ExecutorService executorService;
+    private final AIPipeline pipeline;
+    private final AIExecutionService executionService;
+    private final AIBatcher batcher;
+    private final AIChunker chunker;
+    private final PromptCompactor compactor;
 
     public AIDefectPredictor(AIClient aiClient, AIRequestBuilder requestBuilder,
-                            AIResponseParser responseParser, StaticAnalyzer staticAnalyzer) {
+                            AIResponseParser responseParser, AIPipeline pipeline,
+                            AIExecutionService executionService, AIBatcher batcher, AIChunker chunker,
+                            PromptCompactor compactor) {
         this.aiClient = aiClient;
         this.requestBuilder = requestBuilder;
         this.responseParser = responseParser;
-        this.staticAnalyzer = staticAnalyzer;
-        this.executorService = Executors.newFixedThreadPool(4);
+        this.pipeline = pipeline;
+        this.executionService = executionService;
+        this.batcher = batcher;
+        this.chunker = chunker;
+        this.compactor = compactor;
     }
 
-    public Map<String, Object> predictDefects(Path repoPath) {
+    public Map<String, Object> predictDefects(Path repoPath, AnalysisBudget budget) {
         try {
-            System.out.println("Starting defect prediction for: " + repoPath);
-            
-            List<Map<String, Object>> staticFindings = staticAnalyzer.analyzePath(repoPath);
-            System.out.println("Static analysis found " + staticFindings.size() + " findings");
-            
-            Map<String, List<Map<String, Object>>> findingsByFile = staticFindings.stream()
-                .collect(Collectors.groupingBy(f -> (String) f.get("file")));
-            
-            Map<String, Map<String, Object>> metricsByFile = calculateMetrics(repoPath);
-            System.out.println("Calculated metrics for " + metricsByFile.size() + " files");
-            
-            List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
-            
-            try (var paths = Files.walk(repoPath)) {
-                paths.filter(Files::isRegularFile)
-                    .filter(this::isCodeFile)
-                    .forEach(file -> {
-                        CompletableFuture<Map<String, Object>> future = CompletableFuture.supplyAsync(() -> {
-                            String relativePath = repoPath.relativize(file).toString();
-                            return predictFileDefects(file, repoPath, 
-                                findingsByFile.getOrDefault(relativePath, Collections.emptyList()),
-                                metricsByFile.getOrDefault(relativePath, Collections.emptyMap()));
-                        }, executorService);
-                        futures.add(future);
-                    });
-            }
+            return predictDefects(RepositorySnapshot.of(repoPath), budget);
+        } catch (Exception e) {
+            return Map.of(
+                "status", "error",
+                "error", e.getMessage()
+            );
+        }
+    }
+
+    public Map<String, Object> predictDefects(RepositorySnapshot snapshot, AnalysisBudget budget) {
+        try {
+            System.out.println("Starting defect prediction for: " + snapshot.getRoot());
+            
+            Map<String, List<Map<String, Object>>> findingsByFile = new ConcurrentHashMap<>();
+            
+            List<SourceFile> codeFiles = snapshot.getFiles(this::isCodeFile);
+            
+            AIExecutionService.Lane lane = executionService.openLane("defect_prediction");
+            
+            AIBatcher.Session<Map<String, Object>> session = batcher.open(lane, budget,
+                AIRequestBuilder.Analysis.DEFECT_PREDICTION, SYSTEM_PROMPT,
+                file -> new AIRequestBuilder.FileContext(file.getRelativePath(), file.getContent(),
+                    findingsByFile.getOrDefault(file.getRelativePath(), Collections.emptyList()),
+                    calculateMetrics(file), null, null),
+                (file, aiResponse) -> toResult(file.getRelativePath(), aiResponse),
+                file -> predictFileDefects(file,
+                    findingsByFile.getOrDefault(file.getRelativePath(), Collections.emptyList()),
+                    calculateMetrics(file), lane, budget));
+            
+            // Files reach the model as their static findings are ready; limited budgets take the riskiest
+            List<CompletableFuture<Map<String, Object>>> futures = pipeline.run(snapshot,
+                codeFiles, findingsByFile, budget, session);
             
-            System.out.println("Found " + futures.size() + " code files to analyze");
+            System.out.println("Submitted " + futures.size() + " code files for analysis");
             
-            List<Map<String, Object>> allResults = futures.stream()
-                .map(CompletableFuture::join)
+            List<Map<String, Object>> allResults = budget.collect(futures).stream()
                 .collect(Collectors.toList());
             
             List<Map<String, Object>> predictions = allResults.stream()
@@ -94,13 +111,13 @@ public class AIDefectPredictor {
                 .mapToInt(p -> (Integer) p.getOrDefault("defectScore", 0))
                 .sum() / (totalFiles > 0 ? totalFiles : 1);
             
-            return Map.of(
+            return budget.report(Map.of(
                 "status", "completed",
                 "totalFiles", totalFiles,
                 "highRiskFiles", highRiskFiles,
                 "averageDefectScore", avgDefectScore,
                 "predictions", predictions
-            );
+            ));
             
         } catch (Exception e) {
             return Map.of(
@@ -110,37 +127,32 @@ public class AIDefectPredictor {
         }
     }
 
-    private Map<String, Object> predictFileDefects(Path file, Path repoRoot,
+    private Map<String, Object> predictFileDefects(SourceFile file,
                                                    List<Map<String, Object>> staticFindings,
-                                                   Map<String, Object> metrics) {
+                                                   Map<String, Object> metrics,
+                                                   AIExecutionService.Lane lane, AnalysisBudget budget) {
         try {
-            String content = Files.readString(file);
-            String relativePath = repoRoot.relativize(file).toString();
-            
-            if (content.length() > 50000) {
-                return Map.of("file", relativePath, "status", "skipped");
-            }
-            
-            String prompt = requestBuilder.buildDefectPredictionPrompt(relativePath, content, staticFindings, metrics);
-            String systemPrompt = "You are an expert software quality analyst. " +
-                                "Predict defect probability based on code patterns, complexity, and static analysis. " +
-                                "Return only valid JSON.";
-            
-            String aiResponse = aiClient.callAI(systemPrompt, prompt);
-            Map<String, Object> prediction = responseParser.parseDefectPrediction(aiResponse);
-            prediction.put("file", relativePath);
-            
-            if (!prediction.containsKey("defectScore")) {
-                prediction.put("defectScore", 0);
+            String relativePath = file.getRelativePath();
+            PromptCompactor.Compacted compacted = compactor.compact(relativePath, file.getContent(), budget);
+            String content = compacted.content();
+            
+            String aiResponse;
+            if (chunker.needsChunking(content)) {
+                aiResponse = chunker.callChunked(lane, AIRequestBuilder.Analysis.DEFECT_PREDICTION, SYSTEM_PROMPT,
+                    new AIRequestBuilder.FileContext(relativePath, content, staticFindings, metrics, null, null));
+            } else {
+                String prompt = requestBuilder.buildDefectPredictionPrompt(relativePath, content, staticFindings, metrics);
+                aiResponse = aiClient.callAIStreaming(SYSTEM_PROMPT, prompt,
+                    responseParser.streamTo(budget, relativePath, compacted::originalLine));
             }
-            
-            return prediction;
+            aiResponse = responseParser.remapLines(aiResponse, compacted::originalLine);
+            return toResult(relativePath, aiResponse);
             
         } catch (Exception e) {
-            System.err.println("Error processing file " + repoRoot.relativize(file) + ": " + e.getMessage());
+            System.err.println("Error processing file " + file.getRelativePath() + ": " + e.getMessage());
             e.printStackTrace();
             return Map.of(
-                "file", repoRoot.relativize(file).toString(),
+                "file", file.getRelativePath(),
                 "status", "error",
                 "error", e.getMessage(),
                 "defectScore", 0
@@ -148,60 +160,42 @@ public class AIDefectPredictor {
         }
     }
 
-    private Map<String, Map<String, Object>> calculateMetrics(Path repoPath) {
-        Map<String, Map<String, Object>> metrics = new HashMap<>();
+    private Map<String, Object> toResult(String relativePath, String aiResponse) {
+        Map<String, Object> prediction = responseParser.parseDefectPrediction(aiResponse);
+        prediction.put("file", relativePath);
         
-        try (var paths = Files.walk(repoPath)) {
-            paths.filter(Files::isRegularFile)
-                .filter(this::isCodeFile)
-                .forEach(file -> {
-                    try {
-                        String content = Files.readString(file);
-                        String relativePath = repoPath.relativize(file).toString();
-                        
-                        int lines = content.split("\n").length;
-                        int complexity = countOccurrences(content, "if\\s*\\(") +
-                                       countOccurrences(content, "for\\s*\\(") +
-                                       countOccurrences(content, "while\\s*\\(") +
-                                       countOccurrences(content, "catch\\s*\\(");
-                        
-                        metrics.put(relativePath, Map.of(
-                            "lines", lines,
-                            "complexity", complexity,
-                            "size", content.length()
-                        ));
-                    } catch (IOException ignored) {}
-                });
-        } catch (IOException ignored) {}
+        if (!prediction.containsKey("defectScore")) {
+            prediction.put("defectScore", 0);
+        }
         
-        return metrics;
-    }
-
-    private int countOccurrences(String text, String pattern) {
-        return (int) java.util.regex.Pattern.compile(pattern).matcher(text).results().count();
+        return prediction;
     }
 
-    private boolean isCodeFile(Path file) {
-        String fileName = file.toString().toLowerCase();
-        return fileName.endsWith(".java") || 
-               fileName.endsWith(".js") || 
-               fileName.endsWith(".ts") || 
-               fileName.endsWith(".py") ||
-               fileName.endsWith(".jsx") ||
-               fileName.endsWith(".tsx");
-    }
-
-    @PreDestroy
-    public void shutdown() {
-        executorService.shutdown();
+    Map<String, Object> calculateMetrics(SourceFile file) {
         try {
-            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
+            SourceScanner.Result scan = file.getScanResult();
+            int complexity = scan.ifCount() + scan.forCount() + scan.whileCount() + scan.catchCount();
+            
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("lines", scan.lineCount());
+            metrics.put("complexity", complexity);
+            metrics.put("size", file.getContent().length());
+            
+            FileHistory history = file.getHistory();
+            if (history != null) {
+                metrics.put("commits", history.commits());
+                metrics.put("authors", history.authors());
+                metrics.put("churn", history.churn());
+                metrics.put("daysSinceLastChange", history.daysSinceChange());
             }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            Thread.currentThread().interrupt();
+            return metrics;
+        } catch (IOException e) {
+            return Collections.emptyMap();
         }
     }
+
+    private boolean isCodeFile(SourceFile file) {
+        return file.hasExtension("java", "js", "ts", "py", "jsx", "tsx");
+    }
 }
 
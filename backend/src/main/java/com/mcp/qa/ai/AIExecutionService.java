@@ -0,0 +1,139 @@
+package com.mcp.qa.ai;
+
+import org.springframework.stereotype.Component;
+import jakarta.annotation.PreDestroy;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs the per-file AI calls of every engine on virtual threads under one global concurrency
+ * limit, the current limit of the AdaptiveConcurrencyLimiter, so the number of tasks running
+ * follows what the provider sustains. Each analysis run opens its own lane, and free slots are
+ * handed to lanes round-robin, so concurrent requests and analysis types share provider throughput
+ * instead of queueing behind the largest repository.
+ */
+@Component
+public class AIExecutionService {
+
+    public final class Lane {
+        private final String name;
+        private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+        private boolean scheduled;
+
+        private Lane(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public <T> CompletableFuture<T> submit(Supplier<T> task) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            enqueue(this, () -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(task.get());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+            return future;
+        }
+    }
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ArrayDeque<Lane> readyLanes = new ArrayDeque<>();
+    private final AtomicInteger laneIds = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private int running;
+    private int queued;
+
+    public AIExecutionService(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public Lane openLane(String analysisType) {
+        return new Lane(analysisType + "-" + laneIds.incrementAndGet());
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("limit", limiter.getLimit());
+        stats.put("running", running);
+        stats.put("queued", queued);
+        stats.put("activeLanes", readyLanes.size());
+        stats.put("completed", completed.get());
+        return stats;
+    }
+
+    private synchronized void enqueue(Lane lane, Runnable task) {
+        lane.pending.add(task);
+        queued++;
+        if (!lane.scheduled) {
+            lane.scheduled = true;
+            readyLanes.add(lane);
+        }
+        dispatch();
+    }
+
+    private synchronized void onComplete() {
+        running--;
+        completed.incrementAndGet();
+        dispatch();
+    }
+
+    // A limit that grew is picked up on the next completion; one that shrank drains as tasks finish
+    private void dispatch() {
+        int limit = limiter.getLimit();
+        while (running < limit && !readyLanes.isEmpty()) {
+            // Take one task from the lane at the head, then send the lane to the back of the line
+            Lane lane = readyLanes.poll();
+            Runnable task = lane.pending.poll();
+            if (lane.pending.isEmpty()) {
+                lane.scheduled = false;
+            } else {
+                readyLanes.add(lane);
+            }
+            queued--;
+            running++;
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        onComplete();
+                    }
+                });
+            } catch (RuntimeException e) {
+                running--;
+                throw e;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.mcp.qa.ai;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import jakarta.annotation.PreDestroy;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Non-blocking HTTP transport for the chat completions API on java.net.http.HttpClient. One client
+ * is shared by all calls, so connections are kept alive and pooled, and HTTP/2 is negotiated where
+ * the provider supports it to multiplex concurrent calls over one connection. No thread is held
+ * while a request is in flight.
+ */
+@Component
+public class AIHttpTransport {
+
+    public record Response(int status, HttpHeaders headers, String body) {
+        public String header(String name) {
+            return headers.firstValue(name).orElse(null);
+        }
+    }
+
+    /** A response whose body is consumed line by line; closing the lines aborts the exchange. */
+    public record StreamingResponse(int status, HttpHeaders headers, Stream<String> lines) {
+        public String header(String name) {
+            return headers.firstValue(name).orElse(null);
+        }
+    }
+
+    private final ExecutorService executor;
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+
+    public AIHttpTransport(
+            @Value("${ai.http.connect-timeout-ms:10000}") long connectTimeoutMillis,
+            @Value("${ai.http.request-timeout-ms:120000}") long requestTimeoutMillis) {
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+            .executor(executor)
+            .build();
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+    }
+
+    public CompletableFuture<Response> postJson(String url, String bearerToken, String json) {
+        return httpClient.sendAsync(request(url, bearerToken, json), HttpResponse.BodyHandlers.ofString())
+            .thenApply(response -> new Response(response.statusCode(), response.headers(), response.body()));
+    }
+
+    public CompletableFuture<StreamingResponse> postJsonStreaming(String url, String bearerToken, String json) {
+        return httpClient.sendAsync(request(url, bearerToken, json), HttpResponse.BodyHandlers.ofLines())
+            .thenApply(response -> new StreamingResponse(response.statusCode(), response.headers(), response.body()));
+    }
+
+    private HttpRequest request(String url, String bearerToken, String json) {
+        return HttpRequest.newBuilder(URI.create(url))
+            .timeout(requestTimeout)
+            .header("Content-Type", "application/json")
+            .header("Authorization", "Bearer " + bearerToken)
+            .POST(HttpRequest.BodyPublishers.ofString(json))
+            .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        httpClient.close();
+        executor.shutdown();
+    }
+}
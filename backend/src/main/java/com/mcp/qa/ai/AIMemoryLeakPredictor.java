@@ -1,60 +1,76 @@
 package com.mcp.qa.ai;
 
-import com.mcp.qa.analyzer.StaticAnalyzer;
+import com.mcp.qa.repo.RepositorySnapshot;
+import com.mcp.qa.repo.SourceFile;
 import org.springframework.stereotype.Component;
-import jakarta.annotation.PreDestroy;
 
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.io.IOException;
 
 @Component
 public class AIMemoryLeakPredictor {
 
+    private static final String SYSTEM_PROMPT = "You are an expert in memory management and resource leak detection. " +
+                                                "Identify potential memory leaks, resource leaks, and unbounded growth patterns. " +
+                                                "Return only valid JSON.";
+
     private final AIClient aiClient;
     private final AIRequestBuilder requestBuilder;
     private final AIResponseParser responseParser;
-    private final StaticAnalyzer staticAnalyzer;
-    private final ExecutorService executorService;
+    private final AIPipeline pipeline;
+    private final AIExecutionService executionService;
+    private final AIBatcher batcher;
+    private final AIChunker chunker;
+    private final PromptCompactor compactor;
 
     public AIMemoryLeakPredictor(AIClient aiClient, AIRequestBuilder requestBuilder,
-                                 AIResponseParser responseParser, StaticAnalyzer staticAnalyzer) {
+                                 AIResponseParser responseParser, AIPipeline pipeline,
+                                 AIExecutionService executionService, AIBatcher batcher, AIChunker chunker,
+                                 PromptCompactor compactor) {
         this.aiClient = aiClient;
         this.requestBuilder = requestBuilder;
         this.responseParser = responseParser;
-        this.staticAnalyzer = staticAnalyzer;
-        this.executorService = Executors.newFixedThreadPool(4);
+        this.pipeline = pipeline;
+        this.executionService = executionService;
+        this.batcher = batcher;
+        this.chunker = chunker;
+        this.compactor = compactor;
     }
 
-    public Map<String, Object> predictMemoryLeaks(Path repoPath) {
+    public Map<String, Object> predictMemoryLeaks(Path repoPath, AnalysisBudget budget) {
         try {
-            List<Map<String, Object>> staticFindings = staticAnalyzer.analyzePath(repoPath);
+            return predictMemoryLeaks(RepositorySnapshot.of(repoPath), budget);
+        } catch (Exception e) {
+            return Map.of(
+                "status", "error",
+                "error", e.getMessage()
+            );
+        }
+    }
+
+    public Map<String, Object> predictMemoryLeaks(RepositorySnapshot snapshot, AnalysisBudget budget) {
+        try {
+            Map<String, List<Map<String, Object>>> findingsByFile = new ConcurrentHashMap<>();
             
-            Map<String, List<Map<String, Object>>> findingsByFile = staticFindings.stream()
-                .collect(Collectors.groupingBy(f -> (String) f.get("file")));
+            AIExecutionService.Lane lane = executionService.openLane("memory_leaks");
             
-            List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
+            AIBatcher.Session<Map<String, Object>> session = batcher.open(lane, budget,
+                AIRequestBuilder.Analysis.MEMORY_LEAKS, SYSTEM_PROMPT,
+                file -> new AIRequestBuilder.FileContext(file.getRelativePath(), file.getContent(),
+                    findingsByFile.getOrDefault(file.getRelativePath(), Collections.emptyList()), null, null, null),
+                (file, aiResponse) -> toResult(file.getRelativePath(), aiResponse),
+                file -> predictFileLeaks(file,
+                    findingsByFile.getOrDefault(file.getRelativePath(), Collections.emptyList()), lane, budget));
             
-            try (var paths = Files.walk(repoPath)) {
-                paths.filter(Files::isRegularFile)
-                    .filter(this::isCodeFile)
-                    .forEach(file -> {
-                        CompletableFuture<Map<String, Object>> future = CompletableFuture.supplyAsync(() -> {
-                            String relativePath = repoPath.relativize(file).toString();
-                            return predictFileLeaks(file, repoPath,
-                                findingsByFile.getOrDefault(relativePath, Collections.emptyList()));
-                        }, executorService);
-                        futures.add(future);
-                    });
-            }
+            // Files reach the model as their static findings are ready; limited budgets take the riskiest
+            List<CompletableFuture<Map<String, Object>>> futures = pipeline.run(snapshot,
+                snapshot.getFiles(this::isCodeFile), findingsByFile, budget, session);
             
-            List<Map<String, Object>> leakPredictions = futures.stream()
-                .map(CompletableFuture::join)
+            List<Map<String, Object>> leakPredictions = budget.collect(futures).stream()
                 .filter(result -> result.containsKey("leaks"))
                 .collect(Collectors.toList());
             
@@ -67,13 +83,13 @@ public class AIMemoryLeakPredictor {
                 .mapToInt(l -> "HIGH".equals(l.get("severity")) ? 1 : 0)
                 .sum();
             
-            return Map.of(
+            return budget.report(Map.of(
                 "status", "completed",
                 "totalFilesAnalyzed", leakPredictions.size(),
                 "totalLeaks", totalLeaks,
                 "highSeverityLeaks", highSeverityLeaks,
                 "predictions", leakPredictions
-            );
+            ));
             
         } catch (Exception e) {
             return Map.of(
@@ -83,60 +99,46 @@ public class AIMemoryLeakPredictor {
         }
     }
 
-    private Map<String, Object> predictFileLeaks(Path file, Path repoRoot,
-                                                List<Map<String, Object>> staticFindings) {
+    private Map<String, Object> predictFileLeaks(SourceFile file, List<Map<String, Object>> staticFindings,
+                                                 AIExecutionService.Lane lane, AnalysisBudget budget) {
         try {
-            String content = Files.readString(file);
-            String relativePath = repoRoot.relativize(file).toString();
+            String relativePath = file.getRelativePath();
+            PromptCompactor.Compacted compacted = compactor.compact(relativePath, file.getContent(), budget);
+            String content = compacted.content();
             
-            if (content.length() > 50000) {
-                return Map.of("file", relativePath, "status", "skipped");
+            String aiResponse;
+            if (chunker.needsChunking(content)) {
+                aiResponse = chunker.callChunked(lane, AIRequestBuilder.Analysis.MEMORY_LEAKS, SYSTEM_PROMPT,
+                    new AIRequestBuilder.FileContext(relativePath, content, staticFindings, null, null, null));
+            } else {
+                String prompt = requestBuilder.buildMemoryLeakPrompt(relativePath, content, staticFindings);
+                aiResponse = aiClient.callAIStreaming(SYSTEM_PROMPT, prompt,
+                    responseParser.streamTo(budget, relativePath, compacted::originalLine));
             }
-            
-            String prompt = requestBuilder.buildMemoryLeakPrompt(relativePath, content, staticFindings);
-            String systemPrompt = "You are an expert in memory management and resource leak detection. " +
-                                "Identify potential memory leaks, resource leaks, and unbounded growth patterns. " +
-                                "Return only valid JSON.";
-            
-            String aiResponse = aiClient.callAI(systemPrompt, prompt);
-            List<Map<String, Object>> leaks = responseParser.parseMemoryLeaks(aiResponse);
-            
-            return Map.of(
-                "file", relativePath,
-                "leaks", leaks,
-                "leakCount", leaks.size()
-            );
+            aiResponse = responseParser.remapLines(aiResponse, compacted::originalLine);
+            return toResult(relativePath, aiResponse);
             
         } catch (Exception e) {
             return Map.of(
-                "file", repoRoot.relativize(file).toString(),
+                "file", file.getRelativePath(),
                 "status", "error",
                 "error", e.getMessage()
             );
         }
     }
 
-    private boolean isCodeFile(Path file) {
-        String fileName = file.toString().toLowerCase();
-        return fileName.endsWith(".java") || 
-               fileName.endsWith(".js") || 
-               fileName.endsWith(".ts") || 
-               fileName.endsWith(".py") ||
-               fileName.endsWith(".jsx") ||
-               fileName.endsWith(".tsx");
+    private Map<String, Object> toResult(String relativePath, String aiResponse) {
+        List<Map<String, Object>> leaks = responseParser.parseMemoryLeaks(aiResponse);
+        
+        return Map.of(
+            "file", relativePath,
+            "leaks", leaks,
+            "leakCount", leaks.size()
+        );
     }
 
-    @PreDestroy
-    public void shutdown() {
-        executorService.shutdown();
-        try {
-            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
+    private boolean isCodeFile(SourceFile file) {
+        return file.hasExtension("java", "js", "ts", "py", "jsx", "tsx");
     }
 }
 
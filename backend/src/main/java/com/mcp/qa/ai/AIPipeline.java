@@ -0,0 +1,147 @@
+package com.mcp.qa.ai;
+
+import com.mcp.qa.analyzer.StaticAnalyzer;
+import com.mcp.qa.repo.RepositorySnapshot;
+import com.mcp.qa.repo.SourceFile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Overlaps static analysis with AI calls. Static analysis runs on its own thread and puts every
+ * file into a queue as soon as its findings are known; the caller's thread takes the riskiest file
+ * waiting and hands it to the batcher session. The static workers never wait on the queue, since
+ * a file's findings are small; when too much AI work is outstanding no more is taken, so memory
+ * stays bounded and total latency approaches max(static, AI) rather than the sum. A budget with a
+ * file or token limit must spend it on the riskiest files of the whole repository, so then every
+ * file is ranked once static analysis has finished and only the selection overlaps with AI calls.
+ * Once the budget's deadline passes or it is cancelled, no more files are taken and static
+ * analysis stops.
+ */
+@Component
+public class AIPipeline {
+
+    private record Item(SourceFile file, List<Map<String, Object>> findings, double risk) {}
+
+    private static final Item END = new Item(null, null, Double.NEGATIVE_INFINITY);
+
+    private final StaticAnalyzer staticAnalyzer;
+    private final int capacity;
+
+    public AIPipeline(StaticAnalyzer staticAnalyzer,
+                      @Value("${ai.pipeline.queue-capacity:64}") int capacity) {
+        this.staticAnalyzer = staticAnalyzer;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Feeds files to the session as their static findings arrive, or in risk order once all have
+     * arrived if the budget limits files or tokens, and returns one future per admitted file.
+     * findingsByFile is filled with each file's findings before the file is added, so the
+     * session's callbacks can read them. Returns once static analysis has finished and every
+     * admitted file is submitted, or as soon as the budget expires.
+     */
+    public <T> List<CompletableFuture<T>> run(RepositorySnapshot snapshot, List<SourceFile> files,
+                                              Map<String, List<Map<String, Object>>> findingsByFile,
+                                              AnalysisBudget budget, AIBatcher.Session<T> session)
+            throws InterruptedException {
+        Set<SourceFile> wanted = new HashSet<>(files);
+        PriorityBlockingQueue<Item> queue = new PriorityBlockingQueue<>(capacity + 1,
+            Comparator.comparingDouble(Item::risk).reversed());
+        Semaphore outstanding = new Semaphore(capacity);
+        AtomicBoolean stopped = new AtomicBoolean();
+
+        Thread.ofVirtual().name("static-analysis-" + snapshot.getRoot().getFileName()).start(() -> {
+            try {
+                staticAnalyzer.analyze(snapshot, (file, findings) -> {
+                    if (stopped.get()) {
+                        throw new CancellationException("analysis budget expired");
+                    }
+                    if (wanted.contains(file)) {
+                        // Runs on the analyzer's ForkJoinPool; blocking here would make it spawn workers
+                        queue.add(new Item(file, findings, FileRiskRanker.score(file, findings)));
+                    }
+                });
+            } catch (CancellationException e) {
+                // Stopped below; nothing will take the rest of the files
+            } catch (Exception e) {
+                System.err.println("Static analysis failed, continuing without findings: " + e.getMessage());
+            } finally {
+                queue.add(END);
+            }
+        });
+
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        Set<SourceFile> seen = new HashSet<>();
+        List<Item> ranked = new ArrayList<>();
+        boolean selective = budget.isSelective();
+        // A cancel must not wait for the next file to arrive
+        budget.whenCancelled().thenRun(() -> queue.add(END));
+        while (true) {
+            Item item = queue.poll();
+            if (item == null) {
+                // Static analysis is behind: send the partial batch rather than let the lane idle
+                session.flush();
+                item = queue.poll(budget.millisRemaining(), TimeUnit.MILLISECONDS);
+            }
+            if (item == END || item == null || budget.isExpired()) {
+                break;
+            }
+            seen.add(item.file());
+            if (selective) {
+                ranked.add(item);
+            } else if (!budget.admit(List.of(item.file())).isEmpty()) {
+                submit(item, findingsByFile, session, budget, outstanding, futures);
+            }
+        }
+        stopped.set(true);
+        if (budget.isExpired()) {
+            session.flush();
+            return futures;
+        }
+
+        List<Item> remaining = new ArrayList<>();
+        for (SourceFile file : files) {
+            if (!seen.contains(file)) {
+                remaining.add(new Item(file, Collections.emptyList(), FileRiskRanker.score(file, Collections.emptyList())));
+            }
+        }
+        if (selective) {
+            ranked.addAll(remaining);
+            ranked.sort(Comparator.comparingDouble(Item::risk).reversed());
+            remaining = ranked;
+        }
+        Map<SourceFile, Item> byFile = new HashMap<>();
+        remaining.forEach(item -> byFile.put(item.file(), item));
+        for (SourceFile file : budget.admit(remaining.stream().map(Item::file).toList())) {
+            submit(byFile.get(file), findingsByFile, session, budget, outstanding, futures);
+        }
+        session.flush();
+        return futures;
+    }
+
+    private <T> void submit(Item item, Map<String, List<Map<String, Object>>> findingsByFile,
+                            AIBatcher.Session<T> session, AnalysisBudget budget, Semaphore outstanding,
+                            List<CompletableFuture<T>> futures) throws InterruptedException {
+        SourceFile file = item.file();
+        findingsByFile.put(file.getRelativePath(), item.findings());
+
+        if (!outstanding.tryAcquire()) {
+            session.flush();
+            outstanding.acquire();
+        }
+        CompletableFuture<T> future = session.add(file);
+        future.whenComplete((result, error) -> {
+            outstanding.release();
+            budget.fileFinished(file, result, error);
+        });
+        futures.add(future);
+    }
+}
@@ -1,63 +1,81 @@
 package com.mcp.qa.ai;
 
-import com.mcp.qa.analyzer.StaticAnalyzer;
+import com.mcp.qa.repo.RepositorySnapshot;
+import com.mcp.qa.repo.SourceFile;
 import org.springframework.stereotype.Component;
-import jakarta.annotation.PreDestroy;
 
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.io.IOException;
 
 @Component
 public class AIRefactorAdvisor {
 
+    private static final String SYSTEM_PROMPT = "You are an expert software architect and refactoring specialist. " +
+                                                "Provide actionable refactoring recommendations at both architecture and function levels. " +
+                                                "Return only valid JSON.";
+
     private final AIClient aiClient;
     private final AIRequestBuilder requestBuilder;
     private final AIResponseParser responseParser;
-    private final StaticAnalyzer staticAnalyzer;
-    private final ExecutorService executorService;
+    private final AIPipeline pipeline;
+    private final AIExecutionService executionService;
+    private final AIBatcher batcher;
+    private final AIChunker chunker;
+    private final PromptCompactor compactor;
 
     public AIRefactorAdvisor(AIClient aiClient, AIRequestBuilder requestBuilder,
-                            AIResponseParser responseParser, StaticAnalyzer staticAnalyzer) {
+                            AIResponseParser responseParser, AIPipeline pipeline,
+                            AIExecutionService executionService, AIBatcher batcher, AIChunker chunker,
+                            PromptCompactor compactor) {
         this.aiClient = aiClient;
         this.requestBuilder = requestBuilder;
         this.responseParser = responseParser;
-        this.staticAnalyzer = staticAnalyzer;
-        this.executorService = Executors.newFixedThreadPool(4);
+        this.pipeline = pipeline;
+        this.executionService = executionService;
+        this.batcher = batcher;
+        this.chunker = chunker;
+        this.compactor = compactor;
     }
 
-    public Map<String, Object> analyzeRefactoring(Path repoPath) {
+    public Map<String, Object> analyzeRefactoring(Path repoPath, AnalysisBudget budget) {
         try {
-            List<Map<String, Object>> staticFindings = staticAnalyzer.analyzePath(repoPath);
+            return analyzeRefactoring(RepositorySnapshot.of(repoPath), budget);
+        } catch (Exception e) {
+            return Map.of(
+                "status", "error",
+                "error", e.getMessage()
+            );
+        }
+    }
+
+    public Map<String, Object> analyzeRefactoring(RepositorySnapshot snapshot, AnalysisBudget budget) {
+        try {
+            Map<String, List<Map<String, Object>>> findingsByFile = new ConcurrentHashMap<>();
             
-            Map<String, List<Map<String, Object>>> findingsByFile = staticFindings.stream()
-                .collect(Collectors.groupingBy(f -> (String) f.get("file")));
+            List<SourceFile> codeFiles = snapshot.getFiles(this::isCodeFile);
+            Map<String, Object> architectureContext = analyzeArchitecture(snapshot.getContextFiles(this::isCodeFile));
             
-            Map<String, Object> architectureContext = analyzeArchitecture(repoPath);
+            AIExecutionService.Lane lane = executionService.openLane("refactor");
             
-            List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
+            AIBatcher.Session<Map<String, Object>> session = batcher.open(lane, budget,
+                AIRequestBuilder.Analysis.REFACTOR, SYSTEM_PROMPT,
+                file -> new AIRequestBuilder.FileContext(file.getRelativePath(), file.getContent(),
+                    findingsByFile.getOrDefault(file.getRelativePath(), Collections.emptyList()),
+                    null, null, architectureContext),
+                (file, aiResponse) -> toResult(file.getRelativePath(), aiResponse),
+                file -> analyzeFileRefactoring(file,
+                    findingsByFile.getOrDefault(file.getRelativePath(), Collections.emptyList()),
+                    architectureContext, lane, budget));
             
-            try (var paths = Files.walk(repoPath)) {
-                paths.filter(Files::isRegularFile)
-                    .filter(this::isCodeFile)
-                    .forEach(file -> {
-                        CompletableFuture<Map<String, Object>> future = CompletableFuture.supplyAsync(() -> {
-                            String relativePath = repoPath.relativize(file).toString();
-                            return analyzeFileRefactoring(file, repoPath,
-                                findingsByFile.getOrDefault(relativePath, Collections.emptyList()),
-                                architectureContext);
-                        }, executorService);
-                        futures.add(future);
-                    });
-            }
+            // Files reach the model as their static findings are ready; limited budgets take the riskiest
+            List<CompletableFuture<Map<String, Object>>> futures = pipeline.run(snapshot,
+                codeFiles, findingsByFile, budget, session);
             
-            List<Map<String, Object>> recommendations = futures.stream()
-                .map(CompletableFuture::join)
+            List<Map<String, Object>> recommendations = budget.collect(futures).stream()
                 .filter(result -> result.containsKey("recommendations"))
                 .collect(Collectors.toList());
             
@@ -70,12 +88,12 @@ public class AIRefactorAdvisor {
                 .distinct()
                 .collect(Collectors.toList());
             
-            return Map.of(
+            return budget.report(Map.of(
                 "status", "completed",
                 "totalFilesAnalyzed", recommendations.size(),
                 "architectureRecommendations", allArchRecommendations,
                 "fileRecommendations", recommendations
-            );
+            ));
             
         } catch (Exception e) {
             return Map.of(
@@ -85,58 +103,59 @@ public class AIRefactorAdvisor {
         }
     }
 
-    private Map<String, Object> analyzeFileRefactoring(Path file, Path repoRoot,
+    private Map<String, Object> analyzeFileRefactoring(SourceFile file,
                                                        List<Map<String, Object>> staticFindings,
-                                                       Map<String, Object> architectureContext) {
+                                                       Map<String, Object> architectureContext,
+                                                       AIExecutionService.Lane lane, AnalysisBudget budget) {
         try {
-            String content = Files.readString(file);
-            String relativePath = repoRoot.relativize(file).toString();
+            String relativePath = file.getRelativePath();
+            PromptCompactor.Compacted compacted = compactor.compact(relativePath, file.getContent(), budget);
+            String content = compacted.content();
             
-            if (content.length() > 50000) {
-                return Map.of("file", relativePath, "status", "skipped");
+            String aiResponse;
+            if (chunker.needsChunking(content)) {
+                aiResponse = chunker.callChunked(lane, AIRequestBuilder.Analysis.REFACTOR, SYSTEM_PROMPT,
+                    new AIRequestBuilder.FileContext(relativePath, content, staticFindings, null, null, architectureContext));
+            } else {
+                String prompt = requestBuilder.buildRefactorPrompt(relativePath, content, staticFindings, architectureContext);
+                aiResponse = aiClient.callAIStreaming(SYSTEM_PROMPT, prompt,
+                    responseParser.streamTo(budget, relativePath, compacted::originalLine));
             }
-            
-            String prompt = requestBuilder.buildRefactorPrompt(relativePath, content, staticFindings, architectureContext);
-            String systemPrompt = "You are an expert software architect and refactoring specialist. " +
-                                "Provide actionable refactoring recommendations at both architecture and function levels. " +
-                                "Return only valid JSON.";
-            
-            String aiResponse = aiClient.callAI(systemPrompt, prompt);
-            Map<String, Object> recommendations = responseParser.parseRefactorRecommendations(aiResponse);
-            
-            return Map.of(
-                "file", relativePath,
-                "recommendations", recommendations
-            );
+            aiResponse = responseParser.remapLines(aiResponse, compacted::originalLine);
+            return toResult(relativePath, aiResponse);
             
         } catch (Exception e) {
             return Map.of(
-                "file", repoRoot.relativize(file).toString(),
+                "file", file.getRelativePath(),
                 "status", "error",
                 "error", e.getMessage()
             );
         }
     }
 
-    private Map<String, Object> analyzeArchitecture(Path repoPath) {
+    private Map<String, Object> toResult(String relativePath, String aiResponse) {
+        Map<String, Object> recommendations = responseParser.parseRefactorRecommendations(aiResponse);
+        
+        return Map.of(
+            "file", relativePath,
+            "recommendations", recommendations
+        );
+    }
+
+    Map<String, Object> analyzeArchitecture(List<SourceFile> codeFiles) {
         Map<String, Integer> packageCounts = new HashMap<>();
         List<String> topLevelPackages = new ArrayList<>();
         
-        try (var paths = Files.walk(repoPath)) {
-            paths.filter(Files::isRegularFile)
-                .filter(this::isCodeFile)
-                .forEach(file -> {
-                    String relativePath = repoPath.relativize(file).toString();
-                    String packageName = extractPackage(relativePath);
-                    if (packageName != null && !packageName.isEmpty()) {
-                        packageCounts.put(packageName, packageCounts.getOrDefault(packageName, 0) + 1);
-                        String topLevel = packageName.split("\\.")[0];
-                        if (!topLevelPackages.contains(topLevel)) {
-                            topLevelPackages.add(topLevel);
-                        }
-                    }
-                });
-        } catch (IOException ignored) {}
+        for (SourceFile file : codeFiles) {
+            String packageName = extractPackage(file.getRelativePath());
+            if (packageName != null && !packageName.isEmpty()) {
+                packageCounts.put(packageName, packageCounts.getOrDefault(packageName, 0) + 1);
+                String topLevel = packageName.split("\\.")[0];
+                if (!topLevelPackages.contains(topLevel)) {
+                    topLevelPackages.add(topLevel);
+                }
+            }
+        }
         
         return Map.of(
             "packageCount", packageCounts.size(),
@@ -154,27 +173,8 @@ public class AIRefactorAdvisor {
         return "";
     }
 
-    private boolean isCodeFile(Path file) {
-        String fileName = file.toString().toLowerCase();
-        return fileName.endsWith(".java") || 
-               fileName.endsWith(".js") || 
-               fileName.endsWith(".ts") || 
-               fileName.endsWith(".py") ||
-               fileName.endsWith(".jsx") ||
-               fileName.endsWith(".tsx");
-    }
-
-    @PreDestroy
-    public void shutdown() {
-        executorService.shutdown();
-        try {
-            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
+    private boolean isCodeFile(SourceFile file) {
+        return file.hasExtension("java", "js", "ts", "py", "jsx", "tsx");
     }
 }
 
@@ -1,5 +1,6 @@
 package com.mcp.qa.ai;
 
+import com.mcp.qa.analyzer.SourceChunker;
 import org.springframework.stereotype.Component;
 import java.nio.file.Path;
 import java.util.List;
@@ -8,177 +9,350 @@ import java.util.Map;
 @Component
 public class AIRequestBuilder {
 
-    public String buildCodeInsightPrompt(String filePath, String codeContent, 
+    public enum Analysis {
+        CODE_INSIGHTS,
+        DEFECT_PREDICTION,
+        TEST_GAPS,
+        REFACTOR,
+        MEMORY_LEAKS,
+        COMBINED
+    }
+
+    /** Everything a prompt may say about one file; analyses ignore the parts they don't use. */
+    public record FileContext(String filePath, String codeContent,
+                              List<Map<String, Object>> staticFindings,
+                              Map<String, Object> metrics,
+                              List<String> existingTests,
+                              Map<String, Object> architectureContext) {}
+
+    public String buildCodeInsightPrompt(String filePath, String codeContent,
                                                 List<Map<String, Object>> staticFindings) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("Analyze the following code for hidden bugs, logical errors, and architectural issues.\n\n");
-        prompt.append("File: ").append(filePath).append("\n\n");
-        prompt.append("Code:\n```\n").append(codeContent).append("\n```\n\n");
-        
-        if (!staticFindings.isEmpty()) {
-            prompt.append("Static analysis findings:\n");
-            for (Map<String, Object> finding : staticFindings) {
-                prompt.append("- ").append(finding.get("type"))
-                      .append(" (").append(finding.get("severity")).append("): ")
-                      .append(finding.getOrDefault("details", "")).append("\n");
-            }
-            prompt.append("\n");
-        }
-        
-        prompt.append("Please identify:\n");
-        prompt.append("1. Hidden bugs that static analysis might miss\n");
-        prompt.append("2. Incorrect logical branching\n");
-        prompt.append("3. Misuse of external libraries\n");
-        prompt.append("4. Dangerous concurrency patterns\n");
-        prompt.append("5. Edge cases where code might fail\n\n");
-        prompt.append("Return JSON format:\n");
-        prompt.append("{\n");
-        prompt.append("  \"findings\": [\n");
-        prompt.append("    {\n");
-        prompt.append("      \"type\": \"bug_type\",\n");
-        prompt.append("      \"severity\": \"HIGH|MEDIUM|LOW\",\n");
-        prompt.append("      \"line\": line_number,\n");
-        prompt.append("      \"evidence\": \"code snippet\",\n");
-        prompt.append("      \"reasoning\": \"explanation\"\n");
-        prompt.append("    }\n");
-        prompt.append("  ]\n");
-        prompt.append("}\n");
-        
-        return prompt.toString();
+        return buildPrompt(Analysis.CODE_INSIGHTS, new FileContext(filePath, codeContent, staticFindings, null, null, null));
     }
 
     public String buildDefectPredictionPrompt(String filePath, String codeContent,
                                                      List<Map<String, Object>> staticFindings,
                                                      Map<String, Object> metrics) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("Predict the defect probability for this code file.\n\n");
-        prompt.append("File: ").append(filePath).append("\n\n");
-        prompt.append("Code:\n```\n").append(codeContent).append("\n```\n\n");
-        
-        if (!staticFindings.isEmpty()) {
-            prompt.append("Static analysis findings: ").append(staticFindings.size()).append("\n");
-        }
-        
-        if (metrics != null) {
-            prompt.append("Complexity metrics: ").append(metrics).append("\n");
-        }
-        
-        prompt.append("\nCalculate:\n");
-        prompt.append("1. Defect probability score (0-100)\n");
-        prompt.append("2. Crash probability and severity\n");
-        prompt.append("3. Risk reasons\n");
-        prompt.append("4. Code hotspots (line numbers)\n\n");
-        prompt.append("Return JSON format:\n");
-        prompt.append("{\n");
-        prompt.append("  \"defectScore\": 0-100,\n");
-        prompt.append("  \"crashProbability\": 0-100,\n");
-        prompt.append("  \"severity\": \"HIGH|MEDIUM|LOW\",\n");
-        prompt.append("  \"riskReasons\": [\"reason1\", \"reason2\"],\n");
-        prompt.append("  \"hotspots\": [line1, line2]\n");
-        prompt.append("}\n");
-        
-        return prompt.toString();
+        return buildPrompt(Analysis.DEFECT_PREDICTION, new FileContext(filePath, codeContent, staticFindings, metrics, null, null));
     }
 
     public String buildTestGapPrompt(String filePath, String codeContent,
                                             List<String> existingTests,
                                             List<Map<String, Object>> staticFindings) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("Analyze test coverage gaps for this code.\n\n");
-        prompt.append("File: ").append(filePath).append("\n\n");
-        prompt.append("Code:\n```\n").append(codeContent).append("\n```\n\n");
-        
-        if (!existingTests.isEmpty()) {
-            prompt.append("Existing tests:\n");
-            for (String test : existingTests) {
-                prompt.append("- ").append(test).append("\n");
-            }
-            prompt.append("\n");
-        }
-        
-        prompt.append("Identify:\n");
-        prompt.append("1. Untested code paths\n");
-        prompt.append("2. Missing edge cases\n");
-        prompt.append("3. Missing negative test cases\n");
-        prompt.append("4. Missing async/concurrency tests\n\n");
-        prompt.append("Return JSON format:\n");
-        prompt.append("{\n");
-        prompt.append("  \"gaps\": [\n");
-        prompt.append("    {\n");
-        prompt.append("      \"type\": \"gap_type\",\n");
-        prompt.append("      \"description\": \"description\",\n");
-        prompt.append("      \"suggestedTest\": \"test case description\",\n");
-        prompt.append("      \"priority\": \"HIGH|MEDIUM|LOW\"\n");
-        prompt.append("    }\n");
-        prompt.append("  ]\n");
-        prompt.append("}\n");
-        
-        return prompt.toString();
+        return buildPrompt(Analysis.TEST_GAPS, new FileContext(filePath, codeContent, staticFindings, null, existingTests, null));
     }
 
     public String buildRefactorPrompt(String filePath, String codeContent,
                                             List<Map<String, Object>> staticFindings,
                                             Map<String, Object> architectureContext) {
+        return buildPrompt(Analysis.REFACTOR, new FileContext(filePath, codeContent, staticFindings, null, null, architectureContext));
+    }
+
+    public String buildMemoryLeakPrompt(String filePath, String codeContent,
+                                              List<Map<String, Object>> staticFindings) {
+        return buildPrompt(Analysis.MEMORY_LEAKS, new FileContext(filePath, codeContent, staticFindings, null, null, null));
+    }
+
+    public String buildCombinedAnalysisPrompt(String filePath, String codeContent,
+                                              List<Map<String, Object>> staticFindings,
+                                              Map<String, Object> metrics,
+                                              List<String> existingTests,
+                                              Map<String, Object> architectureContext) {
+        return buildPrompt(Analysis.COMBINED,
+            new FileContext(filePath, codeContent, staticFindings, metrics, existingTests, architectureContext));
+    }
+
+    public String buildPrompt(Analysis analysis, FileContext file) {
         StringBuilder prompt = new StringBuilder();
-        prompt.append("Provide refactoring recommendations for this code.\n\n");
-        prompt.append("File: ").append(filePath).append("\n\n");
-        prompt.append("Code:\n```\n").append(codeContent).append("\n```\n\n");
-        
-        if (architectureContext != null) {
+        prompt.append(intro(analysis));
+        appendFile(prompt, analysis, file, true);
+        appendTask(prompt, analysis);
+        prompt.append("Return JSON format:\n");
+        prompt.append(schema(analysis));
+
+        return prompt.toString();
+    }
+
+    /**
+     * Packs several files into one prompt. The task is stated once, the repository-wide
+     * architecture context is sent once, and the model answers with one result per file keyed by
+     * its path, in the same shape as the single-file schema.
+     */
+    public String buildBatchPrompt(Analysis analysis, List<FileContext> files) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append(intro(analysis));
+        prompt.append("The code below consists of ").append(files.size())
+              .append(" separate files. Analyze each file independently.\n\n");
+
+        Map<String, Object> architectureContext = files.get(0).architectureContext();
+        if ((analysis == Analysis.REFACTOR || analysis == Analysis.COMBINED) && architectureContext != null) {
             prompt.append("Architecture context: ").append(architectureContext).append("\n\n");
         }
-        
-        prompt.append("Provide:\n");
-        prompt.append("1. High-level architecture improvements\n");
-        prompt.append("2. Function-level refactor suggestions\n");
-        prompt.append("3. Unnecessary layers to remove\n");
-        prompt.append("4. Code smells to address\n");
-        prompt.append("5. Package restructuring suggestions\n\n");
-        prompt.append("Return JSON format:\n");
+
+        for (FileContext file : files) {
+            appendFile(prompt, analysis, file, false);
+            prompt.append("\n");
+        }
+
+        appendTask(prompt, analysis);
+        prompt.append("Return JSON format, with one entry for every file above keyed by its exact file path:\n");
         prompt.append("{\n");
-        prompt.append("  \"architecture\": [\"suggestion1\", \"suggestion2\"],\n");
-        prompt.append("  \"functions\": [\n");
-        prompt.append("    {\n");
-        prompt.append("      \"function\": \"function_name\",\n");
-        prompt.append("      \"line\": line_number,\n");
-        prompt.append("      \"suggestion\": \"refactor suggestion\",\n");
-        prompt.append("      \"reason\": \"reasoning\"\n");
-        prompt.append("    }\n");
-        prompt.append("  ],\n");
-        prompt.append("  \"codeSmells\": [\"smell1\", \"smell2\"],\n");
-        prompt.append("  \"packageRestructure\": [\"suggestion1\"]\n");
+        prompt.append("  \"files\": {\n");
+        prompt.append("    \"path/of/file\": ");
+        prompt.append(schema(analysis).strip().replace("\n", "\n    ")).append("\n");
+        prompt.append("  }\n");
         prompt.append("}\n");
-        
+
         return prompt.toString();
     }
 
-    public String buildMemoryLeakPrompt(String filePath, String codeContent,
-                                              List<Map<String, Object>> staticFindings) {
+    /**
+     * Prompt for one chunk of a file too large to send whole. The model sees the chunk plus an
+     * outline of the file and reports line numbers relative to the chunk, which the caller shifts
+     * back to file lines.
+     */
+    public String buildChunkPrompt(Analysis analysis, FileContext file, SourceChunker.Result split,
+                                   SourceChunker.Chunk chunk) {
         StringBuilder prompt = new StringBuilder();
-        prompt.append("Detect potential memory leaks in this code.\n\n");
-        prompt.append("File: ").append(filePath).append("\n\n");
-        prompt.append("Code:\n```\n").append(codeContent).append("\n```\n\n");
-        
-        prompt.append("Look for:\n");
-        prompt.append("1. Resources not closed (files, streams, connections)\n");
-        prompt.append("2. Potential leaks in loops\n");
-        prompt.append("3. Unbounded collections\n");
-        prompt.append("4. Observer/listener leaks\n");
-        prompt.append("5. Asynchronous leak patterns\n\n");
+        prompt.append(intro(analysis));
+        prompt.append("The file has ").append(split.lineCount()).append(" lines and is reviewed in parts. ")
+              .append("Only lines ").append(chunk.startLine()).append("-").append(chunk.endLine())
+              .append(" are shown; count line numbers from the first line shown, which is line 1.\n\n");
+        if (!split.outline().isEmpty()) {
+            prompt.append("Outline of the whole file, for context only:\n```\n").append(split.outline()).append("```\n\n");
+        }
+        appendFile(prompt, analysis, new FileContext(file.filePath(), chunk.content(), file.staticFindings(),
+            file.metrics(), file.existingTests(), file.architectureContext()), true);
+        appendTask(prompt, analysis);
         prompt.append("Return JSON format:\n");
-        prompt.append("{\n");
-        prompt.append("  \"leaks\": [\n");
-        prompt.append("    {\n");
-        prompt.append("      \"type\": \"leak_type\",\n");
-        prompt.append("      \"line\": line_number,\n");
-        prompt.append("      \"severity\": \"HIGH|MEDIUM|LOW\",\n");
-        prompt.append("      \"evidence\": \"code snippet\",\n");
-        prompt.append("      \"fix\": \"suggested fix\"\n");
-        prompt.append("    }\n");
-        prompt.append("  ]\n");
-        prompt.append("}\n");
-        
+        prompt.append(schema(analysis));
+
         return prompt.toString();
     }
-}
 
+    // Roughly four characters per token for source code and English prose
+    public int estimateTokens(long characters) {
+        return (int) Math.min(Integer.MAX_VALUE, characters / 4);
+    }
+
+    private String intro(Analysis analysis) {
+        return switch (analysis) {
+            case CODE_INSIGHTS -> "Analyze the following code for hidden bugs, logical errors, and architectural issues.\n\n";
+            case DEFECT_PREDICTION -> "Predict the defect probability for this code file.\n\n";
+            case TEST_GAPS -> "Analyze test coverage gaps for this code.\n\n";
+            case REFACTOR -> "Provide refactoring recommendations for this code.\n\n";
+            case MEMORY_LEAKS -> "Detect potential memory leaks in this code.\n\n";
+            case COMBINED -> "Perform a complete quality review of this code file in one pass.\n\n";
+        };
+    }
+
+    private void appendFile(StringBuilder prompt, Analysis analysis, FileContext file, boolean includeShared) {
+        prompt.append("File: ").append(file.filePath()).append("\n\n");
+        prompt.append("Code:\n```\n").append(file.codeContent()).append("\n```\n\n");
+
+        List<Map<String, Object>> staticFindings = file.staticFindings();
+        switch (analysis) {
+            case CODE_INSIGHTS -> appendFindings(prompt, staticFindings);
+            case DEFECT_PREDICTION -> {
+                if (!staticFindings.isEmpty()) {
+                    prompt.append("Static analysis findings: ").append(staticFindings.size()).append("\n");
+                }
+                if (file.metrics() != null) {
+                    prompt.append("Complexity metrics: ").append(file.metrics()).append("\n");
+                }
+            }
+            case TEST_GAPS -> {
+                if (!file.existingTests().isEmpty()) {
+                    prompt.append("Existing tests:\n");
+                    for (String test : file.existingTests()) {
+                        prompt.append("- ").append(test).append("\n");
+                    }
+                    prompt.append("\n");
+                }
+            }
+            case REFACTOR -> {
+                if (includeShared && file.architectureContext() != null) {
+                    prompt.append("Architecture context: ").append(file.architectureContext()).append("\n\n");
+                }
+            }
+            case MEMORY_LEAKS -> { }
+            case COMBINED -> {
+                appendFindings(prompt, staticFindings);
+                if (file.metrics() != null) {
+                    prompt.append("Complexity metrics: ").append(file.metrics()).append("\n");
+                }
+                if (!file.existingTests().isEmpty()) {
+                    prompt.append("Existing tests:\n");
+                    for (String test : file.existingTests()) {
+                        prompt.append("- ").append(test).append("\n");
+                    }
+                }
+                if (includeShared && file.architectureContext() != null) {
+                    prompt.append("Architecture context: ").append(file.architectureContext()).append("\n");
+                }
+            }
+        }
+    }
+
+    private void appendFindings(StringBuilder prompt, List<Map<String, Object>> staticFindings) {
+        if (!staticFindings.isEmpty()) {
+            prompt.append("Static analysis findings:\n");
+            for (Map<String, Object> finding : staticFindings) {
+                prompt.append("- ").append(finding.get("type"))
+                      .append(" (").append(finding.get("severity")).append("): ")
+                      .append(finding.getOrDefault("details", "")).append("\n");
+            }
+            prompt.append("\n");
+        }
+    }
+
+    private void appendTask(StringBuilder prompt, Analysis analysis) {
+        switch (analysis) {
+            case CODE_INSIGHTS -> {
+                prompt.append("Please identify:\n");
+                prompt.append("1. Hidden bugs that static analysis might miss\n");
+                prompt.append("2. Incorrect logical branching\n");
+                prompt.append("3. Misuse of external libraries\n");
+                prompt.append("4. Dangerous concurrency patterns\n");
+                prompt.append("5. Edge cases where code might fail\n\n");
+            }
+            case DEFECT_PREDICTION -> {
+                prompt.append("\nCalculate:\n");
+                prompt.append("1. Defect probability score (0-100)\n");
+                prompt.append("2. Crash probability and severity\n");
+                prompt.append("3. Risk reasons\n");
+                prompt.append("4. Code hotspots (line numbers)\n\n");
+            }
+            case TEST_GAPS -> {
+                prompt.append("Identify:\n");
+                prompt.append("1. Untested code paths\n");
+                prompt.append("2. Missing edge cases\n");
+                prompt.append("3. Missing negative test cases\n");
+                prompt.append("4. Missing async/concurrency tests\n\n");
+            }
+            case REFACTOR -> {
+                prompt.append("Provide:\n");
+                prompt.append("1. High-level architecture improvements\n");
+                prompt.append("2. Function-level refactor suggestions\n");
+                prompt.append("3. Unnecessary layers to remove\n");
+                prompt.append("4. Code smells to address\n");
+                prompt.append("5. Package restructuring suggestions\n\n");
+            }
+            case MEMORY_LEAKS -> {
+                prompt.append("Look for:\n");
+                prompt.append("1. Resources not closed (files, streams, connections)\n");
+                prompt.append("2. Potential leaks in loops\n");
+                prompt.append("3. Unbounded collections\n");
+                prompt.append("4. Observer/listener leaks\n");
+                prompt.append("5. Asynchronous leak patterns\n\n");
+            }
+            case COMBINED -> {
+                prompt.append("\nProduce all five sections:\n");
+                prompt.append("1. findings: hidden bugs, incorrect branching, library misuse, dangerous concurrency, failing edge cases\n");
+                prompt.append("2. defectPrediction: defect probability (0-100), crash probability, severity, risk reasons, hotspot lines\n");
+                prompt.append("3. gaps: untested code paths, missing edge, negative and async/concurrency tests\n");
+                prompt.append("4. refactor: architecture, function-level, code smell and package restructuring suggestions\n");
+                prompt.append("5. leaks: unclosed resources, leaks in loops, unbounded collections, listener and async leaks\n\n");
+            }
+        }
+    }
+
+    private String schema(Analysis analysis) {
+        StringBuilder prompt = new StringBuilder();
+        switch (analysis) {
+            case CODE_INSIGHTS -> {
+                prompt.append("{\n");
+                prompt.append("  \"findings\": [\n");
+                prompt.append("    {\n");
+                prompt.append("      \"type\": \"bug_type\",\n");
+                prompt.append("      \"severity\": \"HIGH|MEDIUM|LOW\",\n");
+                prompt.append("      \"line\": line_number,\n");
+                prompt.append("      \"evidence\": \"code snippet\",\n");
+                prompt.append("      \"reasoning\": \"explanation\"\n");
+                prompt.append("    }\n");
+                prompt.append("  ]\n");
+                prompt.append("}\n");
+            }
+            case DEFECT_PREDICTION -> {
+                prompt.append("{\n");
+                prompt.append("  \"defectScore\": 0-100,\n");
+                prompt.append("  \"crashProbability\": 0-100,\n");
+                prompt.append("  \"severity\": \"HIGH|MEDIUM|LOW\",\n");
+                prompt.append("  \"riskReasons\": [\"reason1\", \"reason2\"],\n");
+                prompt.append("  \"hotspots\": [line1, line2]\n");
+                prompt.append("}\n");
+            }
+            case TEST_GAPS -> {
+                prompt.append("{\n");
+                prompt.append("  \"gaps\": [\n");
+                prompt.append("    {\n");
+                prompt.append("      \"type\": \"gap_type\",\n");
+                prompt.append("      \"description\": \"description\",\n");
+                prompt.append("      \"suggestedTest\": \"test case description\",\n");
+                prompt.append("      \"priority\": \"HIGH|MEDIUM|LOW\"\n");
+                prompt.append("    }\n");
+                prompt.append("  ]\n");
+                prompt.append("}\n");
+            }
+            case REFACTOR -> {
+                prompt.append("{\n");
+                prompt.append("  \"architecture\": [\"suggestion1\", \"suggestion2\"],\n");
+                prompt.append("  \"functions\": [\n");
+                prompt.append("    {\n");
+                prompt.append("      \"function\": \"function_name\",\n");
+                prompt.append("      \"line\": line_number,\n");
+                prompt.append("      \"suggestion\": \"refactor suggestion\",\n");
+                prompt.append("      \"reason\": \"reasoning\"\n");
+                prompt.append("    }\n");
+                prompt.append("  ],\n");
+                prompt.append("  \"codeSmells\": [\"smell1\", \"smell2\"],\n");
+                prompt.append("  \"packageRestructure\": [\"suggestion1\"]\n");
+                prompt.append("}\n");
+            }
+            case MEMORY_LEAKS -> {
+                prompt.append("{\n");
+                prompt.append("  \"leaks\": [\n");
+                prompt.append("    {\n");
+                prompt.append("      \"type\": \"leak_type\",\n");
+                prompt.append("      \"line\": line_number,\n");
+                prompt.append("      \"severity\": \"HIGH|MEDIUM|LOW\",\n");
+                prompt.append("      \"evidence\": \"code snippet\",\n");
+                prompt.append("      \"fix\": \"suggested fix\"\n");
+                prompt.append("    }\n");
+                prompt.append("  ]\n");
+                prompt.append("}\n");
+            }
+            case COMBINED -> {
+                prompt.append("{\n");
+                prompt.append("  \"findings\": [\n");
+                prompt.append("    {\"type\": \"bug_type\", \"severity\": \"HIGH|MEDIUM|LOW\", \"line\": line_number, ");
+                prompt.append("\"evidence\": \"code snippet\", \"reasoning\": \"explanation\"}\n");
+                prompt.append("  ],\n");
+                prompt.append("  \"defectPrediction\": {\n");
+                prompt.append("    \"defectScore\": 0-100,\n");
+                prompt.append("    \"crashProbability\": 0-100,\n");
+                prompt.append("    \"severity\": \"HIGH|MEDIUM|LOW\",\n");
+                prompt.append("    \"riskReasons\": [\"reason1\", \"reason2\"],\n");
+                prompt.append("    \"hotspots\": [line1, line2]\n");
+                prompt.append("  },\n");
+                prompt.append("  \"gaps\": [\n");
+                prompt.append("    {\"type\": \"gap_type\", \"description\": \"description\", ");
+                prompt.append("\"suggestedTest\": \"test case description\", \"priority\": \"HIGH|MEDIUM|LOW\"}\n");
+                prompt.append("  ],\n");
+                prompt.append("  \"refactor\": {\n");
+                prompt.append("    \"architecture\": [\"suggestion1\"],\n");
+                prompt.append("    \"functions\": [{\"function\": \"function_name\", \"line\": line_number, ");
+                prompt.append("\"suggestion\": \"refactor suggestion\", \"reason\": \"reasoning\"}],\n");
+                prompt.append("    \"codeSmells\": [\"smell1\"],\n");
+                prompt.append("    \"packageRestructure\": [\"suggestion1\"]\n");
+                prompt.append("  },\n");
+                prompt.append("  \"leaks\": [\n");
+                prompt.append("    {\"type\": \"leak_type\", \"line\": line_number, \"severity\": \"HIGH|MEDIUM|LOW\", ");
+                prompt.append("\"evidence\": \"code snippet\", \"fix\": \"suggested fix\"}\n");
+                prompt.append("  ]\n");
+                prompt.append("}\n");
+            }
+        }
+        return prompt.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package com.mcp.qa.ai;
+
+import com.mcp.qa.utils.DiskLruStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier cache of chat completion responses keyed by a digest of model, system prompt and user
+ * prompt: an in-memory LRU in front of a persistent DiskLruStore. Entries expire after a TTL.
+ */
+@Component
+public class AIResponseCache {
+
+    private record CachedResponse(long expiresAt, String content) {}
+
+    private final boolean enabled;
+    private final long ttlMillis;
+    private final int memoryEntries;
+    private final LinkedHashMap<String, CachedResponse> memory;
+    private final DiskLruStore disk;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    public AIResponseCache(
+            @Value("${ai.cache.enabled:true}") boolean enabled,
+            @Value("${ai.cache.ttl-minutes:1440}") long ttlMinutes,
+            @Value("${ai.cache.memory-entries:2000}") int memoryEntries,
+            @Value("${ai.cache.dir:${java.io.tmpdir}/qa-mcp-cache/ai}") String directory,
+            @Value("${ai.cache.disk-max-mb:512}") long diskMaxMegabytes) {
+        this.enabled = enabled;
+        this.ttlMillis = ttlMinutes * 60_000L;
+        this.memoryEntries = memoryEntries;
+        this.memory = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > AIResponseCache.this.memoryEntries;
+            }
+        };
+        DiskLruStore opened = null;
+        if (enabled) {
+            try {
+                opened = new DiskLruStore(Path.of(directory), diskMaxMegabytes * 1024 * 1024);
+            } catch (IOException e) {
+                System.err.println("WARNING: AI response disk cache disabled, cannot open " + directory + ": " + e.getMessage());
+            }
+        }
+        this.disk = opened;
+    }
+
+    public String key(String model, String systemPrompt, String userPrompt) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(systemPrompt.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(userPrompt.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        CachedResponse cached;
+        synchronized (memory) {
+            cached = memory.get(key);
+        }
+        if (cached != null && cached.expiresAt() > now) {
+            memoryHits.incrementAndGet();
+            return cached.content();
+        }
+
+        byte[] stored = disk != null ? disk.get(key) : null;
+        if (stored != null) {
+            cached = decode(stored);
+            if (cached.expiresAt() > now) {
+                synchronized (memory) {
+                    memory.put(key, cached);
+                }
+                diskHits.incrementAndGet();
+                return cached.content();
+            }
+            disk.remove(key);
+            expired.incrementAndGet();
+        }
+        synchronized (memory) {
+            memory.remove(key);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, String content) {
+        if (!enabled) {
+            return;
+        }
+        CachedResponse response = new CachedResponse(System.currentTimeMillis() + ttlMillis, content);
+        synchronized (memory) {
+            memory.put(key, response);
+        }
+        if (disk != null) {
+            disk.put(key, encode(response));
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        int memorySize;
+        synchronized (memory) {
+            memorySize = memory.size();
+        }
+        return Map.of(
+            "enabled", enabled,
+            "memoryEntries", memorySize,
+            "diskEntries", disk != null ? disk.size() : 0,
+            "diskBytes", disk != null ? disk.sizeInBytes() : 0L,
+            "memoryHits", memoryHits.get(),
+            "diskHits", diskHits.get(),
+            "misses", misses.get(),
+            "expired", expired.get()
+        );
+    }
+
+    private byte[] encode(CachedResponse response) {
+        byte[] content = response.content().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(8 + content.length).putLong(response.expiresAt()).put(content).array();
+    }
+
+    private CachedResponse decode(byte[] stored) {
+        ByteBuffer buffer = ByteBuffer.wrap(stored);
+        long expiresAt = buffer.getLong();
+        return new CachedResponse(expiresAt, new String(stored, 8, stored.length - 8, StandardCharsets.UTF_8));
+    }
+}
@@ -5,6 +5,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -67,59 +70,7 @@ public class AIResponseParser {
                 return createDefaultDefectPrediction();
             }
             
-            Map<String, Object> result = new HashMap<>();
-            
-            Object defectScoreObj = parsed.get("defectScore");
-            int defectScore = 0;
-            if (defectScoreObj != null) {
-                if (defectScoreObj instanceof Number) {
-                    defectScore = ((Number) defectScoreObj).intValue();
-                } else if (defectScoreObj instanceof String) {
-                    try {
-                        defectScore = Integer.parseInt((String) defectScoreObj);
-                    } catch (NumberFormatException e) {
-                        defectScore = 0;
-                    }
-                }
-            }
-            result.put("defectScore", Math.max(0, Math.min(100, defectScore))); // Clamp 0-100
-            
-            Object crashProbObj = parsed.get("crashProbability");
-            int crashProbability = 0;
-            if (crashProbObj != null) {
-                if (crashProbObj instanceof Number) {
-                    crashProbability = ((Number) crashProbObj).intValue();
-                } else if (crashProbObj instanceof String) {
-                    try {
-                        crashProbability = Integer.parseInt((String) crashProbObj);
-                    } catch (NumberFormatException e) {
-                        crashProbability = 0;
-                    }
-                }
-            }
-            result.put("crashProbability", Math.max(0, Math.min(100, crashProbability)));
-            
-            String severity = String.valueOf(parsed.getOrDefault("severity", "LOW"));
-            if (!severity.equals("HIGH") && !severity.equals("MEDIUM") && !severity.equals("LOW")) {
-                severity = defectScore > 70 ? "HIGH" : defectScore > 40 ? "MEDIUM" : "LOW";
-            }
-            result.put("severity", severity);
-            
-            Object riskReasonsObj = parsed.get("riskReasons");
-            List<String> riskReasons = Collections.emptyList();
-            if (riskReasonsObj instanceof List) {
-                riskReasons = (List<String>) riskReasonsObj;
-            }
-            result.put("riskReasons", riskReasons);
-            
-            Object hotspotsObj = parsed.get("hotspots");
-            List<Integer> hotspots = Collections.emptyList();
-            if (hotspotsObj instanceof List) {
-                hotspots = (List<Integer>) hotspotsObj;
-            }
-            result.put("hotspots", hotspots);
-            
-            return result;
+            return toDefectPrediction(parsed);
         } catch (Exception e) {
             System.err.println("Error parsing defect prediction: " + e.getMessage());
             e.printStackTrace();
@@ -127,6 +78,62 @@ public class AIResponseParser {
         }
     }
     
+    private Map<String, Object> toDefectPrediction(Map<String, Object> parsed) {
+        Map<String, Object> result = new HashMap<>();
+        
+        Object defectScoreObj = parsed.get("defectScore");
+        int defectScore = 0;
+        if (defectScoreObj != null) {
+            if (defectScoreObj instanceof Number) {
+                defectScore = ((Number) defectScoreObj).intValue();
+            } else if (defectScoreObj instanceof String) {
+                try {
+                    defectScore = Integer.parseInt((String) defectScoreObj);
+                } catch (NumberFormatException e) {
+                    defectScore = 0;
+                }
+            }
+        }
+        result.put("defectScore", Math.max(0, Math.min(100, defectScore))); // Clamp 0-100
+        
+        Object crashProbObj = parsed.get("crashProbability");
+        int crashProbability = 0;
+        if (crashProbObj != null) {
+            if (crashProbObj instanceof Number) {
+                crashProbability = ((Number) crashProbObj).intValue();
+            } else if (crashProbObj instanceof String) {
+                try {
+                    crashProbability = Integer.parseInt((String) crashProbObj);
+                } catch (NumberFormatException e) {
+                    crashProbability = 0;
+                }
+            }
+        }
+        result.put("crashProbability", Math.max(0, Math.min(100, crashProbability)));
+        
+        String severity = String.valueOf(parsed.getOrDefault("severity", "LOW"));
+        if (!severity.equals("HIGH") && !severity.equals("MEDIUM") && !severity.equals("LOW")) {
+            severity = defectScore > 70 ? "HIGH" : defectScore > 40 ? "MEDIUM" : "LOW";
+        }
+        result.put("severity", severity);
+        
+        Object riskReasonsObj = parsed.get("riskReasons");
+        List<String> riskReasons = Collections.emptyList();
+        if (riskReasonsObj instanceof List) {
+            riskReasons = (List<String>) riskReasonsObj;
+        }
+        result.put("riskReasons", riskReasons);
+        
+        Object hotspotsObj = parsed.get("hotspots");
+        List<Integer> hotspots = Collections.emptyList();
+        if (hotspotsObj instanceof List) {
+            hotspots = (List<Integer>) hotspotsObj;
+        }
+        result.put("hotspots", hotspots);
+        
+        return result;
+    }
+    
     private Map<String, Object> createDefaultDefectPrediction() {
         return Map.of(
             "defectScore", 0,
@@ -149,8 +156,10 @@ public class AIResponseParser {
     }
 
     public Map<String, Object> parseRefactorRecommendations(String aiResponse) {
-        Map<String, Object> parsed = parseResponse(aiResponse);
-        
+        return toRefactorRecommendations(parseResponse(aiResponse));
+    }
+
+    private Map<String, Object> toRefactorRecommendations(Map<String, Object> parsed) {
         Map<String, Object> result = new HashMap<>();
         result.put("architecture", parsed.getOrDefault("architecture", Collections.emptyList()));
         result.put("functions", parsed.getOrDefault("functions", Collections.emptyList()));
@@ -170,5 +179,196 @@ public class AIResponseParser {
         
         return Collections.emptyList();
     }
-}
 
+    /**
+     * Splits the response to buildCombinedAnalysisPrompt into the five results the individual
+     * parsers would return; a missing or malformed section yields that parser's empty result.
+     */
+    public Map<String, Object> parseCombinedAnalysis(String aiResponse) {
+        Map<String, Object> parsed = parseResponse(aiResponse);
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("codeInsights", listSection(parsed, "findings"));
+        
+        Object defectObj = parsed.get("defectPrediction");
+        result.put("defectPrediction", defectObj instanceof Map
+            ? toDefectPrediction((Map<String, Object>) defectObj)
+            : createDefaultDefectPrediction());
+        
+        result.put("testGaps", listSection(parsed, "gaps"));
+        
+        Object refactorObj = parsed.get("refactor");
+        result.put("refactor", toRefactorRecommendations(refactorObj instanceof Map
+            ? (Map<String, Object>) refactorObj
+            : Collections.emptyMap()));
+        
+        result.put("memoryLeaks", listSection(parsed, "leaks"));
+        
+        if (parsed.containsKey("parseError")) {
+            result.put("parseError", parsed.get("parseError"));
+        }
+        return result;
+    }
+
+    /**
+     * Splits the response to a batch prompt into one JSON document per file, keyed by the file
+     * path the model echoed back, so each can be handed to the single-file parser. Files the model
+     * left out are simply absent from the result.
+     */
+    public Map<String, String> splitBatchResponse(String aiResponse) throws Exception {
+        JsonNode files = objectMapper.readTree(extractJsonFromMarkdown(aiResponse)).path("files");
+        
+        Map<String, String> byFile = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> entries = files.fields();
+        while (entries.hasNext()) {
+            Map.Entry<String, JsonNode> entry = entries.next();
+            if (entry.getValue().isObject()) {
+                byFile.put(entry.getKey(), objectMapper.writeValueAsString(entry.getValue()));
+            }
+        }
+        return byFile;
+    }
+
+    /**
+     * Merges the answers for the chunks of one file into a single answer of the same shape, after
+     * shifting each chunk's "line" and "hotspots" values by its line offset. Lists are
+     * concatenated (strings deduplicated), numeric scores and severities take the riskiest chunk,
+     * and chunks whose answer is not valid JSON are dropped.
+     */
+    public String mergeChunkResponses(List<String> aiResponses, List<Integer> lineOffsets) throws Exception {
+        Map<String, Object> merged = new LinkedHashMap<>();
+        int usable = 0;
+        
+        for (int i = 0; i < aiResponses.size(); i++) {
+            Map<String, Object> parsed = parseResponse(aiResponses.get(i));
+            if (parsed.containsKey("parseError")) {
+                System.err.println("Dropping unparseable chunk answer: " + parsed.get("parseError"));
+                continue;
+            }
+            int offset = lineOffsets.get(i);
+            remapLines(parsed, line -> line + offset);
+            mergeInto(merged, parsed);
+            usable++;
+        }
+        
+        if (usable == 0) {
+            throw new IllegalStateException("No chunk of the file returned a usable answer");
+        }
+        return objectMapper.writeValueAsString(merged);
+    }
+
+    /**
+     * Rewrites the "line" and "hotspots" values of an answer with the given mapping, for answers
+     * about code whose lines were renumbered before it was sent. An unparseable answer is returned
+     * unchanged.
+     */
+    public String remapLines(String aiResponse, IntUnaryOperator mapping) {
+        Map<String, Object> parsed = parseResponse(aiResponse);
+        if (parsed.containsKey("parseError")) {
+            return aiResponse;
+        }
+        try {
+            remapLines(parsed, mapping);
+            return objectMapper.writeValueAsString(parsed);
+        } catch (Exception e) {
+            return aiResponse;
+        }
+    }
+
+    /**
+     * A callback for AIClient.callAIStreaming that hands each item of a single-file answer to the
+     * budget's listener as a finding of file, with its lines mapped as remapLines would. Does
+     * nothing if no one observes the budget.
+     */
+    public BiConsumer<List<String>, Map<String, Object>> streamTo(AnalysisBudget budget, String file,
+                                                                  IntUnaryOperator mapping) {
+        if (!budget.isObserved()) {
+            return (path, item) -> { };
+        }
+        return (path, item) -> {
+            remapLines(item, mapping);
+            budget.itemStreamed(file, String.join(".", path), item);
+        };
+    }
+
+    /**
+     * Like streamTo, for a batched answer: items under "files" are reported for the file whose
+     * path keys them, with the mapping mappings returns for that path. Items of files it returns
+     * null for are dropped.
+     */
+    public BiConsumer<List<String>, Map<String, Object>> streamBatchTo(AnalysisBudget budget,
+                                                                       Function<String, IntUnaryOperator> mappings) {
+        if (!budget.isObserved()) {
+            return (path, item) -> { };
+        }
+        return (path, item) -> {
+            IntUnaryOperator mapping = path.size() > 2 && "files".equals(path.get(0)) ? mappings.apply(path.get(1)) : null;
+            if (mapping != null) {
+                remapLines(item, mapping);
+                budget.itemStreamed(path.get(1), String.join(".", path.subList(2, path.size())), item);
+            }
+        };
+    }
+
+    private void remapLines(Object node, IntUnaryOperator mapping) {
+        if (node instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) node;
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                Object value = entry.getValue();
+                if ("line".equals(entry.getKey()) && value instanceof Number) {
+                    entry.setValue(mapping.applyAsInt(((Number) value).intValue()));
+                } else if ("hotspots".equals(entry.getKey()) && value instanceof List) {
+                    entry.setValue(((List<Object>) value).stream()
+                        .map(line -> line instanceof Number ? (Object) mapping.applyAsInt(((Number) line).intValue()) : line)
+                        .collect(Collectors.toList()));
+                } else {
+                    remapLines(value, mapping);
+                }
+            }
+        } else if (node instanceof List) {
+            ((List<Object>) node).forEach(item -> remapLines(item, mapping));
+        }
+    }
+
+    private void mergeInto(Map<String, Object> target, Map<String, Object> source) {
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            Object existing = target.get(key);
+            
+            if (existing == null) {
+                target.put(key, value instanceof List ? new ArrayList<>((List<Object>) value) : value);
+            } else if (existing instanceof List && value instanceof List) {
+                List<Object> list = (List<Object>) existing;
+                for (Object item : (List<Object>) value) {
+                    if (!(item instanceof String) || !list.contains(item)) {
+                        list.add(item);
+                    }
+                }
+            } else if (existing instanceof Map && value instanceof Map) {
+                mergeInto((Map<String, Object>) existing, (Map<String, Object>) value);
+            } else if (existing instanceof Number && value instanceof Number) {
+                target.put(key, Math.max(((Number) existing).intValue(), ((Number) value).intValue()));
+            } else if ("severity".equals(key) && severityRank(value) > severityRank(existing)) {
+                target.put(key, value);
+            }
+        }
+    }
+
+    private int severityRank(Object severity) {
+        return switch (String.valueOf(severity)) {
+            case "HIGH" -> 3;
+            case "MEDIUM" -> 2;
+            case "LOW" -> 1;
+            default -> 0;
+        };
+    }
+
+    private List<Map<String, Object>> listSection(Map<String, Object> parsed, String key) {
+        Object section = parsed.get(key);
+        if (section instanceof List) {
+            return (List<Map<String, Object>>) section;
+        }
+        return Collections.emptyList();
+    }
+}
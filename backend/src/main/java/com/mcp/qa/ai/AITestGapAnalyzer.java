@@ -1,15 +1,13 @@
 package com.mcp.qa.ai;
 
-import com.mcp.qa.analyzer.StaticAnalyzer;
+import com.mcp.qa.repo.RepositorySnapshot;
+import com.mcp.qa.repo.SourceFile;
 import org.springframework.stereotype.Component;
-import jakarta.annotation.PreDestroy;
 
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.io.IOException;
 import java.util.regex.Pattern;
@@ -17,64 +15,76 @@ import java.util.regex.Pattern;
 @Component
 public class AITestGapAnalyzer {
 
+    private static final String SYSTEM_PROMPT = "You are an expert QA engineer specializing in test coverage analysis. " +
+                                                "Identify missing test cases, edge cases, and negative scenarios. " +
+                                                "Return only valid JSON.";
+
     private final AIClient aiClient;
     private final AIRequestBuilder requestBuilder;
     private final AIResponseParser responseParser;
-    private final StaticAnalyzer staticAnalyzer;
-    private final ExecutorService executorService;
+    private final AIPipeline pipeline;
+    private final AIExecutionService executionService;
+    private final AIBatcher batcher;
+    private final AIChunker chunker;
+    private final PromptCompactor compactor;
 
     public AITestGapAnalyzer(AIClient aiClient, AIRequestBuilder requestBuilder,
-                             AIResponseParser responseParser, StaticAnalyzer staticAnalyzer) {
+                             AIResponseParser responseParser, AIPipeline pipeline,
+                             AIExecutionService executionService, AIBatcher batcher, AIChunker chunker,
+                             PromptCompactor compactor) {
         this.aiClient = aiClient;
         this.requestBuilder = requestBuilder;
         this.responseParser = responseParser;
-        this.staticAnalyzer = staticAnalyzer;
-        this.executorService = Executors.newFixedThreadPool(4);
+        this.pipeline = pipeline;
+        this.executionService = executionService;
+        this.batcher = batcher;
+        this.chunker = chunker;
+        this.compactor = compactor;
     }
 
-    public Map<String, Object> analyzeTestGaps(Path repoPath) {
+    public Map<String, Object> analyzeTestGaps(Path repoPath, AnalysisBudget budget) {
         try {
-            List<Map<String, Object>> staticFindings = staticAnalyzer.analyzePath(repoPath);
+            return analyzeTestGaps(RepositorySnapshot.of(repoPath), budget);
+        } catch (Exception e) {
+            return Map.of(
+                "status", "error",
+                "error", e.getMessage()
+            );
+        }
+    }
+
+    public Map<String, Object> analyzeTestGaps(RepositorySnapshot snapshot, AnalysisBudget budget) {
+        try {
+            Map<String, List<Map<String, Object>>> findingsByFile = new ConcurrentHashMap<>();
             
-            Map<String, Path> sourceFiles = new HashMap<>();
-            Map<String, List<String>> testFilesBySource = new HashMap<>();
+            List<SourceFile> codeFiles = snapshot.getFiles(this::isCodeFile);
+            Map<String, List<String>> testFilesBySource = groupTestFiles(snapshot.getContextFiles(this::isCodeFile));
+            Map<String, SourceFile> sourceFiles = new HashMap<>();
             
-            try (var paths = Files.walk(repoPath)) {
-                paths.filter(Files::isRegularFile)
-                    .filter(this::isCodeFile)
-                    .forEach(file -> {
-                        String relativePath = repoPath.relativize(file).toString();
-                        if (isTestFile(file)) {
-                            String sourceBase = getSourceBaseName(relativePath);
-                            testFilesBySource.computeIfAbsent(sourceBase, k -> new ArrayList<>())
-                                .add(relativePath);
-                        } else {
-                            String baseName = getBaseFileName(relativePath);
-                            sourceFiles.put(baseName, file);
-                        }
-                    });
+            for (SourceFile file : codeFiles) {
+                String relativePath = file.getRelativePath();
+                if (!isTestFile(relativePath)) {
+                    sourceFiles.put(getBaseFileName(relativePath), file);
+                }
             }
             
-            List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
+            AIExecutionService.Lane lane = executionService.openLane("test_gaps");
             
-            for (Map.Entry<String, Path> entry : sourceFiles.entrySet()) {
-                String baseName = entry.getKey();
-                Path sourceFile = entry.getValue();
-                List<String> testFiles = testFilesBySource.getOrDefault(baseName, Collections.emptyList());
-                
-                CompletableFuture<Map<String, Object>> future = CompletableFuture.supplyAsync(() -> {
-                    String relativePath = repoPath.relativize(sourceFile).toString();
-                    List<Map<String, Object>> fileFindings = staticFindings.stream()
-                        .filter(f -> relativePath.equals(f.get("file")))
-                        .collect(Collectors.toList());
-                    
-                    return analyzeFileTestGaps(sourceFile, repoPath, testFiles, fileFindings);
-                }, executorService);
-                futures.add(future);
-            }
+            AIBatcher.Session<Map<String, Object>> session = batcher.open(lane, budget,
+                AIRequestBuilder.Analysis.TEST_GAPS, SYSTEM_PROMPT,
+                file -> new AIRequestBuilder.FileContext(file.getRelativePath(), file.getContent(),
+                    findingsByFile.getOrDefault(file.getRelativePath(), Collections.emptyList()), null,
+                    testFilesBySource.getOrDefault(getBaseFileName(file.getRelativePath()), Collections.emptyList()), null),
+                (file, aiResponse) -> toResult(file.getRelativePath(), aiResponse),
+                file -> analyzeFileTestGaps(file,
+                    testFilesBySource.getOrDefault(getBaseFileName(file.getRelativePath()), Collections.emptyList()),
+                    findingsByFile.getOrDefault(file.getRelativePath(), Collections.emptyList()), lane, budget));
+            
+            // Files reach the model as their static findings are ready; limited budgets take the riskiest
+            List<CompletableFuture<Map<String, Object>>> futures = pipeline.run(snapshot,
+                new ArrayList<>(sourceFiles.values()), findingsByFile, budget, session);
             
-            List<Map<String, Object>> gapAnalyses = futures.stream()
-                .map(CompletableFuture::join)
+            List<Map<String, Object>> gapAnalyses = budget.collect(futures).stream()
                 .filter(result -> result.containsKey("gaps"))
                 .collect(Collectors.toList());
             
@@ -82,12 +92,12 @@ public class AITestGapAnalyzer {
                 .mapToInt(g -> ((List<?>) g.getOrDefault("gaps", Collections.emptyList())).size())
                 .sum();
             
-            return Map.of(
+            return budget.report(Map.of(
                 "status", "completed",
                 "totalFilesAnalyzed", gapAnalyses.size(),
                 "totalGaps", totalGaps,
                 "analyses", gapAnalyses
-            );
+            ));
             
         } catch (Exception e) {
             return Map.of(
@@ -97,52 +107,64 @@ public class AITestGapAnalyzer {
         }
     }
 
-    private Map<String, Object> analyzeFileTestGaps(Path file, Path repoRoot,
+    private Map<String, Object> analyzeFileTestGaps(SourceFile file,
                                                     List<String> existingTests,
-                                                    List<Map<String, Object>> staticFindings) {
+                                                    List<Map<String, Object>> staticFindings,
+                                                    AIExecutionService.Lane lane, AnalysisBudget budget) {
         try {
-            String content = Files.readString(file);
-            String relativePath = repoRoot.relativize(file).toString();
+            String relativePath = file.getRelativePath();
+            PromptCompactor.Compacted compacted = compactor.compact(relativePath, file.getContent(), budget);
+            String content = compacted.content();
             
-            if (content.length() > 50000) {
-                return Map.of("file", relativePath, "status", "skipped");
+            String aiResponse;
+            if (chunker.needsChunking(content)) {
+                aiResponse = chunker.callChunked(lane, AIRequestBuilder.Analysis.TEST_GAPS, SYSTEM_PROMPT,
+                    new AIRequestBuilder.FileContext(relativePath, content, staticFindings, null, existingTests, null));
+            } else {
+                String prompt = requestBuilder.buildTestGapPrompt(relativePath, content, existingTests, staticFindings);
+                aiResponse = aiClient.callAIStreaming(SYSTEM_PROMPT, prompt,
+                    responseParser.streamTo(budget, relativePath, compacted::originalLine));
             }
-            
-            String prompt = requestBuilder.buildTestGapPrompt(relativePath, content, existingTests, staticFindings);
-            String systemPrompt = "You are an expert QA engineer specializing in test coverage analysis. " +
-                                "Identify missing test cases, edge cases, and negative scenarios. " +
-                                "Return only valid JSON.";
-            
-            String aiResponse = aiClient.callAI(systemPrompt, prompt);
-            List<Map<String, Object>> gaps = responseParser.parseTestGaps(aiResponse);
-            
-            return Map.of(
-                "file", relativePath,
-                "gaps", gaps,
-                "gapCount", gaps.size()
-            );
+            aiResponse = responseParser.remapLines(aiResponse, compacted::originalLine);
+            return toResult(relativePath, aiResponse);
             
         } catch (Exception e) {
             return Map.of(
-                "file", repoRoot.relativize(file).toString(),
+                "file", file.getRelativePath(),
                 "status", "error",
                 "error", e.getMessage()
             );
         }
     }
 
-    private boolean isCodeFile(Path file) {
-        String fileName = file.toString().toLowerCase();
-        return fileName.endsWith(".java") || 
-               fileName.endsWith(".js") || 
-               fileName.endsWith(".ts") || 
-               fileName.endsWith(".py") ||
-               fileName.endsWith(".jsx") ||
-               fileName.endsWith(".tsx");
+    private Map<String, Object> toResult(String relativePath, String aiResponse) {
+        List<Map<String, Object>> gaps = responseParser.parseTestGaps(aiResponse);
+        
+        return Map.of(
+            "file", relativePath,
+            "gaps", gaps,
+            "gapCount", gaps.size()
+        );
     }
 
-    private boolean isTestFile(Path file) {
-        String fileName = file.toString().toLowerCase();
+    private boolean isCodeFile(SourceFile file) {
+        return file.hasExtension("java", "js", "ts", "py", "jsx", "tsx");
+    }
+
+    Map<String, List<String>> groupTestFiles(List<SourceFile> codeFiles) {
+        Map<String, List<String>> testFilesBySource = new HashMap<>();
+        for (SourceFile file : codeFiles) {
+            String relativePath = file.getRelativePath();
+            if (isTestFile(relativePath)) {
+                testFilesBySource.computeIfAbsent(getSourceBaseName(relativePath), k -> new ArrayList<>())
+                    .add(relativePath);
+            }
+        }
+        return testFilesBySource;
+    }
+
+    boolean isTestFile(String filePath) {
+        String fileName = filePath.toLowerCase();
         return fileName.contains("test") || 
                fileName.contains("spec") ||
                fileName.endsWith("test.java") ||
@@ -152,7 +174,7 @@ public class AITestGapAnalyzer {
                fileName.endsWith("_test.py");
     }
 
-    private String getBaseFileName(String filePath) {
+    String getBaseFileName(String filePath) {
         String fileName = Paths.get(filePath).getFileName().toString();
         fileName = fileName.replaceAll("\\.(java|js|ts|py|jsx|tsx)$", "");
         return fileName.toLowerCase();
@@ -163,18 +185,5 @@ public class AITestGapAnalyzer {
         base = base.replaceAll("(test|spec|tests|specs)$", "");
         return base;
     }
-
-    @PreDestroy
-    public void shutdown() {
-        executorService.shutdown();
-        try {
-            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
-    }
 }
 
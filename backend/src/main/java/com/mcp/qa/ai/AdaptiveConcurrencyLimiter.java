@@ -0,0 +1,151 @@
+package com.mcp.qa.ai;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the number of in-flight provider calls with a limit that adapts to the provider. Healthy
+ * responses move the limit by a latency gradient (long-term over short-term average latency), so
+ * it grows while latency is flat and shrinks once requests start queueing at the provider; a 429
+ * cuts it multiplicatively, at most once per round trip so one burst counts as one signal. The same
+ * limit is the number of AIExecutionService dispatches at once, so it governs end to end.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double SHORT_SMOOTHING = 0.2;
+    private static final double LONG_SMOOTHING = 0.02;
+    private static final double LIMIT_SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private double shortLatency;
+    private double longLatency;
+    private long lastDecrease;
+
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public AdaptiveConcurrencyLimiter(@Value("${ai.concurrency.initial-limit:4}") int initialLimit,
+                                      @Value("${ai.concurrency.min-limit:1}") int minLimit,
+                                      @Value("${ai.concurrency.max-limit:32}") int maxLimit,
+                                      @Value("${ai.concurrency.backoff-ratio:0.7}") double backoffRatio,
+                                      @Value("${ai.concurrency.latency-tolerance:1.5}") double latencyTolerance) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                permitReleased.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess(long latencyNanos) {
+        lock.lock();
+        try {
+            double latency = latencyNanos;
+            if (longLatency == 0) {
+                shortLatency = latency;
+                longLatency = latency;
+            } else {
+                shortLatency += (latency - shortLatency) * SHORT_SMOOTHING;
+                longLatency += (latency - longLatency) * LONG_SMOOTHING;
+            }
+
+            // Below half the limit the caller, not the provider, is the bottleneck: don't grow
+            double gradient = Math.max(0.5, Math.min(1.0, latencyTolerance * longLatency / shortLatency));
+            double target = limit;
+            if (gradient < 1.0) {
+                target = limit * gradient;
+            } else if (inFlight * 2 >= limit) {
+                target = limit + Math.sqrt(limit);
+            }
+            limit = clamp(limit * (1 - LIMIT_SMOOTHING) + target * LIMIT_SMOOTHING);
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onRateLimited() {
+        lock.lock();
+        try {
+            rateLimited.incrementAndGet();
+            long now = System.nanoTime();
+            if (now - lastDecrease > (long) shortLatency) {
+                limit = clamp(limit * backoffRatio);
+                lastDecrease = now;
+            }
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onDropped() {
+        lock.lock();
+        try {
+            dropped.incrementAndGet();
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("limit", (int) limit);
+            stats.put("inFlight", inFlight);
+            stats.put("shortLatencyMs", Math.round(shortLatency / 1_000_000));
+            stats.put("longLatencyMs", Math.round(longLatency / 1_000_000));
+            stats.put("rateLimited", rateLimited.get());
+            stats.put("dropped", dropped.get());
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        inFlight--;
+        permitReleased.signalAll();
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
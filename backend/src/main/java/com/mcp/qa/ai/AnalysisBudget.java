@@ -0,0 +1,255 @@
+package com.mcp.qa.ai;
+
+import com.mcp.qa.repo.SourceFile;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Per-request limit on AI work: a number of files, an estimate of source tokens sent, and a wall
+ * clock deadline, each optional. With a file or token limit, files are admitted in risk order,
+ * ranked over the whole repository, until the limit is reached; at the deadline, files not yet
+ * started are dropped and in-flight results abandoned, and the analysis returns what it has with
+ * truncated set. Cancelling the budget has the same effect as reaching the deadline immediately.
+ */
+public class AnalysisBudget {
+
+    /**
+     * Observes the files of an analysis as they are admitted and as their results arrive, and each
+     * finding as soon as the model has streamed it, before the file's result is complete.
+     */
+    public interface Listener {
+        void fileAdmitted(SourceFile file);
+
+        /** section names the array the item belongs to, such as "findings" or "refactor.functions". */
+        void itemStreamed(String file, String section, Map<String, Object> item);
+
+        /** result is null if the file failed or was dropped. */
+        void fileFinished(SourceFile file, Object result, Throwable error);
+    }
+
+    private final int maxFiles;
+    private final long maxTokens;
+    private final long timeBudgetMillis;
+    private final long startedAt;
+    private final long deadline;
+
+    private int filesAdmitted;
+    private long tokensAdmitted;
+    private int filesNotAdmitted;
+    private long tokensSaved;
+    private volatile int filesUnfinished;
+    private final CompletableFuture<Void> cancelled = new CompletableFuture<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private AnalysisBudget(int maxFiles, long maxTokens, long timeBudgetMillis) {
+        this.maxFiles = maxFiles;
+        this.maxTokens = maxTokens;
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.startedAt = System.currentTimeMillis();
+        this.deadline = timeBudgetMillis > 0 ? startedAt + timeBudgetMillis : Long.MAX_VALUE;
+    }
+
+    public static AnalysisBudget unlimited() {
+        return new AnalysisBudget(0, 0, 0);
+    }
+
+    /** Reads maxFiles, maxTokens and timeBudgetSeconds from tool args; missing or 0 means no limit. */
+    public static AnalysisBudget fromArgs(Map<String, Object> args) {
+        return new AnalysisBudget(
+            (int) number(args.get("maxFiles")),
+            number(args.get("maxTokens")),
+            number(args.get("timeBudgetSeconds")) * 1000);
+    }
+
+    private static long number(Object value) {
+        if (value instanceof Number) {
+            return Math.max(0, ((Number) value).longValue());
+        }
+        if (value instanceof String && !((String) value).isBlank()) {
+            return Math.max(0, Long.parseLong(((String) value).trim()));
+        }
+        return 0;
+    }
+
+    /**
+     * Takes files from the ranked list, riskiest first, while the file and token limits allow. A
+     * file too large for the remaining tokens is passed over in favour of smaller ones after it.
+     * Nothing is admitted once the deadline has passed.
+     */
+    public synchronized List<SourceFile> admit(List<SourceFile> rankedFiles) {
+        List<SourceFile> admitted = new ArrayList<>();
+        for (SourceFile file : rankedFiles) {
+            long tokens = file.getSize() / 4;
+            boolean fits = !isExpired()
+                && (maxFiles <= 0 || filesAdmitted < maxFiles)
+                && (maxTokens <= 0 || tokensAdmitted + tokens <= maxTokens);
+            if (fits) {
+                admitted.add(file);
+                filesAdmitted++;
+                tokensAdmitted += tokens;
+                for (Listener listener : listeners) {
+                    listener.fileAdmitted(file);
+                }
+            } else {
+                filesNotAdmitted++;
+            }
+        }
+        return admitted;
+    }
+
+    /** Counts prompt tokens saved by compacting a file of this request. */
+    public synchronized void addTokensSaved(int tokens) {
+        tokensSaved += tokens;
+    }
+
+    /** True if the file or token limit makes admission a choice, so files must be ranked first. */
+    public boolean isSelective() {
+        return maxFiles > 0 || maxTokens > 0;
+    }
+
+    /** The limits as a string; two budgets with equal keys allow the same work. */
+    public String limitsKey() {
+        return "maxFiles=" + maxFiles + ",maxTokens=" + maxTokens + ",timeBudgetMs=" + timeBudgetMillis;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Reports this budget's events from now on to the listeners of follower, a request that waits
+     * for this one's result instead of doing the work itself. Returns a handle that stops it.
+     */
+    public Runnable forwardTo(AnalysisBudget follower) {
+        List<Listener> forwarded = List.copyOf(follower.listeners);
+        listeners.addAll(forwarded);
+        return () -> listeners.removeAll(forwarded);
+    }
+
+    /** Reports a file's outcome to the listeners, if any. */
+    public void fileFinished(SourceFile file, Object result, Throwable error) {
+        for (Listener listener : listeners) {
+            listener.fileFinished(file, result, error);
+        }
+    }
+
+    public boolean isObserved() {
+        return !listeners.isEmpty();
+    }
+
+    /** Reports a finding streamed ahead of its file's result to the listeners, if any. */
+    public void itemStreamed(String file, String section, Map<String, Object> item) {
+        for (Listener listener : listeners) {
+            listener.itemStreamed(file, section, item);
+        }
+    }
+
+    /** Stops admitting and starting work; collect returns what has finished so far. */
+    public void cancel() {
+        cancelled.complete(null);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.isDone();
+    }
+
+    /** Completes when the budget is cancelled. */
+    public CompletableFuture<Void> whenCancelled() {
+        return cancelled.copy();
+    }
+
+    public boolean isExpired() {
+        return isCancelled() || System.currentTimeMillis() >= deadline;
+    }
+
+    /** Milliseconds until the deadline, 0 once it has passed, or Long.MAX_VALUE without one. */
+    public long millisRemaining() {
+        if (deadline == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    /** Throws if the deadline has passed, so queued work that has not started yet is dropped. */
+    public void checkDeadline() {
+        if (isExpired()) {
+            throw new CancellationException(isCancelled() ? "analysis cancelled" : "time budget exhausted");
+        }
+    }
+
+    /**
+     * Waits for the futures until the deadline and returns the results that completed normally,
+     * in order. Futures still running at the deadline are abandoned and counted as unfinished.
+     */
+    public <T> List<T> collect(List<CompletableFuture<T>> futures) {
+        CompletableFuture<Object> all = CompletableFuture.anyOf(
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])), cancelled);
+        try {
+            long remaining = deadline - System.currentTimeMillis();
+            if (deadline == Long.MAX_VALUE) {
+                all.join();
+            } else if (remaining > 0) {
+                all.get(remaining, TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        } catch (Exception ignored) {
+            // Individual failures are filtered out below
+        }
+
+        List<T> results = new ArrayList<>();
+        int unfinished = 0;
+        for (CompletableFuture<T> future : futures) {
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                results.add(future.join());
+            } else if (!future.isDone() || future.isCancelled() || failedOnDeadline(future)) {
+                future.cancel(false);
+                unfinished++;
+            }
+        }
+        filesUnfinished = unfinished;
+        return results;
+    }
+
+    private boolean failedOnDeadline(CompletableFuture<?> future) {
+        try {
+            future.join();
+            return false;
+        } catch (CancellationException e) {
+            return true;
+        } catch (Exception e) {
+            return e.getCause() instanceof CancellationException;
+        }
+    }
+
+    public synchronized boolean isTruncated() {
+        return filesNotAdmitted > 0 || filesUnfinished > 0;
+    }
+
+    /** Adds truncated and the budget's usage to an analysis result. */
+    public synchronized Map<String, Object> report(Map<String, Object> result) {
+        Map<String, Object> budget = new HashMap<>();
+        budget.put("maxFiles", maxFiles);
+        budget.put("maxTokens", maxTokens);
+        budget.put("timeBudgetMs", timeBudgetMillis);
+        budget.put("filesAdmitted", filesAdmitted);
+        budget.put("tokensAdmitted", tokensAdmitted);
+        budget.put("filesNotAdmitted", filesNotAdmitted);
+        budget.put("filesUnfinished", filesUnfinished);
+        budget.put("tokensSavedByCompaction", tokensSaved);
+        budget.put("elapsedMs", System.currentTimeMillis() - startedAt);
+        budget.put("cancelled", isCancelled());
+
+        Map<String, Object> reported = new HashMap<>(result);
+        reported.put("truncated", isTruncated());
+        reported.put("budget", budget);
+        return reported;
+    }
+}
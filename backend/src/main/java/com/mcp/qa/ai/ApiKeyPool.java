@@ -0,0 +1,229 @@
+package com.mcp.qa.ai;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The configured API keys, each with its own requests-per-minute and tokens-per-minute bucket.
+ * Buckets refill continuously at the configured rate and are corrected from the provider's
+ * x-ratelimit-* and retry-after headers after every response, so calls are spread over every key
+ * that still has quota instead of draining one key until it returns 429.
+ */
+public class ApiKeyPool {
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|s|m|h)");
+    private static final long DEFAULT_RATE_LIMIT_PAUSE_MILLIS = 1000;
+
+    public static final class ApiKey {
+        private final int number;
+        private final String value;
+        private double requests;
+        private double tokens;
+        private long refilledAt;
+        private long blockedUntil;
+        private long calls;
+        private long rateLimited;
+
+        private ApiKey(int number, String value, double requests, double tokens, long now) {
+            this.number = number;
+            this.value = value;
+            this.requests = requests;
+            this.tokens = tokens;
+            this.refilledAt = now;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    private final List<ApiKey> keys = new ArrayList<>();
+    private final double requestsPerMinute;
+    private final double tokensPerMinute;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition capacityChanged = lock.newCondition();
+
+    public ApiKeyPool(List<String> apiKeys, int requestsPerMinute, int tokensPerMinute) {
+        this.requestsPerMinute = Math.max(1, requestsPerMinute);
+        this.tokensPerMinute = Math.max(1, tokensPerMinute);
+        long now = System.currentTimeMillis();
+        for (String apiKey : apiKeys) {
+            keys.add(new ApiKey(keys.size() + 1, apiKey, this.requestsPerMinute, this.tokensPerMinute, now));
+        }
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Reserves one request and the estimated tokens on the key with the most token headroom,
+     * waiting up to maxWaitMillis for any key to refill. Returns null if none frees up in time.
+     */
+    public ApiKey acquire(int estimatedTokens, long maxWaitMillis) throws InterruptedException {
+        double needed = Math.min(estimatedTokens, tokensPerMinute);
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                ApiKey best = null;
+                long earliest = Long.MAX_VALUE;
+                for (ApiKey key : keys) {
+                    refill(key, now);
+                    if (key.blockedUntil <= now && key.requests >= 1 && key.tokens >= needed) {
+                        if (best == null || key.tokens > best.tokens) {
+                            best = key;
+                        }
+                    } else {
+                        earliest = Math.min(earliest, readyAt(key, needed, now));
+                    }
+                }
+                if (best != null) {
+                    best.requests -= 1;
+                    best.tokens -= needed;
+                    best.calls++;
+                    return best;
+                }
+                long wait = Math.min(earliest, deadline) - now;
+                if (wait <= 0 || now >= deadline) {
+                    return null;
+                }
+                capacityChanged.await(wait, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Settles the token estimate against actual usage and adopts the provider's view of the key. */
+    public void onResponse(ApiKey key, Function<String, String> headers, int estimatedTokens, int usedTokens) {
+        lock.lock();
+        try {
+            if (usedTokens > 0) {
+                key.tokens -= usedTokens - Math.min(estimatedTokens, tokensPerMinute);
+            }
+            applyHeaders(key, headers, System.currentTimeMillis());
+            capacityChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onRateLimited(ApiKey key, Function<String, String> headers) {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            key.rateLimited++;
+            applyHeaders(key, headers, now);
+            long pause = parseRetryAfter(headers.apply("retry-after"));
+            key.blockedUntil = Math.max(key.blockedUntil, now + (pause > 0 ? pause : DEFAULT_RATE_LIMIT_PAUSE_MILLIS));
+            capacityChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Map<String, Object>> getStats() {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            List<Map<String, Object>> stats = new ArrayList<>();
+            for (ApiKey key : keys) {
+                refill(key, now);
+                Map<String, Object> keyStats = new HashMap<>();
+                keyStats.put("key", key.number);
+                keyStats.put("requestsRemaining", (int) key.requests);
+                keyStats.put("tokensRemaining", (int) key.tokens);
+                keyStats.put("blockedForMs", Math.max(0, key.blockedUntil - now));
+                keyStats.put("calls", key.calls);
+                keyStats.put("rateLimited", key.rateLimited);
+                stats.add(keyStats);
+            }
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(ApiKey key, long now) {
+        long elapsed = now - key.refilledAt;
+        if (elapsed > 0) {
+            key.requests = Math.min(requestsPerMinute, key.requests + elapsed * requestsPerMinute / 60_000);
+            key.tokens = Math.min(tokensPerMinute, key.tokens + elapsed * tokensPerMinute / 60_000);
+            key.refilledAt = now;
+        }
+    }
+
+    private long readyAt(ApiKey key, double neededTokens, long now) {
+        long requestWait = key.requests >= 1 ? 0 : (long) Math.ceil((1 - key.requests) * 60_000 / requestsPerMinute);
+        long tokenWait = key.tokens >= neededTokens ? 0
+            : (long) Math.ceil((neededTokens - key.tokens) * 60_000 / tokensPerMinute);
+        return Math.max(key.blockedUntil, now + Math.max(requestWait, tokenWait));
+    }
+
+    private void applyHeaders(ApiKey key, Function<String, String> headers, long now) {
+        refill(key, now);
+        Double remainingRequests = parseNumber(headers.apply("x-ratelimit-remaining-requests"));
+        if (remainingRequests != null) {
+            key.requests = Math.min(requestsPerMinute, remainingRequests);
+            if (remainingRequests < 1) {
+                key.blockedUntil = Math.max(key.blockedUntil, now + parseDuration(headers.apply("x-ratelimit-reset-requests")));
+            }
+        }
+        Double remainingTokens = parseNumber(headers.apply("x-ratelimit-remaining-tokens"));
+        if (remainingTokens != null) {
+            key.tokens = Math.min(tokensPerMinute, remainingTokens);
+            if (remainingTokens < 1) {
+                key.blockedUntil = Math.max(key.blockedUntil, now + parseDuration(headers.apply("x-ratelimit-reset-tokens")));
+            }
+        }
+    }
+
+    private static Double parseNumber(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long parseRetryAfter(String value) {
+        Double seconds = parseNumber(value);
+        return seconds != null ? (long) (seconds * 1000) : 0;
+    }
+
+    // Reset headers are Go-style durations such as "120ms", "7.66s" or "2m59.56s"
+    static long parseDuration(String value) {
+        if (value == null) {
+            return 0;
+        }
+        double millis = 0;
+        Matcher matcher = DURATION_PART.matcher(value);
+        while (matcher.find()) {
+            double amount = Double.parseDouble(matcher.group(1));
+            millis += switch (matcher.group(2)) {
+                case "ms" -> amount;
+                case "s" -> amount * 1000;
+                case "m" -> amount * 60_000;
+                default -> amount * 3_600_000;
+            };
+        }
+        return (long) Math.ceil(millis);
+    }
+}
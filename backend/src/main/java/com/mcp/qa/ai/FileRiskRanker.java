@@ -0,0 +1,46 @@
+package com.mcp.qa.ai;
+
+import com.mcp.qa.analyzer.SourceScanner;
+import com.mcp.qa.repo.FileHistory;
+import com.mcp.qa.repo.SourceFile;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Scores files so the ones most likely to hold defects reach the model first, using signals the
+ * static pass already computed: weighted static findings, control-flow complexity, nesting and
+ * size, plus change history when the snapshot has it, since files that change often, recently and
+ * by many hands are the likeliest to break.
+ */
+public final class FileRiskRanker {
+
+    private FileRiskRanker() {}
+
+    static double score(SourceFile file, List<Map<String, Object>> findings) {
+        double score = 0;
+        for (Map<String, Object> finding : findings) {
+            score += switch (String.valueOf(finding.get("severity"))) {
+                case "HIGH" -> 10;
+                case "MEDIUM" -> 4;
+                default -> 1;
+            };
+        }
+
+        try {
+            SourceScanner.Result scan = file.getScanResult();
+            score += scan.complexity() * 0.5 + scan.maxNesting() + scan.longMethods().size() * 2;
+            score += Math.log1p(scan.lineCount()) * 2;
+        } catch (IOException e) {
+            score += Math.log1p(file.getSize() / 40.0) * 2;
+        }
+
+        FileHistory history = file.getHistory();
+        if (history != null) {
+            score += Math.log1p(history.churn()) * 2 + Math.log1p(history.commits()) * 3;
+            score += Math.min(history.authors(), 10);
+            score += 5 * Math.exp(-history.daysSinceChange() / 30.0);
+        }
+        return score;
+    }
+}
@@ -0,0 +1,139 @@
+package com.mcp.qa.ai;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Consumes a model response chunk by chunk and reports every object inside an array ("findings",
+ * "gaps", "leaks", ...) as soon as its closing brace arrives, together with the keys leading to
+ * the array: ["findings"] for a single-file answer, ["refactor", "functions"] for a nested section
+ * and ["files", path, "findings"] for a batched one. Objects nested inside a reported object are
+ * part of it and not reported again. Text before the first '{', such as a markdown fence, is
+ * skipped, and the parser reports completion once the top-level object closes so the caller can
+ * stop reading the stream.
+ */
+public class IncrementalJsonParser {
+
+    private final ObjectMapper objectMapper;
+    private final BiConsumer<List<String>, Map<String, Object>> onItem;
+
+    private final StringBuilder document = new StringBuilder();
+    private final Deque<Character> containers = new ArrayDeque<>();
+    // The key each open container was opened under, in the same order; "" inside arrays
+    private final Deque<String> keys = new ArrayDeque<>();
+    private final StringBuilder string = new StringBuilder();
+    private boolean inString;
+    private boolean escaped;
+    private boolean complete;
+    private String lastKey = "";
+    private int itemStart = -1;
+    private int itemDepth;
+    private int items;
+
+    public IncrementalJsonParser(ObjectMapper objectMapper, BiConsumer<List<String>, Map<String, Object>> onItem) {
+        this.objectMapper = objectMapper;
+        this.onItem = onItem;
+    }
+
+    public void feed(CharSequence chunk) {
+        for (int i = 0; i < chunk.length() && !complete; i++) {
+            accept(chunk.charAt(i));
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public int getItemCount() {
+        return items;
+    }
+
+    /** The JSON received so far, starting at the top-level '{'. */
+    public String getDocument() {
+        return document.toString();
+    }
+
+    private void accept(char c) {
+        if (containers.isEmpty() && document.isEmpty()) {
+            if (c != '{') {
+                return;
+            }
+        }
+        document.append(c);
+
+        if (inString) {
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '"') {
+                inString = false;
+                if (itemStart < 0 && containers.peek() == '{') {
+                    lastKey = string.toString();
+                }
+                return;
+            }
+            // Keys are only needed outside items, where strings are short
+            if (itemStart < 0) {
+                string.append(c);
+            }
+            return;
+        }
+
+        switch (c) {
+            case '"' -> {
+                inString = true;
+                string.setLength(0);
+            }
+            case '{', '[' -> {
+                Character parent = containers.peek();
+                if (c == '{' && parent != null && parent == '[' && itemStart < 0) {
+                    itemStart = document.length() - 1;
+                    itemDepth = containers.size() + 1;
+                }
+                keys.push(parent != null && parent == '{' ? lastKey : "");
+                containers.push(c);
+            }
+            case '}', ']' -> {
+                if (c == '}' && itemStart >= 0 && containers.size() == itemDepth) {
+                    emit(document.substring(itemStart));
+                    itemStart = -1;
+                }
+                containers.poll();
+                keys.poll();
+                if (containers.isEmpty()) {
+                    complete = true;
+                }
+            }
+            default -> { }
+        }
+    }
+
+    private void emit(String json) {
+        try {
+            Map<String, Object> item = objectMapper.readValue(json, new TypeReference<Map<String, Object>>() {});
+            items++;
+            // keys holds the item itself first, then its array and so on up to the root
+            List<String> path = new ArrayList<>();
+            Iterator<String> outward = keys.descendingIterator();
+            while (outward.hasNext()) {
+                String key = outward.next();
+                if (!key.isEmpty()) {
+                    path.add(key);
+                }
+            }
+            onItem.accept(path, item);
+        } catch (Exception ignored) {
+            // A malformed element is left to the full-document parser
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.mcp.qa.ai;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shrinks source code before it is embedded in a prompt: license headers and comment banners are
+ * dropped, blank lines removed, import blocks collapsed onto one line and multi-line comments
+ * folded onto one line. Every compacted line remembers the original line it came from, so line
+ * numbers in the model's answer can be mapped back to the file.
+ */
+@Component
+public class PromptCompactor {
+
+    /** Compacted source; originalLines[i] is the 1-based file line of compacted line i + 1. */
+    public record Compacted(String content, int[] originalLines, int originalChars) {
+        public int originalLine(int line) {
+            if (line < 1 || originalLines.length == 0) {
+                return line;
+            }
+            return originalLines[Math.min(line, originalLines.length) - 1];
+        }
+    }
+
+    private static final int MAX_IMPORTS_PER_LINE = 40;
+
+    private final AIRequestBuilder requestBuilder;
+    private final boolean enabled;
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong originalTokens = new AtomicLong();
+    private final AtomicLong compactedTokens = new AtomicLong();
+
+    public PromptCompactor(AIRequestBuilder requestBuilder,
+                           @Value("${ai.compact.enabled:true}") boolean enabled) {
+        this.requestBuilder = requestBuilder;
+        this.enabled = enabled;
+    }
+
+    public Compacted compact(String filePath, String content) {
+        String extension = filePath.substring(filePath.lastIndexOf('.') + 1);
+        boolean python = "py".equals(extension);
+        boolean cStyle = Set.of("java", "js", "ts", "jsx", "tsx").contains(extension);
+        String[] lines = content.split("\n", -1);
+
+        if (!enabled || (!python && !cStyle)) {
+            int[] identity = new int[lines.length];
+            for (int i = 0; i < lines.length; i++) {
+                identity[i] = i + 1;
+            }
+            return new Compacted(content, identity, content.length());
+        }
+
+        Builder out = new Builder();
+        int i = python ? skipPythonLicense(lines) : skipLicenseComment(lines);
+        while (i < lines.length) {
+            String trimmed = lines[i].strip();
+            if (trimmed.isEmpty() || isBanner(trimmed)) {
+                i++;
+            } else if (isImport(lines[i], python, "java".equals(extension))) {
+                i = collapseImports(lines, i, python, "java".equals(extension), out);
+            } else if (cStyle && trimmed.startsWith("/*") && !trimmed.contains("*/")) {
+                i = foldBlockComment(lines, i, out);
+            } else {
+                out.add(lines[i].stripTrailing(), i);
+                i++;
+            }
+        }
+
+        Compacted compacted = out.build(content.length());
+        files.incrementAndGet();
+        originalTokens.addAndGet(requestBuilder.estimateTokens(content.length()));
+        compactedTokens.addAndGet(requestBuilder.estimateTokens(compacted.content().length()));
+        return compacted;
+    }
+
+    /** Like compact(filePath, content), and counts the tokens saved against budget's request. */
+    public Compacted compact(String filePath, String content, AnalysisBudget budget) {
+        Compacted compacted = compact(filePath, content);
+        budget.addTokensSaved(tokensSaved(compacted));
+        return compacted;
+    }
+
+    public int tokensSaved(Compacted compacted) {
+        return requestBuilder.estimateTokens(compacted.originalChars())
+            - requestBuilder.estimateTokens(compacted.content().length());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("files", files.get());
+        stats.put("originalTokens", originalTokens.get());
+        stats.put("compactedTokens", compactedTokens.get());
+        stats.put("tokensSaved", originalTokens.get() - compactedTokens.get());
+        return stats;
+    }
+
+    // A leading block comment that mentions a license or copyright carries no review value
+    private int skipLicenseComment(String[] lines) {
+        int first = 0;
+        while (first < lines.length && lines[first].isBlank()) first++;
+        if (first >= lines.length || !lines[first].strip().startsWith("/*")) {
+            return 0;
+        }
+        int end = first;
+        while (end < lines.length && !lines[end].contains("*/")) end++;
+        // Code after the closing marker is kept by folding the comment instead
+        if (end >= lines.length || !lines[end].substring(lines[end].indexOf("*/") + 2).isBlank()) {
+            return 0;
+        }
+        return isLicense(lines, first, end) ? end + 1 : 0;
+    }
+
+    private int skipPythonLicense(String[] lines) {
+        int first = 0;
+        while (first < lines.length && (lines[first].startsWith("#!") || lines[first].contains("coding"))
+                && lines[first].startsWith("#")) {
+            first++;
+        }
+        int end = first;
+        while (end < lines.length && lines[end].strip().startsWith("#")) end++;
+        return end > first && isLicense(lines, first, end - 1) ? end : 0;
+    }
+
+    private boolean isLicense(String[] lines, int first, int last) {
+        for (int k = first; k <= last; k++) {
+            String lower = lines[k].toLowerCase();
+            if (lower.contains("copyright") || lower.contains("license")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Lines made only of comment markers and repeated punctuation, such as "// ======" or "#-----"
+    private boolean isBanner(String trimmed) {
+        if (trimmed.length() < 4) {
+            return trimmed.equals("//") || trimmed.equals("#");
+        }
+        for (int k = 0; k < trimmed.length(); k++) {
+            if (Character.isLetterOrDigit(trimmed.charAt(k))) {
+                return false;
+            }
+        }
+        return trimmed.startsWith("//") || trimmed.startsWith("#")
+            || (trimmed.startsWith("/*") && trimmed.endsWith("*/"));
+    }
+
+    // Only unindented imports; an import inside a Python function keeps its line
+    private boolean isImport(String line, boolean python, boolean java) {
+        String trimmed = line.stripTrailing();
+        if (trimmed.isEmpty() || Character.isWhitespace(trimmed.charAt(0))) {
+            return false;
+        }
+        if (python) {
+            return (trimmed.startsWith("import ") || trimmed.startsWith("from ")) && !trimmed.endsWith("(");
+        }
+        if (java) {
+            return trimmed.startsWith("import ") && trimmed.endsWith(";");
+        }
+        return trimmed.startsWith("import ") && !trimmed.endsWith("{")
+            && (trimmed.endsWith(";") || trimmed.contains(" from ") || trimmed.startsWith("import '") || trimmed.startsWith("import \""));
+    }
+
+    private int collapseImports(String[] lines, int start, boolean python, boolean java, Builder out) {
+        List<String> imports = new ArrayList<>();
+        int i = start;
+        while (i < lines.length && imports.size() < MAX_IMPORTS_PER_LINE) {
+            String trimmed = lines[i].strip();
+            if (trimmed.isEmpty()) {
+                i++;
+            } else if (isImport(lines[i], python, java)) {
+                imports.add(trimmed);
+                i++;
+            } else {
+                break;
+            }
+        }
+
+        if (java) {
+            // import java.util.List; import java.util.Map; -> import java.util.{List, Map};
+            Map<String, List<String>> byPackage = new LinkedHashMap<>();
+            for (String line : imports) {
+                String name = line.substring("import ".length(), line.length() - 1).strip();
+                int dot = name.lastIndexOf('.');
+                String pkg = dot > 0 ? name.substring(0, dot) : "";
+                byPackage.computeIfAbsent(pkg, k -> new ArrayList<>()).add(dot > 0 ? name.substring(dot + 1) : name);
+            }
+            StringJoiner joined = new StringJoiner(" ");
+            for (Map.Entry<String, List<String>> entry : byPackage.entrySet()) {
+                List<String> names = entry.getValue();
+                String prefix = entry.getKey().isEmpty() ? "" : entry.getKey() + ".";
+                joined.add("import " + prefix + (names.size() == 1 ? names.get(0) : "{" + String.join(", ", names) + "}") + ";");
+            }
+            out.add(joined.toString(), start);
+        } else {
+            out.add(String.join(python ? "; " : " ", imports), start);
+        }
+        return i;
+    }
+
+    // /** Returns the user.\n * @param id the id\n */ -> /** Returns the user. @param id the id */
+    // Code after the closing marker stays on a line of its own
+    private int foldBlockComment(String[] lines, int start, Builder out) {
+        String opening = lines[start].strip();
+        String indent = lines[start].substring(0, lines[start].indexOf('/'));
+        String marker = opening.startsWith("/**") ? "/**" : "/*";
+        StringJoiner text = new StringJoiner(" ");
+        String first = opening.substring(marker.length()).strip();
+        if (!first.isEmpty()) text.add(first);
+
+        int i = start + 1;
+        String trailing = "";
+        int trailingIndex = -1;
+        while (i < lines.length) {
+            String line = lines[i].strip();
+            boolean last = line.contains("*/");
+            if (last) {
+                int close = lines[i].indexOf("*/");
+                trailing = lines[i].substring(close + 2).strip();
+                trailingIndex = i;
+                line = line.substring(0, line.indexOf("*/"));
+            }
+            line = line.startsWith("*") ? line.substring(1).strip() : line.strip();
+            if (!line.isEmpty()) text.add(line);
+            i++;
+            if (last) break;
+        }
+        out.add(indent + marker + " " + text + " */", start);
+        if (!trailing.isEmpty()) {
+            out.add(indent + trailing, trailingIndex);
+        }
+        return i;
+    }
+
+    private static final class Builder {
+        private final StringBuilder content = new StringBuilder();
+        private int[] originalLines = new int[64];
+        private int count;
+
+        void add(String line, int originalIndex) {
+            if (count > 0) {
+                content.append('\n');
+            }
+            content.append(line);
+            if (count == originalLines.length) {
+                originalLines = Arrays.copyOf(originalLines, count * 2);
+            }
+            originalLines[count++] = originalIndex + 1;
+        }
+
+        Compacted build(int originalChars) {
+            return new Compacted(content.toString(), Arrays.copyOf(originalLines, count), originalChars);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.mcp.qa.analyzer;
+
+import com.mcp.qa.utils.DiskLruStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent per-file cache of StaticAnalyzer findings keyed by content hash and ruleset version,
+ * so rescans only analyze files whose content changed. Entries hold the findings without their
+ * "file" attribute, which lets renamed or copied files reuse them too.
+ */
+@Component
+public class FindingsCache {
+
+    private final DiskLruStore store;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public FindingsCache(
+            @Value("${analyzer.cache.enabled:true}") boolean enabled,
+            @Value("${analyzer.cache.dir:${java.io.tmpdir}/qa-mcp-cache/findings}") String directory,
+            @Value("${analyzer.cache.max-mb:256}") long maxMegabytes) {
+        DiskLruStore opened = null;
+        if (enabled) {
+            try {
+                opened = new DiskLruStore(Path.of(directory, "v" + SourceScanner.RULESET_VERSION),
+                    maxMegabytes * 1024 * 1024);
+                System.out.println("Findings cache at " + directory + " with " + opened.size() + " entries");
+            } catch (IOException e) {
+                System.err.println("WARNING: Findings cache disabled, cannot open " + directory + ": " + e.getMessage());
+            }
+        }
+        this.store = opened;
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    public List<Map<String, Object>> get(String contentHash, String relativePath) {
+        if (store == null) {
+            return null;
+        }
+        byte[] entry = store.get(contentHash);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            List<Map<String, Object>> findings = decode(entry, relativePath);
+            hits.incrementAndGet();
+            return findings;
+        } catch (IOException e) {
+            store.remove(contentHash);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String contentHash, List<Map<String, Object>> findings) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.put(contentHash, encode(findings));
+        } catch (IOException ignored) {}
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+            "enabled", store != null,
+            "entries", store != null ? store.size() : 0,
+            "bytes", store != null ? store.sizeInBytes() : 0L,
+            "hits", hits.get(),
+            "misses", misses.get()
+        );
+    }
+
+    // Entry layout: finding count, then type, severity and optional details per finding
+    private byte[] encode(List<Map<String, Object>> findings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(findings.size());
+            for (Map<String, Object> finding : findings) {
+                out.writeUTF(String.valueOf(finding.get("type")));
+                out.writeUTF(String.valueOf(finding.get("severity")));
+                Object details = finding.get("details");
+                out.writeBoolean(details != null);
+                if (details != null) {
+                    out.writeUTF(details.toString());
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private List<Map<String, Object>> decode(byte[] entry, String relativePath) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry))) {
+            int count = in.readUnsignedShort();
+            List<Map<String, Object>> findings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String type = in.readUTF();
+                String severity = in.readUTF();
+                if (in.readBoolean()) {
+                    findings.add(Map.of("file", relativePath, "type", type, "severity", severity,
+                        "details", in.readUTF()));
+                } else {
+                    findings.add(Map.of("file", relativePath, "type", type, "severity", severity));
+                }
+            }
+            return findings;
+        }
+    }
+}
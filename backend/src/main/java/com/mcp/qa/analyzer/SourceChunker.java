@@ -0,0 +1,197 @@
+package com.mcp.qa.analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a file that is too large for one prompt into chunks that end on class or method
+ * boundaries. Brace languages are cut where the brace depth (outside strings and comments) is back
+ * at class-member level; Python is cut before top-level and class-level def/class lines. A chunk
+ * of fewer than MIN_CHUNK_LINES non-blank lines, such as a lone class header before a large method
+ * or a trailing closing brace, is merged into its neighbour rather than sent on its own. Every
+ * chunk shares an outline of the file (imports, type declarations, fields) as context.
+ */
+public final class SourceChunker {
+
+    private static final int MIN_CHUNK_LINES = 3;
+
+    /** A run of whole lines; startLine and endLine are 1-based and inclusive. */
+    public record Chunk(int startLine, int endLine, String content) {}
+
+    public record Result(String outline, int lineCount, List<Chunk> chunks) {}
+
+    private SourceChunker() {}
+
+    public static Result split(String content, String extension, int maxChunkChars) {
+        String[] lines = content.split("\n", -1);
+        boolean python = "py".equals(extension);
+        boolean[] boundary = new boolean[lines.length];
+        boolean[] outline = new boolean[lines.length];
+
+        if (python) {
+            markPython(lines, boundary, outline);
+        } else {
+            markBraces(lines, boundary, outline);
+        }
+
+        return new Result(outline(lines, outline, maxChunkChars / 4), lines.length,
+            pack(lines, boundary, maxChunkChars));
+    }
+
+    private static void markBraces(String[] lines, boolean[] boundary, boolean[] outline) {
+        int depth = 0;
+        boolean inBlockComment = false;
+        char quote = 0;
+
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            int depthBefore = depth;
+            for (int k = 0; k < line.length(); k++) {
+                char c = line.charAt(k);
+                if (inBlockComment) {
+                    if (c == '*' && k + 1 < line.length() && line.charAt(k + 1) == '/') {
+                        inBlockComment = false;
+                        k++;
+                    }
+                } else if (quote != 0) {
+                    if (c == '\\') {
+                        k++;
+                    } else if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '/' && k + 1 < line.length() && line.charAt(k + 1) == '/') {
+                    break;
+                } else if (c == '/' && k + 1 < line.length() && line.charAt(k + 1) == '*') {
+                    inBlockComment = true;
+                    k++;
+                } else if (c == '"' || c == '\'' || c == '`') {
+                    quote = c;
+                } else if (c == '{') {
+                    depth++;
+                } else if (c == '}') {
+                    depth = Math.max(0, depth - 1);
+                }
+            }
+            // Only template literals span lines
+            if (quote != '`') {
+                quote = 0;
+            }
+
+            boundary[i] = depthBefore <= 1;
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !isComment(trimmed)) {
+                outline[i] = depthBefore == 0 || (depthBefore == 1 && depth == 1 && trimmed.endsWith(";"));
+            }
+        }
+
+        // Keep doc comments and annotations with the declaration that follows them
+        for (int i = lines.length - 1; i > 0; i--) {
+            if (boundary[i] && boundary[i - 1] && isPreamble(lines[i - 1].trim())) {
+                boundary[i] = false;
+            }
+        }
+    }
+
+    private static void markPython(String[] lines, boolean[] boundary, boolean[] outline) {
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            String trimmed = line.trim();
+            int indent = line.length() - line.stripLeading().length();
+            boolean declaration = trimmed.startsWith("def ") || trimmed.startsWith("async def ")
+                || trimmed.startsWith("class ");
+
+            boundary[i] = indent <= 4 && (declaration || trimmed.startsWith("@"))
+                && (i == 0 || !lines[i - 1].trim().startsWith("@"));
+            outline[i] = !trimmed.isEmpty() && !trimmed.startsWith("#")
+                && (indent == 0 || (indent <= 4 && declaration));
+        }
+    }
+
+    private static List<Chunk> pack(String[] lines, boolean[] boundary, int maxChunkChars) {
+        int[] nextBoundary = new int[lines.length + 1];
+        nextBoundary[lines.length] = lines.length;
+        for (int i = lines.length - 1; i >= 0; i--) {
+            nextBoundary[i] = boundary[i] ? i : nextBoundary[i + 1];
+        }
+
+        List<Chunk> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int start = 0;
+
+        for (int i = 0; i < lines.length; i++) {
+            int lineChars = lines[i].length() + 1;
+            boolean cut = false;
+            if (current.length() > 0) {
+                if (boundary[i]) {
+                    int end = nextBoundary[i + 1 < lines.length ? i + 1 : lines.length];
+                    cut = current.length() + segmentChars(lines, i, end) > maxChunkChars;
+                } else {
+                    // A single member larger than a chunk is cut wherever it overflows
+                    cut = current.length() + lineChars > maxChunkChars;
+                }
+            }
+            if (cut && nonBlankLines(current) >= MIN_CHUNK_LINES) {
+                chunks.add(new Chunk(start + 1, i, current.toString()));
+                current.setLength(0);
+                start = i;
+            }
+            if (current.length() > 0) {
+                current.append('\n');
+            }
+            current.append(lines[i]);
+        }
+        if (!chunks.isEmpty() && nonBlankLines(current) < MIN_CHUNK_LINES) {
+            Chunk last = chunks.remove(chunks.size() - 1);
+            chunks.add(new Chunk(last.startLine(), lines.length, last.content() + "\n" + current));
+        } else if (current.length() > 0 || chunks.isEmpty()) {
+            chunks.add(new Chunk(start + 1, lines.length, current.toString()));
+        }
+        return chunks;
+    }
+
+    private static int nonBlankLines(CharSequence text) {
+        int count = 0;
+        boolean blank = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                count += blank ? 0 : 1;
+                blank = true;
+            } else if (!Character.isWhitespace(c)) {
+                blank = false;
+            }
+        }
+        return count + (blank ? 0 : 1);
+    }
+
+    private static int segmentChars(String[] lines, int from, int to) {
+        int chars = 0;
+        for (int i = from; i < to; i++) {
+            chars += lines[i].length() + 1;
+        }
+        return chars;
+    }
+
+    private static String outline(String[] lines, boolean[] outline, int maxChars) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            if (!outline[i]) {
+                continue;
+            }
+            if (result.length() + lines[i].length() + 1 > maxChars) {
+                result.append("...\n");
+                break;
+            }
+            result.append(lines[i]).append('\n');
+        }
+        return result.toString();
+    }
+
+    private static boolean isComment(String trimmed) {
+        return trimmed.startsWith("//") || trimmed.startsWith("/*") || trimmed.startsWith("*");
+    }
+
+    private static boolean isPreamble(String trimmed) {
+        return trimmed.startsWith("@") || isComment(trimmed);
+    }
+}
@@ -0,0 +1,314 @@
+package com.mcp.qa.analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates every StaticAnalyzer rule in a single forward pass over the characters of a file.
+ * Character-level rules (control flow keywords, nesting, empty catch blocks, markers) run as
+ * small state machines; line-level rules use patterns compiled once and are only tried on
+ * lines that pass a cheap character prefilter.
+ */
+public final class SourceScanner {
+
+    public static final int MAX_METHOD_LINES = 50;
+
+    // Bump whenever a rule, threshold or finding text changes so cached findings are not reused
+    public static final String RULESET_VERSION = "1";
+
+    private static final Pattern METHOD_HEADER =
+        Pattern.compile(".*(public|private|protected|static).*\\(.*\\).*\\{?$");
+    private static final Pattern HARDCODED_SECRET =
+        Pattern.compile("(?i)(password|secret|api[_-]?key|token)\\s*[=:]\\s*[\"'][^\"']+[\"']");
+    private static final Pattern SQL_CONCATENATION =
+        Pattern.compile("(?i)(SELECT|INSERT|UPDATE|DELETE).*\\+.*\\$");
+    private static final Pattern STATEMENT_CONCATENATION =
+        Pattern.compile("(?i)Statement\\.executeQuery.*\\+");
+    private static final Pattern CODE_KEYWORD =
+        Pattern.compile("(public|private|class|function|def|const|let|var)");
+
+    private static final String[] MARKERS = {"todo", "fixme", "xxx", "hack"};
+
+    private static final int CATCH_NONE = 0;
+    private static final int CATCH_PARAMS_START = 1;
+    private static final int CATCH_PARAMS = 2;
+    private static final int CATCH_AFTER_PARAMS = 3;
+    private static final int CATCH_IN_BODY = 4;
+
+    public record LongMethod(int startLine, int length) {}
+
+    public record Result(
+        int lineCount,
+        List<LongMethod> longMethods,
+        boolean emptyCatchBlock,
+        boolean printStatement,
+        boolean hardcodedSecret,
+        boolean sqlInjectionRisk,
+        boolean systemExit,
+        int debtMarkers,
+        int commentedCodeLines,
+        int ifCount,
+        int forCount,
+        int whileCount,
+        int switchCount,
+        int catchCount,
+        int maxNesting
+    ) {
+        public int complexity() {
+            return ifCount + forCount + whileCount + switchCount + catchCount;
+        }
+    }
+
+    private SourceScanner() {}
+
+    public static Result scan(String content, int maxMethodLines) {
+        return new Pass(content, maxMethodLines).run();
+    }
+
+    private static final class Pass {
+        private final String text;
+        private final int length;
+        private final int maxMethodLines;
+
+        private final Matcher methodHeader;
+        private final Matcher hardcodedSecret;
+        private final Matcher sqlConcatenation;
+        private final Matcher statementConcatenation;
+        private final Matcher codeKeyword;
+
+        private final List<LongMethod> longMethods = new ArrayList<>();
+        private boolean emptyCatch;
+        private boolean print;
+        private boolean secret;
+        private boolean sql;
+        private boolean exit;
+        private int markers;
+        private int commentedCode;
+        private int ifs, fors, whiles, switches, catches;
+        private int depth, maxDepth;
+
+        private int catchState = CATCH_NONE;
+        private int markerSkipUntil;
+
+        // Per-line state, reset at every '\n'
+        private int lineIndex;
+        private int lineStart;
+        private int lineOpenBraces, lineCloseBraces;
+        private int lineFirstOpenParen = -1, lineLastCloseParen = -1;
+        private boolean lineHasAssign, lineHasQuote, lineHasPlus, lineHasDollar;
+
+        // Long method tracking mirrors the historical line-by-line heuristic
+        private int methodStartLine = -1;
+        private int methodBraceCount;
+        private int pendingEmptyLines;
+        private int lastNonEmptyLine = -1;
+
+        Pass(String text, int maxMethodLines) {
+            this.text = text;
+            this.length = text.length();
+            this.maxMethodLines = maxMethodLines;
+            this.methodHeader = METHOD_HEADER.matcher(text);
+            this.hardcodedSecret = HARDCODED_SECRET.matcher(text);
+            this.sqlConcatenation = SQL_CONCATENATION.matcher(text);
+            this.statementConcatenation = STATEMENT_CONCATENATION.matcher(text);
+            this.codeKeyword = CODE_KEYWORD.matcher(text);
+        }
+
+        Result run() {
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '\n' -> endLine(i);
+                    case '{' -> {
+                        depth++;
+                        if (depth > maxDepth) maxDepth = depth;
+                        lineOpenBraces++;
+                    }
+                    case '}' -> {
+                        depth--;
+                        lineCloseBraces++;
+                    }
+                    case '(' -> {
+                        if (lineFirstOpenParen < 0) lineFirstOpenParen = i;
+                        onOpenParen(i);
+                    }
+                    case ')' -> lineLastCloseParen = i;
+                    case '=', ':' -> lineHasAssign = true;
+                    case '"', '\'' -> lineHasQuote = true;
+                    case '+' -> lineHasPlus = true;
+                    case '$' -> lineHasDollar = true;
+                    case 'S' -> {
+                        if (!exit && text.startsWith("System.exit", i)) exit = true;
+                        if (!print && (text.startsWith("System.out.print", i) || text.startsWith("System.err.print", i))) {
+                            print = true;
+                        }
+                    }
+                    default -> { }
+                }
+                if (i >= markerSkipUntil) matchMarker(i, c);
+                if (c != '(') advanceCatch(c);
+            }
+            if (lineStart < length || length == 0) {
+                endLine(length);
+            }
+
+            int lineCount = length == 0 ? 1 : lastNonEmptyLine + 1;
+            return new Result(lineCount, longMethods, emptyCatch, print, secret, sql, exit, markers,
+                commentedCode, ifs, fors, whiles, switches, catches, maxDepth);
+        }
+
+        private void onOpenParen(int i) {
+            int end = i - 1;
+            while (end >= 0 && isRegexWhitespace(text.charAt(end))) end--;
+            end++;
+            boolean catchKeyword = false;
+            if (endsWith(end, "if")) ifs++;
+            else if (endsWith(end, "for")) fors++;
+            else if (endsWith(end, "while")) whiles++;
+            else if (endsWith(end, "switch")) switches++;
+            else if (endsWith(end, "catch")) {
+                catches++;
+                catchKeyword = true;
+            }
+
+            if (catchState == CATCH_PARAMS) {
+                return;
+            }
+            if (catchState == CATCH_PARAMS_START) {
+                catchState = CATCH_PARAMS;
+            } else {
+                catchState = catchKeyword ? CATCH_PARAMS_START : CATCH_NONE;
+            }
+        }
+
+        // State machine equivalent of catch\s*\([^)]+\)\s*\{\s*\}
+        private void advanceCatch(char c) {
+            switch (catchState) {
+                case CATCH_PARAMS_START -> catchState = c == ')' ? CATCH_NONE : CATCH_PARAMS;
+                case CATCH_PARAMS -> {
+                    if (c == ')') catchState = CATCH_AFTER_PARAMS;
+                }
+                case CATCH_AFTER_PARAMS -> {
+                    if (c == '{') catchState = CATCH_IN_BODY;
+                    else if (!isRegexWhitespace(c)) catchState = CATCH_NONE;
+                }
+                case CATCH_IN_BODY -> {
+                    if (c == '}') {
+                        emptyCatch = true;
+                        catchState = CATCH_NONE;
+                    } else if (!isRegexWhitespace(c)) {
+                        catchState = CATCH_NONE;
+                    }
+                }
+                default -> { }
+            }
+        }
+
+        private void matchMarker(int i, char c) {
+            char lower = (char) (c | 0x20);
+            if (lower != 't' && lower != 'f' && lower != 'x' && lower != 'h') {
+                return;
+            }
+            for (String marker : MARKERS) {
+                if (regionMatchesAsciiIgnoreCase(i, marker)) {
+                    markers++;
+                    markerSkipUntil = i + marker.length();
+                    return;
+                }
+            }
+        }
+
+        private void endLine(int end) {
+            int start = lineStart;
+            if (end > start) {
+                flushEmptyLines();
+                evaluateLine(start, end);
+                lastNonEmptyLine = lineIndex;
+            } else {
+                pendingEmptyLines++;
+            }
+
+            lineIndex++;
+            lineStart = end + 1;
+            lineOpenBraces = 0;
+            lineCloseBraces = 0;
+            lineFirstOpenParen = -1;
+            lineLastCloseParen = -1;
+            lineHasAssign = false;
+            lineHasQuote = false;
+            lineHasPlus = false;
+            lineHasDollar = false;
+        }
+
+        private void evaluateLine(int start, int end) {
+            int trimmedStart = start;
+            int trimmedEnd = end;
+            while (trimmedStart < trimmedEnd && text.charAt(trimmedStart) <= ' ') trimmedStart++;
+            while (trimmedEnd > trimmedStart && text.charAt(trimmedEnd - 1) <= ' ') trimmedEnd--;
+
+            boolean header = lineFirstOpenParen >= 0 && lineLastCloseParen > lineFirstOpenParen
+                && methodHeader.region(trimmedStart, trimmedEnd).matches();
+            trackMethod(lineIndex, header, lineOpenBraces - lineCloseBraces);
+
+            if (!secret && lineHasAssign && lineHasQuote) {
+                secret = hardcodedSecret.region(start, end).find();
+            }
+            if (!sql && lineHasPlus) {
+                sql = (lineHasDollar && sqlConcatenation.region(start, end).find())
+                    || statementConcatenation.region(start, end).find();
+            }
+
+            int firstNonBlank = start;
+            while (firstNonBlank < end && isRegexWhitespace(text.charAt(firstNonBlank))) firstNonBlank++;
+            if (text.startsWith("//", firstNonBlank) && firstNonBlank + 2 <= end
+                    && codeKeyword.region(firstNonBlank + 2, end).find()) {
+                commentedCode++;
+            }
+        }
+
+        private void flushEmptyLines() {
+            for (int k = pendingEmptyLines; k > 0; k--) {
+                trackMethod(lineIndex - k, false, 0);
+            }
+            pendingEmptyLines = 0;
+        }
+
+        private void trackMethod(int line, boolean header, int braceDelta) {
+            if (header) {
+                methodStartLine = line;
+                methodBraceCount = braceDelta;
+            } else if (methodStartLine >= 0) {
+                methodBraceCount += braceDelta;
+                if (methodBraceCount <= 0 && line - methodStartLine > maxMethodLines) {
+                    longMethods.add(new LongMethod(methodStartLine + 1, line - methodStartLine));
+                    methodStartLine = -1;
+                }
+            }
+        }
+
+        private boolean endsWith(int end, String keyword) {
+            int start = end - keyword.length();
+            return start >= 0 && text.startsWith(keyword, start);
+        }
+
+        private boolean regionMatchesAsciiIgnoreCase(int offset, String lowerCaseToken) {
+            if (offset + lowerCaseToken.length() > length) {
+                return false;
+            }
+            for (int k = 0; k < lowerCaseToken.length(); k++) {
+                char c = text.charAt(offset + k);
+                if (c >= 'A' && c <= 'Z') c = (char) (c + ('a' - 'A'));
+                if (c != lowerCaseToken.charAt(k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isRegexWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+        }
+    }
+}
@@ -1,73 +1,194 @@
 package com.mcp.qa.analyzer;
 
+import com.mcp.qa.repo.RepositorySnapshot;
+import com.mcp.qa.repo.SourceFile;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import jakarta.annotation.PreDestroy;
 
 import java.nio.file.*;
 import java.util.*;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 
 @Component
 public class StaticAnalyzer {
 
     private static final int MAX_FILE_LINES = 500;
-    private static final int MAX_METHOD_LINES = 50;
     private static final int MAX_CLASS_LINES = 1000;
 
+    private static final int FILES_PER_TASK = 8;
+
+    private static final Pattern TEST_SUFFIX = Pattern.compile("(Test|Spec|Tests|Specs)\\.(java|js|ts|py)$");
+    private static final Pattern SOURCE_EXTENSION = Pattern.compile("\\.(java|js|ts|py)$");
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private final FindingsCache findingsCache;
+
+    public StaticAnalyzer(@Value("${analyzer.parallelism:0}") int parallelism, FindingsCache findingsCache) {
+        this.findingsCache = findingsCache;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pool = this.parallelism > 1 ? new ForkJoinPool(this.parallelism) : null;
+    }
+
     public List<Map<String,Object>> analyzePath(Path root) {
+        try {
+            return analyze(RepositorySnapshot.of(root));
+        } catch(IOException ignored) {
+            return new ArrayList<>();
+        }
+    }
+
+    public List<Map<String,Object>> analyze(RepositorySnapshot snapshot) {
+        return analyze(snapshot, null);
+    }
+
+    /**
+     * Like analyze(snapshot), and also hands every file of the snapshot to onFile together with
+     * its findings as soon as they are known, from the analyzing thread: files no rule applies to
+     * first with no findings, then each analyzed file as its scan completes. An exception thrown
+     * by onFile stops the analysis and is rethrown.
+     */
+    public List<Map<String,Object>> analyze(RepositorySnapshot snapshot,
+                                            BiConsumer<SourceFile, List<Map<String,Object>>> onFile) {
         List<Map<String,Object>> results = new ArrayList<>();
-        Map<String, List<Path>> sourceFiles = new HashMap<>();
-        Map<String, List<Path>> testFiles = new HashMap<>();
+        Map<String, List<SourceFile>> sourceFiles = new TreeMap<>();
+        Set<String> testFiles = new HashSet<>();
 
-        try {
-            // Collect all source and test files
-            Files.walk(root)
-                .filter(Files::isRegularFile)
-                .forEach(file -> {
-                    String fileName = file.toString();
-                    if (fileName.endsWith(".java") || fileName.endsWith(".js") || 
-                        fileName.endsWith(".ts") || fileName.endsWith(".py")) {
-                        
-                        String baseName = getBaseFileName(fileName);
-                        if (isTestFile(fileName)) {
-                            testFiles.computeIfAbsent(baseName, k -> new ArrayList<>()).add(file);
-                        } else {
-                            sourceFiles.computeIfAbsent(baseName, k -> new ArrayList<>()).add(file);
-                        }
-                    }
-                });
-
-            // Check for missing tests
-            for (String baseName : sourceFiles.keySet()) {
-                if (!testFiles.containsKey(baseName) && !isConfigOrDataFile(baseName)) {
-                    results.add(Map.of(
-                        "file", sourceFiles.get(baseName).get(0).toString(),
-                        "type", "MissingTest",
-                        "severity", "MEDIUM"
-                    ));
-                }
+        // Collect the source files to analyze, and the test files of the whole tree, since a
+        // snapshot narrowed to a commit range rarely holds the tests of every file it changes
+        for (SourceFile file : snapshot.getFiles()) {
+            if (file.hasExtension("java", "js", "ts", "py") && !isTestFile(file.getRelativePath())) {
+                sourceFiles.computeIfAbsent(getBaseFileName(file.getRelativePath()), k -> new ArrayList<>()).add(file);
             }
+        }
+        for (SourceFile file : snapshot.getContextFiles(file -> file.hasExtension("java", "js", "ts", "py"))) {
+            if (isTestFile(file.getRelativePath())) {
+                testFiles.add(getBaseFileName(file.getRelativePath()));
+            }
+        }
 
-            // Analyze each source file
-            for (List<Path> files : sourceFiles.values()) {
-                for (Path file : files) {
-                    try {
-                        String content = Files.readString(file);
-                        String relativePath = root.relativize(file).toString();
-                        
-                        analyzeFileContent(file, content, relativePath, results);
-                    } catch(IOException ignored) {}
+        if (onFile != null) {
+            Set<SourceFile> analyzed = new HashSet<>();
+            sourceFiles.values().forEach(analyzed::addAll);
+            for (SourceFile file : snapshot.getFiles()) {
+                if (!analyzed.contains(file)) {
+                    onFile.accept(file, Collections.emptyList());
                 }
             }
+        }
 
-        } catch(IOException ignored) {}
+        // Check for missing tests
+        for (String baseName : sourceFiles.keySet()) {
+            if (!testFiles.contains(baseName) && !isConfigOrDataFile(baseName)) {
+                results.add(Map.of(
+                    "file", sourceFiles.get(baseName).get(0).getPath().toString(),
+                    "type", "MissingTest",
+                    "severity", "MEDIUM"
+                ));
+            }
+        }
+
+        // Analyze each source file, merging per-file findings in a stable order
+        List<SourceFile> files = new ArrayList<>();
+        sourceFiles.values().forEach(files::addAll);
+        for (List<Map<String,Object>> fileFindings : analyzeFiles(files, onFile)) {
+            results.addAll(fileFindings);
+        }
 
         return results;
     }
 
-    private void analyzeFileContent(Path file, String content, String relativePath, List<Map<String,Object>> results) {
-        String[] lines = content.split("\n");
-        int lineCount = lines.length;
+    private List<List<Map<String,Object>>> analyzeFiles(List<SourceFile> files,
+                                                        BiConsumer<SourceFile, List<Map<String,Object>>> onFile) {
+        // Each task sets only its own slots, so the list needs no locking
+        List<List<Map<String,Object>>> sink = new ArrayList<>(Collections.nCopies(files.size(), null));
+        if (pool == null || files.size() <= FILES_PER_TASK) {
+            for (int i = 0; i < files.size(); i++) {
+                sink.set(i, analyzeFile(files.get(i), onFile));
+            }
+        } else {
+            pool.invoke(new AnalyzeFilesTask(files, sink, onFile, 0, files.size()));
+        }
+        return sink;
+    }
+
+    private List<Map<String,Object>> analyzeFile(SourceFile file, BiConsumer<SourceFile, List<Map<String,Object>>> onFile) {
+        List<Map<String,Object>> findings = analyzeFile(file);
+        if (onFile != null) {
+            onFile.accept(file, findings);
+        }
+        return findings;
+    }
+
+    private List<Map<String,Object>> analyzeFile(SourceFile file) {
+        List<Map<String,Object>> findings = new ArrayList<>();
+        try {
+            // Unchanged files reuse the findings recorded for their content hash
+            String contentHash = findingsCache != null && findingsCache.isEnabled() ? file.getContentHash() : null;
+            if (contentHash != null) {
+                List<Map<String,Object>> cached = findingsCache.get(contentHash, file.getRelativePath());
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            analyzeFileContent(file.getScanResult(), file.getRelativePath(), findings);
+            if (contentHash != null) {
+                findingsCache.put(contentHash, findings);
+            }
+        } catch(IOException ignored) {}
+        return findings;
+    }
+
+    public Map<String,Object> getCacheStats() {
+        return findingsCache != null ? findingsCache.getStats() : Map.of("enabled", false);
+    }
+
+    private class AnalyzeFilesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<SourceFile> files;
+        private final transient List<List<Map<String,Object>>> sink;
+        private final transient BiConsumer<SourceFile, List<Map<String,Object>>> onFile;
+        private final int from;
+        private final int to;
+
+        AnalyzeFilesTask(List<SourceFile> files, List<List<Map<String,Object>>> sink,
+                         BiConsumer<SourceFile, List<Map<String,Object>>> onFile, int from, int to) {
+            this.files = files;
+            this.sink = sink;
+            this.onFile = onFile;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= FILES_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    sink.set(i, analyzeFile(files.get(i), onFile));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new AnalyzeFilesTask(files, sink, onFile, from, mid),
+                      new AnalyzeFilesTask(files, sink, onFile, mid, to));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private void analyzeFileContent(SourceScanner.Result scan, String relativePath, List<Map<String,Object>> results) {
+        int lineCount = scan.lineCount();
         
         // Check file length
         if (lineCount > MAX_FILE_LINES) {
@@ -80,39 +201,25 @@ public class StaticAnalyzer {
         }
 
         // Check for code smells and issues
-        checkCodeSmells(content, relativePath, results);
-        checkSecurityIssues(content, relativePath, results);
-        checkBestPractices(content, relativePath, results);
-        checkComplexity(content, relativePath, results);
+        checkCodeSmells(scan, relativePath, results);
+        checkSecurityIssues(scan, relativePath, results);
+        checkBestPractices(scan, relativePath, results);
+        checkComplexity(scan, relativePath, results);
     }
 
-    private void checkCodeSmells(String content, String relativePath, List<Map<String,Object>> results) {
-        String[] lines = content.split("\n");
-        
+    private void checkCodeSmells(SourceScanner.Result scan, String relativePath, List<Map<String,Object>> results) {
         // Check for long methods (heuristic: methods with many lines)
-        int methodStartLine = -1;
-        int braceCount = 0;
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i].trim();
-            if (line.matches(".*(public|private|protected|static).*\\(.*\\).*\\{?$")) {
-                methodStartLine = i;
-                braceCount = countChar(line, '{') - countChar(line, '}');
-            } else if (methodStartLine >= 0) {
-                braceCount += countChar(line, '{') - countChar(line, '}');
-                if (braceCount <= 0 && i - methodStartLine > MAX_METHOD_LINES) {
-                    results.add(Map.of(
-                        "file", relativePath,
-                        "type", "LongMethod",
-                        "severity", "MEDIUM",
-                        "details", "Method starting at line " + (methodStartLine + 1) + " has " + (i - methodStartLine) + " lines"
-                    ));
-                    methodStartLine = -1;
-                }
-            }
+        for (SourceScanner.LongMethod method : scan.longMethods()) {
+            results.add(Map.of(
+                "file", relativePath,
+                "type", "LongMethod",
+                "severity", "MEDIUM",
+                "details", "Method starting at line " + method.startLine() + " has " + method.length() + " lines"
+            ));
         }
 
         // Check for empty catch blocks
-        if (Pattern.compile("catch\\s*\\([^)]+\\)\\s*\\{\\s*\\}").matcher(content).find()) {
+        if (scan.emptyCatchBlock()) {
             results.add(Map.of(
                 "file", relativePath,
                 "type", "EmptyCatchBlock",
@@ -122,7 +229,7 @@ public class StaticAnalyzer {
         }
 
         // Check for print statements (should use logging)
-        if (Pattern.compile("System\\.(out|err)\\.print").matcher(content).find()) {
+        if (scan.printStatement()) {
             results.add(Map.of(
                 "file", relativePath,
                 "type", "PrintStatement",
@@ -132,9 +239,9 @@ public class StaticAnalyzer {
         }
     }
 
-    private void checkSecurityIssues(String content, String relativePath, List<Map<String,Object>> results) {
+    private void checkSecurityIssues(SourceScanner.Result scan, String relativePath, List<Map<String,Object>> results) {
         // Check for hardcoded passwords/secrets
-        if (Pattern.compile("(?i)(password|secret|api[_-]?key|token)\\s*[=:]\\s*[\"'][^\"']+[\"']").matcher(content).find()) {
+        if (scan.hardcodedSecret()) {
             results.add(Map.of(
                 "file", relativePath,
                 "type", "HardcodedSecret",
@@ -144,8 +251,7 @@ public class StaticAnalyzer {
         }
 
         // Check for SQL injection risks (basic check)
-        if (Pattern.compile("(?i)(SELECT|INSERT|UPDATE|DELETE).*\\+.*\\$").matcher(content).find() ||
-            Pattern.compile("(?i)Statement\\.executeQuery.*\\+").matcher(content).find()) {
+        if (scan.sqlInjectionRisk()) {
             results.add(Map.of(
                 "file", relativePath,
                 "type", "SQLInjectionRisk",
@@ -155,9 +261,9 @@ public class StaticAnalyzer {
         }
     }
 
-    private void checkBestPractices(String content, String relativePath, List<Map<String,Object>> results) {
+    private void checkBestPractices(SourceScanner.Result scan, String relativePath, List<Map<String,Object>> results) {
         // Check for System.exit (bad practice in web apps)
-        if (content.contains("System.exit")) {
+        if (scan.systemExit()) {
             results.add(Map.of(
                 "file", relativePath,
                 "type", "SystemExitUsage",
@@ -167,7 +273,7 @@ public class StaticAnalyzer {
         }
 
         // Check for TODO/FIXME comments (technical debt markers)
-        long todoCount = Pattern.compile("(?i)(TODO|FIXME|XXX|HACK)").matcher(content).results().count();
+        long todoCount = scan.debtMarkers();
         if (todoCount > 0) {
             results.add(Map.of(
                 "file", relativePath,
@@ -178,8 +284,7 @@ public class StaticAnalyzer {
         }
 
         // Check for commented out code
-        long commentedBlocks = Pattern.compile("(?m)^\\s*//.*(public|private|class|function|def|const|let|var)").matcher(content).results().count();
-        if (commentedBlocks > 3) {
+        if (scan.commentedCodeLines() > 3) {
             results.add(Map.of(
                 "file", relativePath,
                 "type", "CommentedCode",
@@ -189,15 +294,9 @@ public class StaticAnalyzer {
         }
     }
 
-    private void checkComplexity(String content, String relativePath, List<Map<String,Object>> results) {
+    private void checkComplexity(SourceScanner.Result scan, String relativePath, List<Map<String,Object>> results) {
         // Check cyclomatic complexity indicators
-        int ifCount = countOccurrences(content, "if\\s*\\(");
-        int forCount = countOccurrences(content, "for\\s*\\(");
-        int whileCount = countOccurrences(content, "while\\s*\\(");
-        int switchCount = countOccurrences(content, "switch\\s*\\(");
-        int catchCount = countOccurrences(content, "catch\\s*\\(");
-        
-        int complexity = ifCount + forCount + whileCount + switchCount + catchCount;
+        int complexity = scan.complexity();
         
         if (complexity > 20) {
             results.add(Map.of(
@@ -209,7 +308,7 @@ public class StaticAnalyzer {
         }
 
         // Check for deep nesting
-        int maxNesting = calculateMaxNesting(content);
+        int maxNesting = scan.maxNesting();
         if (maxNesting > 4) {
             results.add(Map.of(
                 "file", relativePath,
@@ -220,33 +319,11 @@ public class StaticAnalyzer {
         }
     }
 
-    private int countOccurrences(String text, String pattern) {
-        return (int) Pattern.compile(pattern).matcher(text).results().count();
-    }
-
-    private int countChar(String str, char c) {
-        return (int) str.chars().filter(ch -> ch == c).count();
-    }
-
-    private int calculateMaxNesting(String content) {
-        int maxDepth = 0;
-        int currentDepth = 0;
-        for (char c : content.toCharArray()) {
-            if (c == '{') {
-                currentDepth++;
-                maxDepth = Math.max(maxDepth, currentDepth);
-            } else if (c == '}') {
-                currentDepth--;
-            }
-        }
-        return maxDepth;
-    }
-
     private String getBaseFileName(String filePath) {
         String fileName = Paths.get(filePath).getFileName().toString();
         // Remove extension and test suffixes
-        fileName = fileName.replaceAll("(Test|Spec|Tests|Specs)\\.(java|js|ts|py)$", "");
-        fileName = fileName.replaceAll("\\.(java|js|ts|py)$", "");
+        fileName = TEST_SUFFIX.matcher(fileName).replaceAll("");
+        fileName = SOURCE_EXTENSION.matcher(fileName).replaceAll("");
         return fileName.toLowerCase();
     }
 
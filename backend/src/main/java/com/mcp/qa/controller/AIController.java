@@ -1,10 +1,15 @@
 package com.mcp.qa.controller;
 
+import com.mcp.qa.ai.AnalysisBudget;
+import com.mcp.qa.job.JobService;
+import com.mcp.qa.job.RequestCoalescer;
 import com.mcp.qa.service.*;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/call/ai")
@@ -15,149 +20,115 @@ public class AIController {
     private final AITestGapService testGapService;
     private final AIRefactorService refactorService;
     private final AIMemoryLeakService memoryLeakService;
+    private final AICombinedAnalysisService combinedAnalysisService;
+    private final AIMetricsService metricsService;
+    private final JobService jobService;
+    private final RequestCoalescer coalescer;
 
     public AIController(
             AICodeInsightService codeInsightService,
             AIDefectPredictionService defectPredictionService,
             AITestGapService testGapService,
             AIRefactorService refactorService,
-            AIMemoryLeakService memoryLeakService) {
+            AIMemoryLeakService memoryLeakService,
+            AICombinedAnalysisService combinedAnalysisService,
+            AIMetricsService metricsService,
+            JobService jobService,
+            RequestCoalescer coalescer) {
         this.codeInsightService = codeInsightService;
         this.defectPredictionService = defectPredictionService;
         this.testGapService = testGapService;
         this.refactorService = refactorService;
         this.memoryLeakService = memoryLeakService;
+        this.combinedAnalysisService = combinedAnalysisService;
+        this.metricsService = metricsService;
+        this.jobService = jobService;
+        this.coalescer = coalescer;
+    }
+
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        return metricsService.getStats();
     }
 
     @PostMapping(path = "/code_insights", consumes = MediaType.APPLICATION_JSON_VALUE)
     public Map<String, Object> codeInsights(@RequestBody Map<String, Object> req) {
-        try {
-            Map<String, Object> args = (Map<String, Object>) req.get("args");
-            if (args == null) {
-                return Map.of("status", "error", "error", "args parameter is required");
-            }
-            
-            String repoUrl = (String) args.get("repoUrl");
-            String branch = (String) args.getOrDefault("branch", "main");
-            
-            if (repoUrl != null && !repoUrl.isEmpty()) {
-                return codeInsightService.analyzeRepository(repoUrl, branch);
-            }
-            
-            String path = (String) args.get("path");
-            if (path != null && !path.isEmpty()) {
-                return codeInsightService.analyzePath(path);
-            }
-            
-            return Map.of("status", "error", "error", "repoUrl or path required in args");
-        } catch (Exception e) {
-            return Map.of("status", "error", "error", e.getMessage());
-        }
+        return analyze("code_insights", req,
+            codeInsightService::analyzeRepository, codeInsightService::analyzePath);
     }
 
     @PostMapping(path = "/defect_prediction", consumes = MediaType.APPLICATION_JSON_VALUE)
     public Map<String, Object> defectPrediction(@RequestBody Map<String, Object> req) {
-        try {
-            Map<String, Object> args = (Map<String, Object>) req.get("args");
-            if (args == null) {
-                return Map.of("status", "error", "error", "args parameter is required");
-            }
-            
-            String repoUrl = (String) args.get("repoUrl");
-            String branch = (String) args.getOrDefault("branch", "main");
-            
-            if (repoUrl != null && !repoUrl.isEmpty()) {
-                return defectPredictionService.predictDefects(repoUrl, branch);
-            }
-            
-            String path = (String) args.get("path");
-            if (path != null && !path.isEmpty()) {
-                return defectPredictionService.predictDefectsForPath(path);
-            }
-            
-            return Map.of("status", "error", "error", "repoUrl or path required in args");
-        } catch (Exception e) {
-            return Map.of("status", "error", "error", e.getMessage());
-        }
+        return analyze("defect_prediction", req,
+            defectPredictionService::predictDefects, defectPredictionService::predictDefectsForPath);
     }
 
     @PostMapping(path = "/test_gap_analysis", consumes = MediaType.APPLICATION_JSON_VALUE)
     public Map<String, Object> testGapAnalysis(@RequestBody Map<String, Object> req) {
-        try {
-            Map<String, Object> args = (Map<String, Object>) req.get("args");
-            if (args == null) {
-                return Map.of("status", "error", "error", "args parameter is required");
-            }
-            
-            String repoUrl = (String) args.get("repoUrl");
-            String branch = (String) args.getOrDefault("branch", "main");
-            
-            if (repoUrl != null && !repoUrl.isEmpty()) {
-                return testGapService.analyzeTestGaps(repoUrl, branch);
-            }
-            
-            String path = (String) args.get("path");
-            if (path != null && !path.isEmpty()) {
-                return testGapService.analyzeTestGapsForPath(path);
-            }
-            
-            return Map.of("status", "error", "error", "repoUrl or path required in args");
-        } catch (Exception e) {
-            return Map.of("status", "error", "error", e.getMessage());
-        }
+        return analyze("test_gap_analysis", req,
+            testGapService::analyzeTestGaps, testGapService::analyzeTestGapsForPath);
     }
 
     @PostMapping(path = "/refactor_advisor", consumes = MediaType.APPLICATION_JSON_VALUE)
     public Map<String, Object> refactorAdvisor(@RequestBody Map<String, Object> req) {
-        try {
-            Map<String, Object> args = (Map<String, Object>) req.get("args");
-            if (args == null) {
-                return Map.of("status", "error", "error", "args parameter is required");
-            }
-            
-            String repoUrl = (String) args.get("repoUrl");
-            String branch = (String) args.getOrDefault("branch", "main");
-            
-            if (repoUrl != null && !repoUrl.isEmpty()) {
-                return refactorService.analyzeRefactoring(repoUrl, branch);
-            }
-            
-            String path = (String) args.get("path");
-            if (path != null && !path.isEmpty()) {
-                return refactorService.analyzeRefactoringForPath(path);
-            }
-            
-            return Map.of("status", "error", "error", "repoUrl or path required in args");
-        } catch (Exception e) {
-            return Map.of("status", "error", "error", e.getMessage());
-        }
+        return analyze("refactor_advisor", req,
+            refactorService::analyzeRefactoring, refactorService::analyzeRefactoringForPath);
     }
 
     @PostMapping(path = "/memory_leak_prediction", consumes = MediaType.APPLICATION_JSON_VALUE)
     public Map<String, Object> memoryLeakPrediction(@RequestBody Map<String, Object> req) {
+        return analyze("memory_leak_prediction", req,
+            memoryLeakService::predictMemoryLeaks, memoryLeakService::predictMemoryLeaksForPath);
+    }
+
+    @PostMapping(path = "/combined_analysis", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> combinedAnalysis(@RequestBody Map<String, Object> req) {
+        return analyze("combined_analysis", req,
+            combinedAnalysisService::analyzeRepository, combinedAnalysisService::analyzeRepositoryForPath);
+    }
+
+    private interface RepositoryAnalysis {
+        Map<String, Object> run(String repoUrl, String branch, String baseRef, String headRef, AnalysisBudget budget);
+    }
+
+    private interface PathAnalysis {
+        Map<String, Object> run(String path, AnalysisBudget budget);
+    }
+
+    private Map<String, Object> analyze(String type, Map<String, Object> req,
+                                        RepositoryAnalysis repositoryAnalysis, PathAnalysis pathAnalysis) {
         try {
             Map<String, Object> args = (Map<String, Object>) req.get("args");
             if (args == null) {
                 return Map.of("status", "error", "error", "args parameter is required");
             }
             
+            AnalysisBudget budget = AnalysisBudget.fromArgs(args);
             String repoUrl = (String) args.get("repoUrl");
             String branch = (String) args.getOrDefault("branch", "main");
+            String path = (String) args.get("path");
+            String baseRef = (String) args.get("baseRef");
+            String headRef = (String) args.get("headRef");
             
+            Supplier<Map<String, Object>> work;
             if (repoUrl != null && !repoUrl.isEmpty()) {
-                return memoryLeakService.predictMemoryLeaks(repoUrl, branch);
+                // History is mined per branch, so it matters even when headRef decides the commit
+                String variant = budget.limitsKey() + ",baseRef=" + Objects.toString(baseRef, "")
+                    + ",branch=" + branch;
+                work = () -> coalescer.run(type, repoUrl, RequestCoalescer.headOf(branch, headRef), variant, budget,
+                    () -> repositoryAnalysis.run(repoUrl, branch, baseRef, headRef, budget));
+            } else if (path != null && !path.isEmpty()) {
+                work = () -> pathAnalysis.run(path, budget);
+            } else {
+                return Map.of("status", "error", "error", "repoUrl or path required in args");
             }
             
-            String path = (String) args.get("path");
-            if (path != null && !path.isEmpty()) {
-                return memoryLeakService.predictMemoryLeaksForPath(path);
+            if (JobService.isAsync(req)) {
+                return jobService.submit(type, budget, work);
             }
-            
-            return Map.of("status", "error", "error", "repoUrl or path required in args");
+            return work.get();
         } catch (Exception e) {
             return Map.of("status", "error", "error", e.getMessage());
         }
     }
 }
-
-
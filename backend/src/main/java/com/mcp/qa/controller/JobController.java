@@ -0,0 +1,53 @@
+package com.mcp.qa.controller;
+
+import com.mcp.qa.job.JobService;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/jobs")
+public class JobController {
+
+    private final JobService jobService;
+
+    public JobController(JobService jobService) {
+        this.jobService = jobService;
+    }
+
+    @GetMapping
+    public List<Map<String, Object>> list() {
+        return jobService.list();
+    }
+
+    @GetMapping("/{id}")
+    public Map<String, Object> status(@PathVariable("id") String id) {
+        return jobService.get(id)
+            .map(job -> job.toMap(true))
+            .orElseGet(() -> notFound(id));
+    }
+
+    @GetMapping(path = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events(@PathVariable("id") String id) {
+        return jobService.subscribe(id).orElseGet(() -> {
+            SseEmitter emitter = new SseEmitter();
+            emitter.completeWithError(new IllegalArgumentException("Unknown job: " + id));
+            return emitter;
+        });
+    }
+
+    @PostMapping("/{id}/cancel")
+    public Map<String, Object> cancel(@PathVariable("id") String id) {
+        if (jobService.get(id).isEmpty()) {
+            return notFound(id);
+        }
+        return Map.of("jobId", id, "cancelled", jobService.cancel(id));
+    }
+
+    private Map<String, Object> notFound(String id) {
+        return Map.of("status", "error", "error", "Unknown job: " + id);
+    }
+}
@@ -1,18 +1,27 @@
 package com.mcp.qa.controller;
 
+import com.mcp.qa.job.JobService;
+import com.mcp.qa.job.RequestCoalescer;
 import com.mcp.qa.service.TechDebtService;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/call/report")
 public class ReportController {
 
     private final TechDebtService debtService;
+    private final JobService jobService;
+    private final RequestCoalescer coalescer;
 
-    public ReportController(TechDebtService debtService) {
+    public ReportController(TechDebtService debtService, JobService jobService, RequestCoalescer coalescer) {
         this.debtService = debtService;
+        this.jobService = jobService;
+        this.coalescer = coalescer;
     }
 
     @PostMapping("/tech-debt")
@@ -34,18 +43,28 @@ public class ReportController {
                 branch = "main";
             }
             String path = (String) args.get("path");
+            String baseRef = (String) args.get("baseRef");
+            String headRef = (String) args.get("headRef");
             
-            // If repoUrl is provided, use repository method
+            String reportId = requestId;
+            String reportBranch = branch;
+            Supplier<Map<String, Object>> work;
             if (repoUrl != null && !repoUrl.isEmpty()) {
-                return debtService.buildReportFromRepository(requestId, repoUrl, branch);
+                // If repoUrl is provided, use repository method
+                work = () -> withRequestId(reportId, coalescer.run("tech_debt", repoUrl,
+                    RequestCoalescer.headOf(reportBranch, headRef), "baseRef=" + Objects.toString(baseRef, ""),
+                    () -> debtService.buildReportFromRepository(reportId, repoUrl, reportBranch, baseRef, headRef)));
+            } else if (path != null && !path.isEmpty()) {
+                // Otherwise use path method
+                work = () -> debtService.buildReport(reportId, path);
+            } else {
+                return Map.of("status", "error", "error", "repoUrl or path required in args");
             }
             
-            // Otherwise use path method
-            if (path != null && !path.isEmpty()) {
-                return debtService.buildReport(requestId, path);
+            if (JobService.isAsync(req)) {
+                return jobService.submit("tech_debt", null, work);
             }
-            
-            return Map.of("status", "error", "error", "repoUrl or path required in args");
+            return work.get();
         } catch (Exception e) {
             e.printStackTrace();
             return Map.of(
@@ -55,4 +74,14 @@ public class ReportController {
             );
         }
     }
+
+    // A coalesced report may have been built for another request
+    private Map<String, Object> withRequestId(String requestId, Map<String, Object> report) {
+        if (requestId.equals(report.get("requestId"))) {
+            return report;
+        }
+        Map<String, Object> copy = new HashMap<>(report);
+        copy.put("requestId", requestId);
+        return copy;
+    }
 }
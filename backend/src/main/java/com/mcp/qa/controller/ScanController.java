@@ -1,35 +1,52 @@
 package com.mcp.qa.controller;
 
+import com.mcp.qa.job.JobService;
+import com.mcp.qa.job.RequestCoalescer;
 import com.mcp.qa.service.ScanService;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/call/scan")
 public class ScanController {
 
     private final ScanService scanService;
+    private final JobService jobService;
+    private final RequestCoalescer coalescer;
 
-    public ScanController(ScanService scanService) {
+    public ScanController(ScanService scanService, JobService jobService, RequestCoalescer coalescer) {
         this.scanService = scanService;
+        this.jobService = jobService;
+        this.coalescer = coalescer;
     }
 
     @PostMapping(path="/repository", consumes=MediaType.APPLICATION_JSON_VALUE)
     public Map<String,Object> scanRepository(@RequestBody Map<String,Object> req) {
-        return scanService.scanRepository(
-            (String) req.get("requestId"),
-            (String) ((Map)req.get("args")).get("repoUrl"),
-            (String) ((Map)req.get("args")).get("branch")
-        );
+        String requestId = (String) req.get("requestId");
+        String repoUrl = (String) ((Map)req.get("args")).get("repoUrl");
+        String branch = (String) ((Map)req.get("args")).get("branch");
+        String baseRef = (String) ((Map)req.get("args")).get("baseRef");
+        String headRef = (String) ((Map)req.get("args")).get("headRef");
+        Supplier<Map<String,Object>> work = () -> coalescer.run("scan_repository", repoUrl,
+            RequestCoalescer.headOf(branch, headRef), "baseRef=" + Objects.toString(baseRef, ""),
+            () -> scanService.scanRepository(requestId, repoUrl, branch, baseRef, headRef));
+        if (JobService.isAsync(req)) {
+            return jobService.submit("scan_repository", null, work);
+        }
+        return work.get();
     }
 
     @PostMapping(path="/files", consumes=MediaType.APPLICATION_JSON_VALUE)
     public Map<String,Object> scanFiles(@RequestBody Map<String,Object> req) {
-        return scanService.scanFiles(
-            (String) req.get("requestId"),
-            (String) ((Map)req.get("args")).get("path")
-        );
+        String requestId = (String) req.get("requestId");
+        String path = (String) ((Map)req.get("args")).get("path");
+        if (JobService.isAsync(req)) {
+            return jobService.submit("scan_files", null, () -> scanService.scanFiles(requestId, path));
+        }
+        return scanService.scanFiles(requestId, path);
     }
 }
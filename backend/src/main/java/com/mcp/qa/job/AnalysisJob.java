@@ -0,0 +1,236 @@
+package com.mcp.qa.job;
+
+import com.mcp.qa.ai.AnalysisBudget;
+import com.mcp.qa.repo.SourceFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One asynchronous analysis: its state, progress counters and final result, plus the SSE
+ * subscribers that receive findings and per-file results while it runs. AI analyses report
+ * progress through their budget; other tools only report status changes.
+ */
+public class AnalysisJob implements AnalysisBudget.Listener {
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    private final String id;
+    private final String type;
+    private final AnalysisBudget budget;
+    private final long createdAt = System.currentTimeMillis();
+    private final List<SseEmitter> subscribers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger filesAdmitted = new AtomicInteger();
+    private final AtomicInteger filesCompleted = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+
+    private Status status = Status.QUEUED;
+    private long startedAt;
+    private long finishedAt;
+    private boolean cancelRequested;
+    private Map<String, Object> result;
+    private String error;
+    private Future<?> task;
+
+    AnalysisJob(String id, String type, AnalysisBudget budget) {
+        this.id = id;
+        this.type = type;
+        this.budget = budget;
+        if (budget != null) {
+            budget.addListener(this);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    synchronized long getFinishedAt() {
+        return finishedAt;
+    }
+
+    synchronized void setTask(Future<?> task) {
+        this.task = task;
+    }
+
+    boolean start() {
+        Map<String, Object> event;
+        synchronized (this) {
+            if (status != Status.QUEUED) {
+                return false;
+            }
+            status = Status.RUNNING;
+            startedAt = System.currentTimeMillis();
+            event = statusEvent();
+        }
+        broadcast("status", event);
+        return true;
+    }
+
+    void finish(Map<String, Object> outcome, Throwable failure) {
+        Map<String, Object> event;
+        synchronized (this) {
+            if (isFinished()) {
+                return;
+            }
+            finishedAt = System.currentTimeMillis();
+            if (failure != null) {
+                status = cancelRequested ? Status.CANCELLED : Status.FAILED;
+                error = failure.getMessage() != null ? failure.getMessage() : failure.getClass().getSimpleName();
+            } else {
+                result = outcome;
+                if (cancelRequested) {
+                    status = Status.CANCELLED;
+                } else if ("error".equals(outcome.get("status"))) {
+                    status = Status.FAILED;
+                    error = String.valueOf(outcome.get("error"));
+                } else {
+                    status = Status.COMPLETED;
+                }
+            }
+            event = toMap(true);
+        }
+        broadcast("result", event);
+        subscribers.forEach(SseEmitter::complete);
+        subscribers.clear();
+    }
+
+    /**
+     * Stops the job. An AI analysis is stopped through its budget and finishes with what it has
+     * so far; anything else is interrupted, and a job that has not started never runs.
+     */
+    boolean cancel() {
+        synchronized (this) {
+            if (isFinished()) {
+                return false;
+            }
+            cancelRequested = true;
+            if (budget != null) {
+                budget.cancel();
+            }
+            if (status == Status.QUEUED || budget == null) {
+                if (task != null) {
+                    task.cancel(true);
+                }
+            } else {
+                return true;
+            }
+        }
+        // A queued job's task never runs, and an interrupted one may never report back
+        finish(null, new CancellationException("job cancelled"));
+        return true;
+    }
+
+    void subscribe(SseEmitter emitter) {
+        Map<String, Object> finalEvent = null;
+        synchronized (this) {
+            if (isFinished()) {
+                finalEvent = toMap(true);
+            } else {
+                subscribers.add(emitter);
+            }
+        }
+        emitter.onCompletion(() -> subscribers.remove(emitter));
+        emitter.onTimeout(() -> subscribers.remove(emitter));
+        emitter.onError(e -> subscribers.remove(emitter));
+
+        if (finalEvent != null) {
+            send(emitter, "result", finalEvent);
+            emitter.complete();
+        } else {
+            send(emitter, "status", statusEvent());
+        }
+    }
+
+    @Override
+    public void fileAdmitted(SourceFile file) {
+        filesAdmitted.incrementAndGet();
+        broadcast("progress", progress());
+    }
+
+    @Override
+    public void itemStreamed(String file, String section, Map<String, Object> item) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("file", file);
+        event.put("section", section);
+        event.put("item", item);
+        broadcast("finding", event);
+    }
+
+    @Override
+    public void fileFinished(SourceFile file, Object result, Throwable error) {
+        if (result != null) {
+            filesCompleted.incrementAndGet();
+            Map<String, Object> event = new HashMap<>();
+            event.put("file", file.getRelativePath());
+            event.put("result", result);
+            broadcast("file", event);
+        } else {
+            filesFailed.incrementAndGet();
+        }
+        broadcast("progress", progress());
+    }
+
+    public synchronized Map<String, Object> toMap(boolean includeResult) {
+        Map<String, Object> map = statusEvent();
+        map.put("type", type);
+        map.put("createdAt", createdAt);
+        if (startedAt > 0) {
+            map.put("startedAt", startedAt);
+        }
+        if (finishedAt > 0) {
+            map.put("finishedAt", finishedAt);
+        }
+        if (error != null) {
+            map.put("error", error);
+        }
+        if (includeResult && result != null) {
+            map.put("result", result);
+        }
+        return map;
+    }
+
+    private synchronized Map<String, Object> statusEvent() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("jobId", id);
+        map.put("status", status.name().toLowerCase());
+        map.put("progress", progress());
+        return map;
+    }
+
+    private Map<String, Object> progress() {
+        return Map.of(
+            "filesAdmitted", filesAdmitted.get(),
+            "filesCompleted", filesCompleted.get(),
+            "filesFailed", filesFailed.get()
+        );
+    }
+
+    private void broadcast(String name, Object data) {
+        for (SseEmitter emitter : subscribers) {
+            send(emitter, name, data);
+        }
+    }
+
+    private void send(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException | IllegalStateException e) {
+            // Client went away; the emitter's callbacks remove it
+            subscribers.remove(emitter);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.mcp.qa.job;
+
+import com.mcp.qa.ai.AnalysisBudget;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import jakarta.annotation.PreDestroy;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Runs analyses in the background so the submitting request returns a job id at once instead of
+ * holding a servlet thread for the whole clone and analysis. Finished jobs are kept for the
+ * retention period, and beyond max-retained the oldest finished ones are dropped first; running
+ * jobs are never evicted.
+ */
+@Service
+public class JobService {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final LinkedHashMap<String, AnalysisJob> jobs = new LinkedHashMap<>();
+    private final long retentionMillis;
+    private final int maxRetained;
+    private final long sseTimeoutMillis;
+
+    public JobService(@Value("${jobs.retention-minutes:60}") long retentionMinutes,
+                      @Value("${jobs.max-retained:200}") int maxRetained,
+                      @Value("${jobs.sse-timeout-ms:1800000}") long sseTimeoutMillis) {
+        this.retentionMillis = retentionMinutes * 60_000;
+        this.maxRetained = Math.max(1, maxRetained);
+        this.sseTimeoutMillis = sseTimeoutMillis;
+    }
+
+    /** True if the request, or its args, asks for "async": true. */
+    public static boolean isAsync(Map<String, Object> req) {
+        Object async = req.get("async");
+        if (async == null && req.get("args") instanceof Map<?, ?> args) {
+            async = args.get("async");
+        }
+        return Boolean.TRUE.equals(async) || "true".equals(async);
+    }
+
+    /**
+     * Starts work in the background and returns the response for the submitting request. Pass the
+     * analysis budget, if the work has one, so the job can report per-file progress and cancel it.
+     */
+    public Map<String, Object> submit(String type, AnalysisBudget budget, Supplier<Map<String, Object>> work) {
+        AnalysisJob job = new AnalysisJob(UUID.randomUUID().toString(), type, budget);
+        synchronized (jobs) {
+            prune(1);
+            jobs.put(job.getId(), job);
+        }
+        job.setTask(executor.submit(() -> {
+            if (!job.start()) {
+                return;
+            }
+            try {
+                job.finish(work.get(), null);
+            } catch (Throwable t) {
+                job.finish(null, t);
+            }
+        }));
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "accepted");
+        response.put("jobId", job.getId());
+        response.put("statusUrl", "/jobs/" + job.getId());
+        response.put("eventsUrl", "/jobs/" + job.getId() + "/events");
+        return response;
+    }
+
+    public Optional<AnalysisJob> get(String id) {
+        synchronized (jobs) {
+            prune(0);
+            return Optional.ofNullable(jobs.get(id));
+        }
+    }
+
+    public List<Map<String, Object>> list() {
+        List<AnalysisJob> snapshot;
+        synchronized (jobs) {
+            prune(0);
+            snapshot = new ArrayList<>(jobs.values());
+        }
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (AnalysisJob job : snapshot) {
+            result.add(job.toMap(false));
+        }
+        return result;
+    }
+
+    public boolean cancel(String id) {
+        return get(id).map(AnalysisJob::cancel).orElse(false);
+    }
+
+    /** Streams status, progress, findings and per-file results of the job; the final event is "result". */
+    public Optional<SseEmitter> subscribe(String id) {
+        return get(id).map(job -> {
+            SseEmitter emitter = new SseEmitter(sseTimeoutMillis);
+            job.subscribe(emitter);
+            return emitter;
+        });
+    }
+
+    // Called with the jobs lock held; room is the number of jobs about to be added
+    private void prune(int room) {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt() < cutoff);
+
+        Iterator<AnalysisJob> oldest = jobs.values().iterator();
+        int excess = jobs.size() + room - maxRetained;
+        while (excess > 0 && oldest.hasNext()) {
+            if (oldest.next().isFinished()) {
+                oldest.remove();
+                excess--;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,154 @@
+package com.mcp.qa.job;
+
+import com.mcp.qa.ai.AnalysisBudget;
+import com.mcp.qa.utils.GitUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight execution of repository analyses. Requests for the same endpoint, repository,
+ * branch, resolved commit and limits share one clone and one set of AI calls: a duplicate that
+ * arrives while the first is running waits for its result, and a successful result is reused for
+ * a short while afterwards. The commit is resolved with ls-remote first, so a push to the branch
+ * starts a fresh analysis. A waiting AI analysis receives the progress and findings of the run it
+ * waits for, and cancelling it stops the wait, not that run.
+ */
+@Component
+public class RequestCoalescer {
+
+    private record Completed(Map<String, Object> result, long expiresAt) {}
+
+    private record Flight(CompletableFuture<Map<String, Object>> result, AnalysisBudget budget) {}
+
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Completed> recent = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final long resultTtlMillis;
+
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public RequestCoalescer(@Value("${coalesce.enabled:true}") boolean enabled,
+                            @Value("${coalesce.result-ttl-seconds:60}") long resultTtlSeconds) {
+        this.enabled = enabled;
+        this.resultTtlMillis = resultTtlSeconds * 1000;
+    }
+
+    /**
+     * Runs work, or returns the result of an identical run in flight or just finished. variant
+     * holds anything else that changes the result, such as the analysis limits.
+     */
+    public Map<String, Object> run(String endpoint, String repoUrl, String branch, String variant,
+                                   Supplier<Map<String, Object>> work) {
+        return run(endpoint, repoUrl, branch, variant, null, work);
+    }
+
+    /**
+     * Like run without a budget, for an AI analysis whose work spends budget: while it waits for
+     * an identical run, that run's events are reported to budget's listeners, and cancelling budget
+     * gives up the wait with a CancellationException.
+     */
+    public Map<String, Object> run(String endpoint, String repoUrl, String branch, String variant,
+                                   AnalysisBudget budget, Supplier<Map<String, Object>> work) {
+        if (!enabled) {
+            return work.get();
+        }
+        String commit = GitUtils.resolveCommit(repoUrl, branch);
+        if (commit == null) {
+            return work.get();
+        }
+        String key = String.join("\n", endpoint, repoUrl, branch != null ? branch : "", commit, variant);
+
+        long now = System.currentTimeMillis();
+        recent.values().removeIf(completed -> completed.expiresAt() < now);
+        Completed completed = recent.get(key);
+        if (completed != null) {
+            reused.incrementAndGet();
+            return completed.result();
+        }
+
+        Flight flight = new Flight(new CompletableFuture<>(), budget);
+        Flight existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            joined.incrementAndGet();
+            Map<String, Object> result = await(existing, budget);
+            return result != null && !wasCancelled(result) ? result : work.get();
+        }
+
+        executions.incrementAndGet();
+        try {
+            Map<String, Object> result = work.get();
+            if (isReusable(result)) {
+                recent.put(key, new Completed(result, System.currentTimeMillis() + resultTtlMillis));
+            }
+            flight.result().complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.result().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    // The result of an identical run, or null if it failed
+    private Map<String, Object> await(Flight flight, AnalysisBudget budget) {
+        Runnable stopForwarding = budget != null && flight.budget() != null
+            ? flight.budget().forwardTo(budget) : () -> {};
+        CompletableFuture<?> cancelled = budget != null ? budget.whenCancelled() : new CompletableFuture<>();
+        try {
+            CompletableFuture.anyOf(flight.result(), cancelled).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("analysis cancelled");
+        } catch (ExecutionException e) {
+            // The first caller failed; run again rather than share an exception
+            return null;
+        } finally {
+            stopForwarding.run();
+        }
+        if (!flight.result().isDone()) {
+            throw new CancellationException("analysis cancelled");
+        }
+        return flight.result().join();
+    }
+
+    /**
+     * The ref whose commit decides a result: headRef when the request names one, as for a commit
+     * range, else the branch. Pass it as run's branch, and any baseRef in variant.
+     */
+    public static String headOf(String branch, String headRef) {
+        return headRef != null && !headRef.isBlank() ? headRef : branch;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("inFlight", inFlight.size());
+        stats.put("recentResults", recent.size());
+        stats.put("executions", executions.get());
+        stats.put("joined", joined.get());
+        stats.put("reused", reused.get());
+        return stats;
+    }
+
+    private boolean isReusable(Map<String, Object> result) {
+        return result != null && !"error".equals(result.get("status")) && !wasCancelled(result);
+    }
+
+    // A cancelled job's partial result is not what the other callers asked for
+    private boolean wasCancelled(Map<String, Object> result) {
+        return result != null && result.get("budget") instanceof Map<?, ?> budget
+            && Boolean.TRUE.equals(budget.get("cancelled"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.mcp.qa.repo;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The files a change touches, the way a pull request shows them: head is compared with its merge
+ * base with base, so commits that landed on base in the meantime are not counted. Only the tree
+ * diff is computed; no file content is read.
+ */
+public final class CommitRange {
+
+    private final ObjectId base;
+    private final ObjectId mergeBase;
+    private final ObjectId head;
+    private final Set<String> headPaths;
+    private final Set<String> basePaths;
+    private final int deleted;
+
+    private CommitRange(ObjectId base, ObjectId mergeBase, ObjectId head,
+                        Set<String> headPaths, Set<String> basePaths, int deleted) {
+        this.base = base;
+        this.mergeBase = mergeBase;
+        this.head = head;
+        this.headPaths = headPaths;
+        this.basePaths = basePaths;
+        this.deleted = deleted;
+    }
+
+    public static CommitRange of(Repository repository, ObjectId base, ObjectId head) throws IOException {
+        ObjectId mergeBase = base;
+        try (RevWalk walk = new RevWalk(repository)) {
+            walk.setRevFilter(RevFilter.MERGE_BASE);
+            walk.markStart(walk.parseCommit(base));
+            walk.markStart(walk.parseCommit(head));
+            RevCommit found = walk.next();
+            if (found != null) {
+                mergeBase = found.copy();
+            }
+        }
+
+        Set<String> headPaths = new HashSet<>();
+        Set<String> basePaths = new HashSet<>();
+        int deleted = 0;
+        try (DiffFormatter formatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            formatter.setRepository(repository);
+            formatter.setDetectRenames(true);
+            for (DiffEntry entry : formatter.scan(mergeBase, head)) {
+                if (entry.getChangeType() != DiffEntry.ChangeType.ADD) {
+                    basePaths.add(entry.getOldPath());
+                }
+                if (entry.getChangeType() == DiffEntry.ChangeType.DELETE) {
+                    deleted++;
+                } else {
+                    headPaths.add(entry.getNewPath());
+                }
+            }
+        }
+        return new CommitRange(base, mergeBase, head, headPaths, basePaths, deleted);
+    }
+
+    public ObjectId getMergeBase() {
+        return mergeBase;
+    }
+
+    public ObjectId getHead() {
+        return head;
+    }
+
+    /** Paths at head of the files added, modified, renamed or copied. */
+    public Set<String> getHeadPaths() {
+        return Collections.unmodifiableSet(headPaths);
+    }
+
+    /** Paths at the merge base of the files modified, renamed or deleted. */
+    public Set<String> getBasePaths() {
+        return Collections.unmodifiableSet(basePaths);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("baseCommit", base.name());
+        map.put("mergeBase", mergeBase.name());
+        map.put("headCommit", head.name());
+        map.put("changedFiles", headPaths.size());
+        map.put("deletedFiles", deleted);
+        return map;
+    }
+}
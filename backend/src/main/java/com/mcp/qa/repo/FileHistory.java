@@ -0,0 +1,13 @@
+package com.mcp.qa.repo;
+
+/**
+ * Change history of one file, as mined by {@link HistoryMiner}: non-merge commits touching it,
+ * distinct authors, lines added and deleted, and how many days before the analyzed commit it was
+ * last changed.
+ */
+public record FileHistory(int commits, int authors, long linesAdded, long linesDeleted, long daysSinceChange) {
+
+    public long churn() {
+        return linesAdded + linesDeleted;
+    }
+}
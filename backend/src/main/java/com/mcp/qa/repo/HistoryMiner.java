@@ -0,0 +1,238 @@
+package com.mcp.qa.repo;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.filter.OrTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mines per-file change history from a repository: commits, authors, lines added and deleted, and
+ * the time of the last change. One RevWalk lists the commits, and their diffs are computed in
+ * parallel, one worker per core with its own reader. Totals are cached per repository and branch
+ * together with the last commit processed, so mining a later commit only walks and diffs the
+ * commits added since; if the branch was rewritten, or more than max-commits were added, it is
+ * mined again from scratch. A mine from scratch takes the newest max-commits commits. Merge
+ * commits are skipped, renames are not followed and only analyzable files are diffed.
+ */
+@Component
+public class HistoryMiner {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final class Totals {
+        int commits;
+        final Set<String> authors = new HashSet<>();
+        long linesAdded;
+        long linesDeleted;
+        long lastChangedAt;
+
+        void add(Totals other) {
+            commits += other.commits;
+            authors.addAll(other.authors);
+            linesAdded += other.linesAdded;
+            linesDeleted += other.linesDeleted;
+            lastChangedAt = Math.max(lastChangedAt, other.lastChangedAt);
+        }
+    }
+
+    // What a diff worker needs from a commit, read on the walking thread
+    private record Change(ObjectId parentTree, ObjectId tree, String author, long time) {}
+
+    private static final class State {
+        ObjectId processed;
+        Map<String, Totals> files = new HashMap<>();
+    }
+
+    private final boolean enabled;
+    private final int maxCommits;
+    private final int maxRepositories;
+    private final TreeFilter sourceFiles;
+    private final LinkedHashMap<String, State> states = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong fullMines = new AtomicLong();
+    private final AtomicLong incrementalMines = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong commitsProcessed = new AtomicLong();
+
+    public HistoryMiner(@Value("${history.enabled:true}") boolean enabled,
+                        @Value("${history.max-commits:10000}") int maxCommits,
+                        @Value("${history.max-repositories:64}") int maxRepositories) {
+        this.enabled = enabled;
+        this.maxCommits = Math.max(1, maxCommits);
+        this.maxRepositories = Math.max(1, maxRepositories);
+        this.sourceFiles = OrTreeFilter.create(RepositorySnapshot.analyzableExtensions().stream()
+            .map(extension -> PathSuffixFilter.create("." + extension))
+            .toArray(TreeFilter[]::new));
+    }
+
+    /**
+     * Returns the history of each analyzable file as of commit, keyed by relative path, or an empty
+     * map if mining is disabled or fails. key names the repository and branch whose totals are
+     * reused; days since change are counted back from the commit's own time.
+     */
+    public Map<String, FileHistory> mine(String key, Repository repository, ObjectId commit) {
+        if (!enabled) {
+            return Map.of();
+        }
+        State state;
+        synchronized (this) {
+            state = states.computeIfAbsent(key, k -> new State());
+            Iterator<State> eldest = states.values().iterator();
+            while (states.size() > maxRepositories && eldest.hasNext()) {
+                if (eldest.next() != state) {
+                    eldest.remove();
+                }
+            }
+        }
+
+        synchronized (state) {
+            try {
+                long now = update(state, repository, commit);
+                Map<String, FileHistory> history = new HashMap<>();
+                state.files.forEach((path, totals) -> history.put(path, new FileHistory(totals.commits,
+                    totals.authors.size(), totals.linesAdded, totals.linesDeleted,
+                    Math.max(0, (now - totals.lastChangedAt) / DAY_MILLIS))));
+                return history;
+            } catch (Exception e) {
+                System.err.println("Warning: Could not mine history of " + key + ": " + e.getMessage());
+                return Map.of();
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("repositories", states.size());
+        stats.put("fullMines", fullMines.get());
+        stats.put("incrementalMines", incrementalMines.get());
+        stats.put("reused", reused.get());
+        stats.put("commitsProcessed", commitsProcessed.get());
+        return stats;
+    }
+
+    // Brings state up to commit and returns the commit's time
+    private long update(State state, Repository repository, ObjectId commit) throws Exception {
+        try (RevWalk walk = new RevWalk(repository)) {
+            RevCommit head = walk.parseCommit(commit);
+            long now = head.getCommitTime() * 1000L;
+            if (head.equals(state.processed)) {
+                reused.incrementAndGet();
+                return now;
+            }
+
+            RevCommit previous = null;
+            if (state.processed != null) {
+                try {
+                    RevCommit candidate = walk.parseCommit(state.processed);
+                    if (walk.isMergedInto(candidate, head)) {
+                        previous = candidate;
+                    }
+                } catch (MissingObjectException e) {
+                    // Not in this repository any more; mine from scratch
+                }
+                walk.reset();
+            }
+
+            walk.setRevFilter(RevFilter.NO_MERGES);
+            walk.markStart(head);
+            if (previous != null) {
+                walk.markUninteresting(previous);
+            }
+            List<Change> changes = new ArrayList<>();
+            for (RevCommit revCommit : walk) {
+                if (changes.size() >= maxCommits) {
+                    if (previous != null) {
+                        // More new commits than one mine may take: adding only some of them would
+                        // leave the rest out of the totals for good, so start again from scratch
+                        state.processed = null;
+                        return update(state, repository, commit);
+                    }
+                    break;
+                }
+                ObjectId parentTree = null;
+                if (revCommit.getParentCount() > 0) {
+                    parentTree = walk.parseCommit(revCommit.getParent(0)).getTree();
+                }
+                PersonIdent author = revCommit.getAuthorIdent();
+                String name = author.getEmailAddress() != null && !author.getEmailAddress().isEmpty()
+                    ? author.getEmailAddress().toLowerCase() : author.getName();
+                changes.add(new Change(parentTree, revCommit.getTree(), name, revCommit.getCommitTime() * 1000L));
+            }
+
+            Map<String, Totals> files = previous != null ? state.files : new HashMap<>();
+            for (Map<String, Totals> part : diffAll(repository, changes)) {
+                part.forEach((path, totals) -> files.computeIfAbsent(path, p -> new Totals()).add(totals));
+            }
+            state.files = files;
+            state.processed = head.copy();
+            (previous != null ? incrementalMines : fullMines).incrementAndGet();
+            commitsProcessed.addAndGet(changes.size());
+            return now;
+        }
+    }
+
+    private List<Map<String, Totals>> diffAll(Repository repository, List<Change> changes) throws Exception {
+        int workers = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), changes.size()));
+        List<Future<Map<String, Totals>>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int worker = 0; worker < workers; worker++) {
+                int first = worker;
+                futures.add(executor.submit(() -> diff(repository, changes, first, workers)));
+            }
+            List<Map<String, Totals>> parts = new ArrayList<>();
+            for (Future<Map<String, Totals>> future : futures) {
+                parts.add(future.get());
+            }
+            return parts;
+        }
+    }
+
+    // Diffs every workers-th change starting at first against its first parent
+    private Map<String, Totals> diff(Repository repository, List<Change> changes, int first, int workers)
+            throws IOException {
+        Map<String, Totals> files = new HashMap<>();
+        try (DiffFormatter formatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            formatter.setRepository(repository);
+            formatter.setDiffComparator(RawTextComparator.DEFAULT);
+            formatter.setDetectRenames(false);
+            formatter.setPathFilter(sourceFiles);
+            for (int i = first; i < changes.size(); i += workers) {
+                Change change = changes.get(i);
+                for (DiffEntry entry : formatter.scan(change.parentTree(), change.tree())) {
+                    String path = entry.getChangeType() == DiffEntry.ChangeType.DELETE
+                        ? entry.getOldPath() : entry.getNewPath();
+                    Totals totals = files.computeIfAbsent(path, p -> new Totals());
+                    totals.commits++;
+                    totals.authors.add(change.author());
+                    totals.lastChangedAt = Math.max(totals.lastChangedAt, change.time());
+                    for (Edit edit : formatter.toFileHeader(entry).toEditList()) {
+                        totals.linesAdded += edit.getLengthB();
+                        totals.linesDeleted += edit.getLengthA();
+                    }
+                }
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,303 @@
+package com.mcp.qa.repo;
+
+import org.eclipse.jgit.ignore.IgnoreNode;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * The analyzable files of a repository, collected with a single walk of the tree. One snapshot is
+ * built per request and handed to StaticAnalyzer, the services and the AI engines so that the tree
+ * is walked once and each file is read and decoded at most once.
+ */
+public class RepositorySnapshot {
+
+    private static final Map<String, String> LANGUAGES = Map.ofEntries(
+        Map.entry("java", "Java"),
+        Map.entry("js", "JavaScript"),
+        Map.entry("jsx", "JavaScript"),
+        Map.entry("ts", "TypeScript"),
+        Map.entry("tsx", "TypeScript"),
+        Map.entry("py", "Python"),
+        Map.entry("go", "Go"),
+        Map.entry("rs", "Rust"),
+        Map.entry("cpp", "C++"),
+        Map.entry("c", "C"),
+        Map.entry("cs", "C#")
+    );
+
+    private final Path root;
+    private final List<SourceFile> files;
+    private final List<SourceFile> contextFiles;
+    private final Map<String, Object> pruned;
+
+    // The ignore rules of one directory, if it has any
+    private record IgnoreRules(Path directory, IgnoreNode rules) {}
+
+    public RepositorySnapshot(Path root, List<SourceFile> files) {
+        this(root, files, Map.of());
+    }
+
+    private RepositorySnapshot(Path root, List<SourceFile> files, Map<String, Object> pruned) {
+        this.root = root;
+        List<SourceFile> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparing(SourceFile::getRelativePath));
+        this.files = Collections.unmodifiableList(sorted);
+        this.contextFiles = this.files;
+        this.pruned = pruned;
+    }
+
+    private RepositorySnapshot(RepositorySnapshot whole, List<SourceFile> files) {
+        this.root = whole.root;
+        this.files = files;
+        this.contextFiles = whole.contextFiles;
+        this.pruned = whole.pruned;
+    }
+
+    /**
+     * Walks root without descending into vendored, tool or build output directories or anything a
+     * .gitignore or .git/info/exclude matches, and leaves out generated and binary files, which are
+     * recognized by name or by their first bytes. getPruned reports what was left out.
+     */
+    public static RepositorySnapshot of(Path root) throws IOException {
+        List<SourceFile> files = new ArrayList<>();
+        SourcePruner pruner = new SourcePruner();
+        Deque<IgnoreRules> ignoreRules = new ArrayDeque<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root)) {
+                    String relativePath = root.relativize(dir).toString().replace('\\', '/');
+                    if (pruner.pruneDirectory(relativePath, dir.getFileName().toString())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (isIgnored(ignoreRules, dir, true)) {
+                        pruner.ignoredDirectory();
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                }
+                
+                // Rules read later win, so the repository's exclude file goes first
+                IgnoreNode rules = new IgnoreNode();
+                if (dir.equals(root)) {
+                    readIgnoreRules(rules, dir.resolve(".git/info/exclude"));
+                }
+                readIgnoreRules(rules, dir.resolve(Constants.DOT_GIT_IGNORE));
+                ignoreRules.push(new IgnoreRules(dir, rules.getRules().isEmpty() ? null : rules));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                ignoreRules.pop();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                // Symlinked files are analyzed like before, when Files.isRegularFile followed links
+                boolean linkedFile = attrs.isSymbolicLink() && Files.isRegularFile(file);
+                if (attrs.isRegularFile() || linkedFile) {
+                    String relativePath = root.relativize(file).toString();
+                    long size = linkedFile ? Files.size(file) : attrs.size();
+                    SourceFile sourceFile = new SourceFile(file, relativePath, size,
+                        () -> Files.readAllBytes(file));
+                    if (sourceFile.getLanguage() == null
+                            || pruner.pruneGeneratedName(file.getFileName().toString())) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (isIgnored(ignoreRules, file, false)) {
+                        pruner.ignoredFile();
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (!pruner.pruneHeader(readHeader(file))) {
+                        files.add(sourceFile);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return pruned(root, files, pruner);
+    }
+
+    private static void readIgnoreRules(IgnoreNode rules, Path file) {
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                rules.parse(in);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // The rules of the nearest directory that has an opinion decide, as in git
+    private static boolean isIgnored(Deque<IgnoreRules> ignoreRules, Path path, boolean directory) {
+        for (IgnoreRules rules : ignoreRules) {
+            if (rules.rules() != null) {
+                String relativePath = rules.directory().relativize(path).toString().replace('\\', '/');
+                Boolean ignored = rules.rules().checkIgnored(relativePath, directory);
+                if (ignored != null) {
+                    return ignored;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static byte[] readHeader(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.readNBytes(SourcePruner.HEADER_BYTES);
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    private static RepositorySnapshot pruned(Path root, List<SourceFile> files, SourcePruner pruner) {
+        Map<String, Object> counts = pruner.toMap();
+        if (counts.values().stream().anyMatch(count -> (Integer) count > 0)) {
+            System.out.println("Pruned from " + root + ": " + counts);
+        }
+        return new RepositorySnapshot(root, files, counts);
+    }
+
+    /**
+     * Builds a snapshot of a commit straight from the object database, without a checkout. Paths
+     * are filtered by extension before any blob is opened, and content is inflated from the pack
+     * on first use, so the repository must stay open while the snapshot is in use. Symlinks,
+     * submodules, vendored and build output directories and generated files are skipped; content is
+     * not sniffed, since that would inflate every blob twice. root is only used to build each
+     * file's path and is never read.
+     */
+    public static RepositorySnapshot ofCommit(Repository repository, ObjectId commit, Path root) throws IOException {
+        List<SourceFile> files = new ArrayList<>();
+        SourcePruner pruner = new SourcePruner();
+        try (ObjectReader reader = repository.newObjectReader();
+             RevWalk revWalk = new RevWalk(reader);
+             TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.addTree(revWalk.parseCommit(commit).getTree());
+            while (treeWalk.next()) {
+                if (treeWalk.isSubtree()) {
+                    if (!pruner.pruneDirectory(treeWalk.getPathString(), treeWalk.getNameString())) {
+                        treeWalk.enterSubtree();
+                    }
+                    continue;
+                }
+                FileMode mode = treeWalk.getFileMode(0);
+                if (mode != FileMode.REGULAR_FILE && mode != FileMode.EXECUTABLE_FILE) {
+                    continue;
+                }
+                String relativePath = treeWalk.getPathString();
+                int slash = relativePath.lastIndexOf('/');
+                int dot = relativePath.lastIndexOf('.');
+                if (dot <= slash || languageOf(relativePath.substring(dot + 1).toLowerCase()) == null
+                        || pruner.pruneGeneratedName(treeWalk.getNameString())) {
+                    continue;
+                }
+                ObjectId blob = treeWalk.getObjectId(0);
+                long size = reader.getObjectSize(blob, Constants.OBJ_BLOB);
+                files.add(new SourceFile(root.resolve(relativePath), relativePath, size, () -> {
+                    try (ObjectReader blobReader = repository.newObjectReader()) {
+                        return blobReader.open(blob, Constants.OBJ_BLOB).getBytes(Integer.MAX_VALUE);
+                    }
+                }));
+            }
+        }
+        return pruned(root, files, pruner);
+    }
+
+    /**
+     * The files of this snapshot whose relative paths, with forward slashes, are in relativePaths.
+     * The rest of the tree stays available through getContextFiles.
+     */
+    public RepositorySnapshot only(Set<String> relativePaths) {
+        return new RepositorySnapshot(this,
+            getFiles(file -> relativePaths.contains(file.getRelativePath().replace('\\', '/'))));
+    }
+
+    /**
+     * Gives each file its entry from history, keyed by relative path with forward slashes. history
+     * is called once, when a file's history is first asked for, so analyses that never look at it
+     * do not pay for mining.
+     */
+    public void attachHistory(Supplier<Map<String, FileHistory>> history) {
+        Supplier<Map<String, FileHistory>> once = new Supplier<>() {
+            private Map<String, FileHistory> mined;
+
+            @Override
+            public synchronized Map<String, FileHistory> get() {
+                if (mined == null) {
+                    mined = history.get();
+                }
+                return mined;
+            }
+        };
+        for (SourceFile file : files) {
+            file.setHistory(once);
+        }
+    }
+
+    /** Extensions of the files a snapshot keeps; nothing else is ever analyzed. */
+    public static Set<String> analyzableExtensions() {
+        return LANGUAGES.keySet();
+    }
+
+    static String languageOf(String extension) {
+        return LANGUAGES.get(extension);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public List<SourceFile> getFiles() {
+        return files;
+    }
+
+    public List<SourceFile> getFiles(Predicate<SourceFile> filter) {
+        return files.stream().filter(filter).toList();
+    }
+
+    /**
+     * Files of the whole tree, for context such as which tests exist or how the code is organized.
+     * Same as getFiles unless the snapshot was narrowed with only.
+     */
+    public List<SourceFile> getContextFiles(Predicate<SourceFile> filter) {
+        return contextFiles.stream().filter(filter).toList();
+    }
+
+    /** Counts of what the walk left out, by reason; empty for snapshots built from a file list. */
+    public Map<String, Object> getPruned() {
+        return pruned;
+    }
+
+    public long count(Predicate<SourceFile> filter) {
+        return files.stream().filter(filter).count();
+    }
+
+    public long getTotalSize() {
+        return files.stream().mapToLong(SourceFile::getSize).sum();
+    }
+
+    public Map<String, Long> getLanguages() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (SourceFile file : files) {
+            counts.merge(file.getLanguage(), 1L, Long::sum);
+        }
+        return counts;
+    }
+}
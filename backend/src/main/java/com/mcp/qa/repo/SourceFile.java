@@ -0,0 +1,161 @@
+package com.mcp.qa.repo;
+
+import com.mcp.qa.analyzer.SourceScanner;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A single file of a {@link RepositorySnapshot}. Content is read and decoded on first use and kept
+ * behind a soft reference, so every consumer within a request shares one read of the file.
+ */
+public class SourceFile {
+
+    @FunctionalInterface
+    public interface ContentLoader {
+        byte[] load() throws IOException;
+    }
+
+    private final Path path;
+    private final String relativePath;
+    private final long size;
+    private final String extension;
+    private final String language;
+    private final ContentLoader loader;
+
+    private volatile SoftReference<String> content = new SoftReference<>(null);
+    private volatile int[] lineStarts;
+    private volatile SourceScanner.Result scanResult;
+    private volatile String contentHash;
+    private volatile Supplier<Map<String, FileHistory>> history;
+
+    public SourceFile(Path path, String relativePath, long size, ContentLoader loader) {
+        this.path = path;
+        this.relativePath = relativePath;
+        this.size = size;
+        this.extension = extensionOf(relativePath);
+        this.language = RepositorySnapshot.languageOf(extension);
+        this.loader = loader;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public boolean hasExtension(String... extensions) {
+        for (String candidate : extensions) {
+            if (candidate.equals(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getContent() throws IOException {
+        String cached = content.get();
+        if (cached == null) {
+            byte[] bytes = loader.load();
+            contentHash = sha256(bytes);
+            // Strict decoding keeps the old Files.readString behaviour of rejecting non UTF-8 files
+            cached = StandardCharsets.UTF_8.newDecoder()
+                .decode(ByteBuffer.wrap(bytes))
+                .toString();
+            content = new SoftReference<>(cached);
+        }
+        return cached;
+    }
+
+    public String getContentHash() throws IOException {
+        if (contentHash == null) {
+            getContent();
+        }
+        return contentHash;
+    }
+
+    public int[] getLineStarts() throws IOException {
+        int[] starts = lineStarts;
+        if (starts == null) {
+            String text = getContent();
+            int[] buffer = new int[Math.max(16, text.length() / 32)];
+            int count = 0;
+            buffer[count++] = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    if (count == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, count * 2);
+                    }
+                    buffer[count++] = i + 1;
+                }
+            }
+            starts = Arrays.copyOf(buffer, count);
+            lineStarts = starts;
+        }
+        return starts;
+    }
+
+    public int lineAt(int offset) throws IOException {
+        int index = Arrays.binarySearch(getLineStarts(), offset);
+        return (index >= 0 ? index : -index - 2) + 1;
+    }
+
+    /**
+     * Change history of the file, or null if the snapshot has none, as for local paths. The first
+     * call mines the history of the whole snapshot.
+     */
+    public FileHistory getHistory() {
+        Supplier<Map<String, FileHistory>> source = history;
+        return source != null ? source.get().get(relativePath.replace('\\', '/')) : null;
+    }
+
+    void setHistory(Supplier<Map<String, FileHistory>> history) {
+        this.history = history;
+    }
+
+    public SourceScanner.Result getScanResult() throws IOException {
+        SourceScanner.Result result = scanResult;
+        if (result == null) {
+            result = SourceScanner.scan(getContent(), SourceScanner.MAX_METHOD_LINES);
+            scanResult = result;
+        }
+        return result;
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String extensionOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        int slash = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+        return dot > slash ? fileName.substring(dot + 1).toLowerCase() : "";
+    }
+}
@@ -0,0 +1,109 @@
+package com.mcp.qa.repo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which parts of a tree are not worth reading: dependency, tool and build output
+ * directories, generated and minified files, and binaries. Output directory names such as build or
+ * target are only pruned outside src, so a package with that name is kept. Counts what it pruned
+ * for the snapshot to report.
+ */
+final class SourcePruner {
+
+    private static final Set<String> VENDOR_DIRECTORIES = Set.of(
+        "node_modules", "bower_components", "jspm_packages", ".git", ".svn", ".hg", ".idea", ".vscode",
+        ".gradle", "__pycache__", ".venv", "venv", ".tox", ".mypy_cache", ".pytest_cache", ".next", ".nuxt",
+        ".cache", "Pods", ".terraform");
+
+    private static final Set<String> OUTPUT_DIRECTORIES = Set.of(
+        "vendor", "third_party", "target", "build", "dist", "out", "coverage");
+
+    private static final String[] GENERATED_SUFFIXES = {
+        ".min.js", "-min.js", ".bundle.js", ".chunk.js", ".d.ts", ".pb.go", "_pb2.py", ".generated.ts",
+        ".generated.cs", ".g.cs", ".designer.cs"};
+
+    private static final String[] GENERATED_MARKERS = {"<auto-generated", "automatically generated"};
+
+    // The @generated tag or the @Generated annotation, but not a longer name such as @GeneratedValue
+    private static final Pattern GENERATED_TAG = Pattern.compile("(?<![\\w$@])@generated(?![\\w$])");
+
+    static final int HEADER_BYTES = 1024;
+
+    private int vendorDirectories;
+    private int ignoredDirectories;
+    private int ignoredFiles;
+    private int generatedFiles;
+    private int binaryFiles;
+
+    /** relativePath uses forward slashes; name is its last segment. .git is pruned but not counted. */
+    boolean pruneDirectory(String relativePath, String name) {
+        if (name.equals(".git")) {
+            return true;
+        }
+        boolean prune = VENDOR_DIRECTORIES.contains(name)
+            || (OUTPUT_DIRECTORIES.contains(name) && !("/" + relativePath).contains("/src/"));
+        if (prune) {
+            vendorDirectories++;
+        }
+        return prune;
+    }
+
+    boolean pruneGeneratedName(String fileName) {
+        String lower = fileName.toLowerCase();
+        for (String suffix : GENERATED_SUFFIXES) {
+            if (lower.endsWith(suffix)) {
+                generatedFiles++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sniffs the first bytes of a file: a NUL byte means binary; a generated-code marker, or a
+     * full header without a line break, as in minified bundles, means generated.
+     */
+    boolean pruneHeader(byte[] header) {
+        boolean newline = false;
+        for (byte b : header) {
+            if (b == 0) {
+                binaryFiles++;
+                return true;
+            }
+            newline |= b == '\n';
+        }
+        String text = new String(header, StandardCharsets.UTF_8).toLowerCase();
+        boolean generated = (header.length >= HEADER_BYTES && !newline)
+            || (text.contains("code generated") && text.contains("do not edit"))
+            || GENERATED_TAG.matcher(text).find();
+        for (String marker : GENERATED_MARKERS) {
+            generated |= text.contains(marker);
+        }
+        if (generated) {
+            generatedFiles++;
+        }
+        return generated;
+    }
+
+    void ignoredDirectory() {
+        ignoredDirectories++;
+    }
+
+    void ignoredFile() {
+        ignoredFiles++;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> counts = new HashMap<>();
+        counts.put("vendorDirectories", vendorDirectories);
+        counts.put("ignoredDirectories", ignoredDirectories);
+        counts.put("ignoredFiles", ignoredFiles);
+        counts.put("generatedFiles", generatedFiles);
+        counts.put("binaryFiles", binaryFiles);
+        return counts;
+    }
+}
@@ -1,7 +1,8 @@
 package com.mcp.qa.service;
 
 import com.mcp.qa.ai.AICodeInsightEngine;
-import com.mcp.qa.utils.GitUtils;
+import com.mcp.qa.ai.AnalysisBudget;
+import com.mcp.qa.utils.GitMirrorCache;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.*;
@@ -11,49 +12,28 @@ import java.util.Map;
 public class AICodeInsightService {
 
     private final AICodeInsightEngine insightEngine;
+    private final GitMirrorCache mirrorCache;
 
-    public AICodeInsightService(AICodeInsightEngine insightEngine) {
+    public AICodeInsightService(AICodeInsightEngine insightEngine, GitMirrorCache mirrorCache) {
         this.insightEngine = insightEngine;
+        this.mirrorCache = mirrorCache;
     }
 
-    public Map<String, Object> analyzeRepository(String repoUrl, String branch) {
-        Path localPath = null;
-        try {
-            localPath = Files.createTempDirectory("repo-ai-");
-            GitUtils.cloneRepo(repoUrl, localPath, branch);
-            
-            Map<String, Object> result = insightEngine.analyzeRepository(localPath);
-            
-            deleteDirectory(localPath);
-            
-            return result;
+    public Map<String, Object> analyzeRepository(String repoUrl, String branch, String baseRef, String headRef,
+                                                 AnalysisBudget budget) {
+        try (GitMirrorCache.Lease lease = mirrorCache.open(repoUrl, branch, baseRef, headRef)) {
+            return lease.withRange(insightEngine.analyzeRepository(lease.getSnapshot(), budget));
         } catch (Exception e) {
-            if (localPath != null) {
-                deleteDirectory(localPath);
-            }
             return Map.of("status", "error", "error", e.getMessage());
         }
     }
 
-    public Map<String, Object> analyzePath(String path) {
+    public Map<String, Object> analyzePath(String path, AnalysisBudget budget) {
         try {
             Path localPath = Path.of(path);
-            return insightEngine.analyzeRepository(localPath);
+            return insightEngine.analyzeRepository(localPath, budget);
         } catch (Exception e) {
             return Map.of("status", "error", "error", e.getMessage());
         }
     }
-
-    private void deleteDirectory(Path path) {
-        try {
-            Files.walk(path)
-                .sorted((a, b) -> -a.compareTo(b))
-                .forEach(p -> {
-                    try {
-                        Files.delete(p);
-                    } catch (Exception ignored) {}
-                });
-        } catch (Exception ignored) {}
-    }
 }
-
@@ -0,0 +1,39 @@
+package com.mcp.qa.service;
+
+import com.mcp.qa.ai.AICombinedAnalyzer;
+import com.mcp.qa.ai.AnalysisBudget;
+import com.mcp.qa.utils.GitMirrorCache;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.*;
+import java.util.Map;
+
+@Service
+public class AICombinedAnalysisService {
+
+    private final AICombinedAnalyzer combinedAnalyzer;
+    private final GitMirrorCache mirrorCache;
+
+    public AICombinedAnalysisService(AICombinedAnalyzer combinedAnalyzer, GitMirrorCache mirrorCache) {
+        this.combinedAnalyzer = combinedAnalyzer;
+        this.mirrorCache = mirrorCache;
+    }
+
+    public Map<String, Object> analyzeRepository(String repoUrl, String branch, String baseRef, String headRef,
+                                                 AnalysisBudget budget) {
+        try (GitMirrorCache.Lease lease = mirrorCache.open(repoUrl, branch, baseRef, headRef)) {
+            return lease.withRange(combinedAnalyzer.analyzeRepository(lease.getSnapshot(), budget));
+        } catch (Exception e) {
+            return Map.of("status", "error", "error", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> analyzeRepositoryForPath(String path, AnalysisBudget budget) {
+        try {
+            Path localPath = Path.of(path);
+            return combinedAnalyzer.analyzeRepository(localPath, budget);
+        } catch (Exception e) {
+            return Map.of("status", "error", "error", e.getMessage());
+        }
+    }
+}
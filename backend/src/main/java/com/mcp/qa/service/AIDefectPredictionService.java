@@ -1,7 +1,8 @@
 package com.mcp.qa.service;
 
 import com.mcp.qa.ai.AIDefectPredictor;
-import com.mcp.qa.utils.GitUtils;
+import com.mcp.qa.ai.AnalysisBudget;
+import com.mcp.qa.utils.GitMirrorCache;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.*;
@@ -11,52 +12,30 @@ import java.util.Map;
 public class AIDefectPredictionService {
 
     private final AIDefectPredictor defectPredictor;
+    private final GitMirrorCache mirrorCache;
 
-    public AIDefectPredictionService(AIDefectPredictor defectPredictor) {
+    public AIDefectPredictionService(AIDefectPredictor defectPredictor, GitMirrorCache mirrorCache) {
         this.defectPredictor = defectPredictor;
+        this.mirrorCache = mirrorCache;
     }
 
-    public Map<String, Object> predictDefects(String repoUrl, String branch) {
-        Path localPath = null;
-        try {
-            localPath = Files.createTempDirectory("repo-ai-");
-            System.out.println("Cloning repository: " + repoUrl + " (branch: " + branch + ") to " + localPath);
-            GitUtils.cloneRepo(repoUrl, localPath, branch);
-            
-            System.out.println("Repository cloned successfully. Analyzing...");
-            Map<String, Object> result = defectPredictor.predictDefects(localPath);
-            
-            deleteDirectory(localPath);
-            
-            return result;
+    public Map<String, Object> predictDefects(String repoUrl, String branch, String baseRef, String headRef,
+                                              AnalysisBudget budget) {
+        try (GitMirrorCache.Lease lease = mirrorCache.open(repoUrl, branch, baseRef, headRef)) {
+            System.out.println("Analyzing " + repoUrl + " (branch: " + branch + ")...");
+            return lease.withRange(defectPredictor.predictDefects(lease.getSnapshot(), budget));
         } catch (Exception e) {
             e.printStackTrace();
-            if (localPath != null) {
-                deleteDirectory(localPath);
-            }
             return Map.of("status", "error", "error", e.getMessage(), "stackTrace", e.getClass().getName());
         }
     }
 
-    public Map<String, Object> predictDefectsForPath(String path) {
+    public Map<String, Object> predictDefectsForPath(String path, AnalysisBudget budget) {
         try {
             Path localPath = Path.of(path);
-            return defectPredictor.predictDefects(localPath);
+            return defectPredictor.predictDefects(localPath, budget);
         } catch (Exception e) {
             return Map.of("status", "error", "error", e.getMessage());
         }
     }
-
-    private void deleteDirectory(Path path) {
-        try {
-            Files.walk(path)
-                .sorted((a, b) -> -a.compareTo(b))
-                .forEach(p -> {
-                    try {
-                        Files.delete(p);
-                    } catch (Exception ignored) {}
-                });
-        } catch (Exception ignored) {}
-    }
 }
-
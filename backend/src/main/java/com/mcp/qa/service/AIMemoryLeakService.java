@@ -1,7 +1,8 @@
 package com.mcp.qa.service;
 
 import com.mcp.qa.ai.AIMemoryLeakPredictor;
-import com.mcp.qa.utils.GitUtils;
+import com.mcp.qa.ai.AnalysisBudget;
+import com.mcp.qa.utils.GitMirrorCache;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.*;
@@ -11,49 +12,28 @@ import java.util.Map;
 public class AIMemoryLeakService {
 
     private final AIMemoryLeakPredictor memoryLeakPredictor;
+    private final GitMirrorCache mirrorCache;
 
-    public AIMemoryLeakService(AIMemoryLeakPredictor memoryLeakPredictor) {
+    public AIMemoryLeakService(AIMemoryLeakPredictor memoryLeakPredictor, GitMirrorCache mirrorCache) {
         this.memoryLeakPredictor = memoryLeakPredictor;
+        this.mirrorCache = mirrorCache;
     }
 
-    public Map<String, Object> predictMemoryLeaks(String repoUrl, String branch) {
-        Path localPath = null;
-        try {
-            localPath = Files.createTempDirectory("repo-ai-");
-            GitUtils.cloneRepo(repoUrl, localPath, branch);
-            
-            Map<String, Object> result = memoryLeakPredictor.predictMemoryLeaks(localPath);
-            
-            deleteDirectory(localPath);
-            
-            return result;
+    public Map<String, Object> predictMemoryLeaks(String repoUrl, String branch, String baseRef, String headRef,
+                                                  AnalysisBudget budget) {
+        try (GitMirrorCache.Lease lease = mirrorCache.open(repoUrl, branch, baseRef, headRef)) {
+            return lease.withRange(memoryLeakPredictor.predictMemoryLeaks(lease.getSnapshot(), budget));
         } catch (Exception e) {
-            if (localPath != null) {
-                deleteDirectory(localPath);
-            }
             return Map.of("status", "error", "error", e.getMessage());
         }
     }
 
-    public Map<String, Object> predictMemoryLeaksForPath(String path) {
+    public Map<String, Object> predictMemoryLeaksForPath(String path, AnalysisBudget budget) {
         try {
             Path localPath = Path.of(path);
-            return memoryLeakPredictor.predictMemoryLeaks(localPath);
+            return memoryLeakPredictor.predictMemoryLeaks(localPath, budget);
         } catch (Exception e) {
             return Map.of("status", "error", "error", e.getMessage());
         }
     }
-
-    private void deleteDirectory(Path path) {
-        try {
-            Files.walk(path)
-                .sorted((a, b) -> -a.compareTo(b))
-                .forEach(p -> {
-                    try {
-                        Files.delete(p);
-                    } catch (Exception ignored) {}
-                });
-        } catch (Exception ignored) {}
-    }
 }
-
@@ -0,0 +1,53 @@
+package com.mcp.qa.service;
+
+import com.mcp.qa.ai.AIClient;
+import com.mcp.qa.ai.AIExecutionService;
+import com.mcp.qa.ai.PromptCompactor;
+import com.mcp.qa.analyzer.StaticAnalyzer;
+import com.mcp.qa.job.RequestCoalescer;
+import com.mcp.qa.repo.HistoryMiner;
+import com.mcp.qa.utils.GitMirrorCache;
+import com.mcp.qa.utils.WorkspaceManager;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Service
+public class AIMetricsService {
+
+    private final AIClient aiClient;
+    private final AIExecutionService executionService;
+    private final StaticAnalyzer staticAnalyzer;
+    private final PromptCompactor promptCompactor;
+    private final RequestCoalescer coalescer;
+    private final GitMirrorCache mirrorCache;
+    private final HistoryMiner historyMiner;
+    private final WorkspaceManager workspaces;
+
+    public AIMetricsService(AIClient aiClient, AIExecutionService executionService, StaticAnalyzer staticAnalyzer,
+                            PromptCompactor promptCompactor, RequestCoalescer coalescer, GitMirrorCache mirrorCache,
+                            HistoryMiner historyMiner, WorkspaceManager workspaces) {
+        this.aiClient = aiClient;
+        this.executionService = executionService;
+        this.staticAnalyzer = staticAnalyzer;
+        this.promptCompactor = promptCompactor;
+        this.coalescer = coalescer;
+        this.mirrorCache = mirrorCache;
+        this.historyMiner = historyMiner;
+        this.workspaces = workspaces;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>(aiClient.getStats());
+        stats.put("execution", executionService.getStats());
+        stats.put("findingsCache", staticAnalyzer.getCacheStats());
+        stats.put("promptCompaction", promptCompactor.getStats());
+        stats.put("coalescing", coalescer.getStats());
+        stats.put("gitMirrors", mirrorCache.getStats());
+        stats.put("history", historyMiner.getStats());
+        stats.put("workspaces", workspaces.getStats());
+        stats.put("status", "completed");
+        return stats;
+    }
+}
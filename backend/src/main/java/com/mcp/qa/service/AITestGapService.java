@@ -1,7 +1,8 @@
 package com.mcp.qa.service;
 
 import com.mcp.qa.ai.AITestGapAnalyzer;
-import com.mcp.qa.utils.GitUtils;
+import com.mcp.qa.ai.AnalysisBudget;
+import com.mcp.qa.utils.GitMirrorCache;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.*;
@@ -11,49 +12,28 @@ import java.util.Map;
 public class AITestGapService {
 
     private final AITestGapAnalyzer testGapAnalyzer;
+    private final GitMirrorCache mirrorCache;
 
-    public AITestGapService(AITestGapAnalyzer testGapAnalyzer) {
+    public AITestGapService(AITestGapAnalyzer testGapAnalyzer, GitMirrorCache mirrorCache) {
         this.testGapAnalyzer = testGapAnalyzer;
+        this.mirrorCache = mirrorCache;
     }
 
-    public Map<String, Object> analyzeTestGaps(String repoUrl, String branch) {
-        Path localPath = null;
-        try {
-            localPath = Files.createTempDirectory("repo-ai-");
-            GitUtils.cloneRepo(repoUrl, localPath, branch);
-            
-            Map<String, Object> result = testGapAnalyzer.analyzeTestGaps(localPath);
-            
-            deleteDirectory(localPath);
-            
-            return result;
+    public Map<String, Object> analyzeTestGaps(String repoUrl, String branch, String baseRef, String headRef,
+                                               AnalysisBudget budget) {
+        try (GitMirrorCache.Lease lease = mirrorCache.open(repoUrl, branch, baseRef, headRef)) {
+            return lease.withRange(testGapAnalyzer.analyzeTestGaps(lease.getSnapshot(), budget));
         } catch (Exception e) {
-            if (localPath != null) {
-                deleteDirectory(localPath);
-            }
             return Map.of("status", "error", "error", e.getMessage());
         }
     }
 
-    public Map<String, Object> analyzeTestGapsForPath(String path) {
+    public Map<String, Object> analyzeTestGapsForPath(String path, AnalysisBudget budget) {
         try {
             Path localPath = Path.of(path);
-            return testGapAnalyzer.analyzeTestGaps(localPath);
+            return testGapAnalyzer.analyzeTestGaps(localPath, budget);
         } catch (Exception e) {
             return Map.of("status", "error", "error", e.getMessage());
         }
     }
-
-    private void deleteDirectory(Path path) {
-        try {
-            Files.walk(path)
-                .sorted((a, b) -> -a.compareTo(b))
-                .forEach(p -> {
-                    try {
-                        Files.delete(p);
-                    } catch (Exception ignored) {}
-                });
-        } catch (Exception ignored) {}
-    }
 }
-
@@ -1,45 +1,39 @@
 package com.mcp.qa.service;
 
 import com.mcp.qa.analyzer.StaticAnalyzer;
+import com.mcp.qa.repo.RepositorySnapshot;
 import com.mcp.qa.techdebt.TechDebtCalculator;
-import com.mcp.qa.utils.GitUtils;
+import com.mcp.qa.utils.GitMirrorCache;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.*;
 import java.util.*;
-import java.util.stream.Stream;
-import java.io.IOException;
 
 @Service
 public class ScanService {
 
     private final StaticAnalyzer analyzer;
     private final TechDebtCalculator calculator;
+    private final GitMirrorCache mirrorCache;
 
-    public ScanService(StaticAnalyzer analyzer, TechDebtCalculator calculator) {
+    public ScanService(StaticAnalyzer analyzer, TechDebtCalculator calculator, GitMirrorCache mirrorCache) {
         this.analyzer = analyzer;
         this.calculator = calculator;
+        this.mirrorCache = mirrorCache;
     }
 
-    public Map<String,Object> scanRepository(String reqId, String repoUrl, String branch) {
-        Path localPath = null;
-        try {
-            localPath = Files.createTempDirectory("repo-");
-            if (branch != null && !branch.isEmpty()) {
-                GitUtils.cloneRepo(repoUrl, localPath, branch);
-            } else {
-                GitUtils.cloneRepo(repoUrl, localPath);
-            }
-
-            long filesScanned = countFilesScanned(localPath);
+    public Map<String,Object> scanRepository(String reqId, String repoUrl, String branch, String baseRef, String headRef) {
+        try (GitMirrorCache.Lease lease = mirrorCache.open(repoUrl, branch, baseRef, headRef)) {
+            RepositorySnapshot snapshot = lease.getSnapshot();
+            long filesScanned = countFilesScanned(snapshot);
             
-            var findings = analyzer.analyzePath(localPath);
+            var findings = analyzer.analyze(snapshot);
             
             var debtInfo = calculator.calculateDebt(findings);
             int techDebtScore = (Integer) debtInfo.get("score");
             String riskLevel = (String) debtInfo.get("risk");
 
-            return Map.of(
+            Map<String,Object> result = new HashMap<>(Map.of(
                     "status", "completed",
                     "filesScanned", filesScanned,
                     "techDebtScore", techDebtScore,
@@ -47,55 +41,33 @@ public class ScanService {
                     "totalFindings", debtInfo.get("totalFindings"),
                     "highSeverityIssues", debtInfo.get("highSeverity"),
                     "mediumSeverityIssues", debtInfo.get("mediumSeverity"),
-                    "lowSeverityIssues", debtInfo.get("lowSeverity")
-            );
+                    "lowSeverityIssues", debtInfo.get("lowSeverity"),
+                    "pruned", snapshot.getPruned()
+            ));
+            if (lease.getBaseSnapshot() != null) {
+                var baseDebt = calculator.calculateDebt(analyzer.analyze(lease.getBaseSnapshot()));
+                result.put("techDebtDelta", calculator.calculateDelta(baseDebt, debtInfo));
+            }
+            return lease.withRange(result);
 
         } catch(Exception e) {
             e.printStackTrace();
-            if (localPath != null) {
-                try {
-                    Files.walk(localPath)
-                        .sorted((a, b) -> -a.compareTo(b))
-                        .forEach(p -> {
-                            try {
-                                Files.delete(p);
-                            } catch (Exception ignored) {}
-                        });
-                } catch (Exception ignored) {}
-            }
             return Map.of("status", "error", "error", e.getMessage() != null ? e.getMessage() : "Unknown error");
         }
     }
     
-    private long countFilesScanned(Path root) {
-        try (Stream<Path> paths = Files.walk(root)) {
-            return paths
-                .filter(Files::isRegularFile)
-                .filter(f -> {
-                    String fileName = f.toString().toLowerCase();
-                    return fileName.endsWith(".java") || 
-                           fileName.endsWith(".js") || 
-                           fileName.endsWith(".ts") || 
-                           fileName.endsWith(".py") || 
-                           fileName.endsWith(".go") || 
-                           fileName.endsWith(".rs") ||
-                           fileName.endsWith(".cpp") || 
-                           fileName.endsWith(".c") ||
-                           fileName.endsWith(".cs");
-                })
-                .count();
-        } catch (IOException e) {
-            return 0;
-        }
+    private long countFilesScanned(RepositorySnapshot snapshot) {
+        return snapshot.count(f -> f.hasExtension("java", "js", "ts", "py", "go", "rs", "cpp", "c", "cs"));
     }
 
     public Map<String,Object> scanFiles(String reqId, String path) {
         try {
             Path localPath = Path.of(path);
             
-            long filesScanned = countFilesScanned(localPath);
+            RepositorySnapshot snapshot = RepositorySnapshot.of(localPath);
+            long filesScanned = countFilesScanned(snapshot);
             
-            var findings = analyzer.analyzePath(localPath);
+            var findings = analyzer.analyze(snapshot);
             
             var debtInfo = calculator.calculateDebt(findings);
             int techDebtScore = (Integer) debtInfo.get("score");
@@ -109,7 +81,8 @@ public class ScanService {
                     "totalFindings", debtInfo.get("totalFindings"),
                     "highSeverityIssues", debtInfo.get("highSeverity"),
                     "mediumSeverityIssues", debtInfo.get("mediumSeverity"),
-                    "lowSeverityIssues", debtInfo.get("lowSeverity")
+                    "lowSeverityIssues", debtInfo.get("lowSeverity"),
+                    "pruned", snapshot.getPruned()
             );
         } catch(Exception e) {
             return Map.of("status", "error", "error", e.getMessage());
@@ -1,24 +1,25 @@
 package com.mcp.qa.service;
 
 import com.mcp.qa.analyzer.StaticAnalyzer;
+import com.mcp.qa.repo.RepositorySnapshot;
 import com.mcp.qa.techdebt.TechDebtCalculator;
-import com.mcp.qa.utils.GitUtils;
+import com.mcp.qa.utils.GitMirrorCache;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.*;
 import java.util.*;
-import java.util.stream.Stream;
-import java.io.IOException;
 
 @Service
 public class TechDebtService {
 
     private final StaticAnalyzer analyzer;
     private final TechDebtCalculator calculator;
+    private final GitMirrorCache mirrorCache;
 
-    public TechDebtService(StaticAnalyzer analyzer, TechDebtCalculator calculator) {
+    public TechDebtService(StaticAnalyzer analyzer, TechDebtCalculator calculator, GitMirrorCache mirrorCache) {
         this.analyzer = analyzer; 
         this.calculator = calculator;
+        this.mirrorCache = mirrorCache;
     }
 
     public Map<String,Object> buildReport(String reqId, String path) {
@@ -30,16 +31,18 @@ public class TechDebtService {
                 return buildReportFromRepository(reqId, path, "main");
             }
             
-            List<Map<String,Object>> findings = analyzer.analyzePath(localPath);
+            RepositorySnapshot snapshot = RepositorySnapshot.of(localPath);
+            List<Map<String,Object>> findings = analyzer.analyze(snapshot);
             Map<String,Object> debt = calculator.calculateDebt(findings);
             
-            long filesScanned = countFilesScanned(localPath);
+            long filesScanned = countFilesScanned(snapshot);
 
             Map<String, Object> result = new HashMap<>();
             result.put("requestId", reqId);
             result.put("status", "completed");
             result.put("success", true);
             result.put("filesScanned", filesScanned);
+            result.put("pruned", snapshot.getPruned());
             result.put("findings", findings);
             result.put("techDebt", debt);
             result.put("techDebtScore", debt.get("score"));
@@ -60,30 +63,41 @@ public class TechDebtService {
     }
     
     public Map<String,Object> buildReportFromRepository(String reqId, String repoUrl, String branch) {
-        Path localPath = null;
+        return buildReportFromRepository(reqId, repoUrl, branch, null, null);
+    }
+    
+    /**
+     * With baseRef, reports on the files changed between headRef (default: the branch) and its merge
+     * base with baseRef only, plus techDebtDelta, the change in their debt since the merge base.
+     */
+    public Map<String,Object> buildReportFromRepository(String reqId, String repoUrl, String branch,
+                                                        String baseRef, String headRef) {
         try {
             if (repoUrl == null || repoUrl.trim().isEmpty()) {
                 throw new IllegalArgumentException("Repository URL cannot be empty");
             }
             
-            localPath = Files.createTempDirectory("repo-debt-");
-            System.out.println("Cloning repository: " + repoUrl + " (branch: " + branch + ") to " + localPath);
+            System.out.println("Loading repository: " + repoUrl + " (branch: " + branch + ")");
             
-            if (branch != null && !branch.trim().isEmpty()) {
-                GitUtils.cloneRepo(repoUrl, localPath, branch);
-            } else {
-                GitUtils.cloneRepo(repoUrl, localPath);
+            long filesScanned;
+            Map<String,Object> pruned;
+            List<Map<String,Object>> findings;
+            Map<String,Object> baseDebt = null;
+            Map<String,Object> range = null;
+            try (GitMirrorCache.Lease lease = mirrorCache.open(repoUrl, branch, baseRef, headRef)) {
+                System.out.println("Repository loaded. Analyzing tech debt...");
+                
+                RepositorySnapshot snapshot = lease.getSnapshot();
+                filesScanned = countFilesScanned(snapshot);
+                pruned = snapshot.getPruned();
+                findings = analyzer.analyze(snapshot);
+                if (lease.getBaseSnapshot() != null) {
+                    baseDebt = calculator.calculateDebt(analyzer.analyze(lease.getBaseSnapshot()));
+                    range = lease.getRange().toMap();
+                }
             }
-            
-            System.out.println("Repository cloned successfully. Analyzing tech debt...");
-            
-            long filesScanned = countFilesScanned(localPath);
-            List<Map<String,Object>> findings = analyzer.analyzePath(localPath);
             Map<String,Object> debt = calculator.calculateDebt(findings);
             
-            deleteDirectory(localPath);
-            localPath = null; // Mark as cleaned up
-            
             Map<String, Object> result = new HashMap<>();
             result.put("requestId", reqId != null ? reqId : "unknown");
             result.put("status", "completed");
@@ -91,6 +105,7 @@ public class TechDebtService {
             result.put("repositoryUrl", repoUrl);
             result.put("branch", branch != null && !branch.trim().isEmpty() ? branch : "main");
             result.put("filesScanned", filesScanned);
+            result.put("pruned", pruned);
             result.put("findings", findings);
             result.put("techDebt", debt);
             result.put("techDebtScore", debt.get("score"));
@@ -99,6 +114,10 @@ public class TechDebtService {
             result.put("highSeverityIssues", debt.get("highSeverity"));
             result.put("mediumSeverityIssues", debt.get("mediumSeverity"));
             result.put("lowSeverityIssues", debt.get("lowSeverity"));
+            if (baseDebt != null) {
+                result.put("diff", range);
+                result.put("techDebtDelta", calculator.calculateDelta(baseDebt, debt));
+            }
             return result;
         } catch (Exception e) {
             e.printStackTrace();
@@ -107,14 +126,6 @@ public class TechDebtService {
                 errorMessage = "Failed to generate tech debt report: " + e.getClass().getSimpleName();
             }
             
-            if (localPath != null) {
-                try {
-                    deleteDirectory(localPath);
-                } catch (Exception cleanupEx) {
-                    System.err.println("Failed to cleanup temp directory: " + cleanupEx.getMessage());
-                }
-            }
-            
             Map<String, Object> errorResult = new HashMap<>();
             errorResult.put("requestId", reqId != null ? reqId : "unknown");
             errorResult.put("status", "error");
@@ -125,37 +136,7 @@ public class TechDebtService {
         }
     }
     
-    private long countFilesScanned(Path root) {
-        try (Stream<Path> paths = Files.walk(root)) {
-            return paths
-                .filter(Files::isRegularFile)
-                .filter(f -> {
-                    String fileName = f.toString().toLowerCase();
-                    return fileName.endsWith(".java") || 
-                           fileName.endsWith(".js") || 
-                           fileName.endsWith(".ts") || 
-                           fileName.endsWith(".py") || 
-                           fileName.endsWith(".go") || 
-                           fileName.endsWith(".rs") ||
-                           fileName.endsWith(".cpp") || 
-                           fileName.endsWith(".c") ||
-                           fileName.endsWith(".cs");
-                })
-                .count();
-        } catch (IOException e) {
-            return 0;
-        }
-    }
-    
-    private void deleteDirectory(Path path) {
-        try {
-            Files.walk(path)
-                .sorted((a, b) -> -a.compareTo(b))
-                .forEach(p -> {
-                    try {
-                        Files.delete(p);
-                    } catch (Exception ignored) {}
-                });
-        } catch (Exception ignored) {}
+    private long countFilesScanned(RepositorySnapshot snapshot) {
+        return snapshot.count(f -> f.hasExtension("java", "js", "ts", "py", "go", "rs", "cpp", "c", "cs"));
     }
 }
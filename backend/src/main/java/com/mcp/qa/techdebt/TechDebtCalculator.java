@@ -50,4 +50,17 @@ public class TechDebtCalculator {
             "lowSeverity", lowCount
         );
     }
+
+    /** Compares two results of calculateDebt, such as the changed files before and after a change. */
+    public Map<String,Object> calculateDelta(Map<String,Object> baseDebt, Map<String,Object> headDebt) {
+        Map<String,Object> delta = new HashMap<>();
+        delta.put("baseScore", baseDebt.get("score"));
+        delta.put("headScore", headDebt.get("score"));
+        delta.put("baseRisk", baseDebt.get("risk"));
+        delta.put("headRisk", headDebt.get("risk"));
+        for (String key : List.of("score", "totalFindings", "highSeverity", "mediumSeverity", "lowSeverity")) {
+            delta.put(key + "Delta", (Integer) headDebt.get(key) - (Integer) baseDebt.get(key));
+        }
+        return delta;
+    }
 }
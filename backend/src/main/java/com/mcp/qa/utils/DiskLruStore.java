@@ -0,0 +1,212 @@
+package com.mcp.qa.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A persistent key/value store for small binary entries, evicted least-recently-used once the live
+ * entries exceed a byte budget. Entries are appended to a single log file; evictions append
+ * tombstones, and the log is rewritten in access order once dead records outweigh live ones, so
+ * the LRU order survives restarts.
+ */
+public class DiskLruStore implements Closeable {
+
+    private static final String LOG_FILE = "store.log";
+    private static final int TOMBSTONE = -1;
+
+    private record Entry(long valueOffset, int length) {}
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(256, 0.75f, true);
+    private FileChannel channel;
+    // The channel compaction replaced, kept open for reads that started before it
+    private FileChannel retired;
+    private long liveBytes;
+    private long logBytes;
+
+    public DiskLruStore(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        Path log = directory.resolve(LOG_FILE);
+        this.channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        loadIndex(log);
+    }
+
+    private synchronized void loadIndex(Path log) throws IOException {
+        long position = 0;
+        long size = channel.size();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log), 1 << 16))) {
+            while (position < size) {
+                int keyLength = in.readUnsignedShort();
+                byte[] key = in.readNBytes(keyLength);
+                int length = in.readInt();
+                long valueOffset = position + 2 + keyLength + 4;
+                if (key.length != keyLength || (length > 0 && valueOffset + length > size)) {
+                    break;
+                }
+                String name = new String(key, StandardCharsets.UTF_8);
+                Entry previous = length == TOMBSTONE ? index.remove(name) : index.put(name, new Entry(valueOffset, length));
+                if (previous != null) {
+                    liveBytes -= previous.length();
+                }
+                if (length != TOMBSTONE) {
+                    liveBytes += length;
+                    in.skipNBytes(length);
+                }
+                position = valueOffset + Math.max(length, 0);
+            }
+        } catch (EOFException ignored) {
+            // A partially written trailing record is discarded below
+        }
+        if (position < channel.size()) {
+            channel.truncate(position);
+        }
+        logBytes = position;
+        evict();
+    }
+
+    public byte[] get(String key) {
+        Entry entry;
+        FileChannel source;
+        synchronized (this) {
+            entry = index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            source = channel;
+        }
+        // Positional reads are safe alongside other reads and appends, so only the lookup is locked
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length());
+            while (buffer.hasRemaining()) {
+                if (source.read(buffer, entry.valueOffset() + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            return buffer.array();
+        } catch (IOException e) {
+            synchronized (this) {
+                // After a compaction the entry may be fine in the new log; only drop it if unchanged
+                if (source == channel && index.remove(key, entry)) {
+                    liveBytes -= entry.length();
+                }
+            }
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, byte[] value) {
+        try {
+            long valueOffset = append(key, value);
+            Entry previous = index.put(key, new Entry(valueOffset, value.length));
+            liveBytes += value.length - (previous != null ? previous.length() : 0);
+            evict();
+        } catch (IOException ignored) {}
+    }
+
+    public synchronized void remove(String key) {
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            liveBytes -= entry.length();
+            try {
+                append(key, null);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized long sizeInBytes() {
+        return liveBytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (retired != null) {
+            retired.close();
+        }
+        channel.close();
+    }
+
+    private long append(String key, byte[] value) throws IOException {
+        byte[] name = key.getBytes(StandardCharsets.UTF_8);
+        int length = value != null ? value.length : TOMBSTONE;
+        ByteBuffer record = ByteBuffer.allocate(2 + name.length + 4 + Math.max(length, 0));
+        record.putShort((short) name.length).put(name).putInt(length);
+        if (value != null) {
+            record.put(value);
+        }
+        record.flip();
+        long recordOffset = logBytes;
+        while (record.hasRemaining()) {
+            channel.write(record, recordOffset + record.position());
+        }
+        logBytes += record.limit();
+        return recordOffset + 2 + name.length + 4;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> eldest = index.entrySet().iterator();
+        List<String> evicted = new ArrayList<>();
+        while (liveBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Entry> entry = eldest.next();
+            liveBytes -= entry.getValue().length();
+            evicted.add(entry.getKey());
+            eldest.remove();
+        }
+        try {
+            for (String key : evicted) {
+                append(key, null);
+            }
+            if (logBytes > 2 * Math.max(liveBytes, 1 << 20)) {
+                compact();
+            }
+        } catch (IOException ignored) {}
+    }
+
+    private void compact() throws IOException {
+        Path compacted = directory.resolve(LOG_FILE + ".compact");
+        LinkedHashMap<String, Entry> rewritten = new LinkedHashMap<>(Math.max(16, index.size() * 2), 0.75f, true);
+        long position = 0;
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // Iterating the access-ordered index writes the eldest entries first
+            for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer header = ByteBuffer.allocate(2 + name.length + 4);
+                header.putShort((short) name.length).put(name).putInt(entry.getValue().length()).flip();
+                while (header.hasRemaining()) {
+                    position += out.write(header, position);
+                }
+                long copied = 0;
+                while (copied < entry.getValue().length()) {
+                    copied += channel.transferTo(entry.getValue().valueOffset() + copied,
+                        entry.getValue().length() - copied, out.position(position + copied));
+                }
+                rewritten.put(entry.getKey(), new Entry(position, entry.getValue().length()));
+                position += copied;
+            }
+            out.force(false);
+        }
+        // Until the new log is open, the current channel and index stay in use, so a failed move
+        // or open leaves the store as it was
+        Files.move(compacted, directory.resolve(LOG_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileChannel replaced = channel;
+        channel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index.clear();
+        index.putAll(rewritten);
+        logBytes = position;
+        if (retired != null) {
+            retired.close();
+        }
+        retired = replaced;
+    }
+}
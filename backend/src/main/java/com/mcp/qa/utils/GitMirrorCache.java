@@ -0,0 +1,460 @@
+package com.mcp.qa.utils;
+
+import com.mcp.qa.repo.CommitRange;
+import com.mcp.qa.repo.HistoryMiner;
+import com.mcp.qa.repo.RepositorySnapshot;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Keeps one bare mirror per remote URL so repeated analyses of a repository fetch only new
+ * commits instead of cloning its whole history. Read-only analyses read the commit straight from
+ * the mirror's object database; a request that needs files on disk gets a working tree that
+ * borrows the mirror's objects. Mirrors are evicted least-recently-used once their total size exceeds the
+ * quota; a mirror is never evicted while a checkout or snapshot from it is in use. An evicted
+ * mirror is renamed out of the way and deleted by the workspace cleaner, so no request waits for
+ * it. A mirror is measured once; after that only its packfiles are listed after each fetch, since
+ * fetching adds packs and nothing else of size. Falls back to a direct clone, shallow unless
+ * configured otherwise, if the cache is disabled or the mirror fails.
+ */
+@Component
+public class GitMirrorCache {
+
+    private static final class Mirror {
+        final Path directory;
+        volatile long sizeBytes;
+        long packBytes = -1;
+        long lastUsed;
+        int users;
+
+        Mirror(Path directory) {
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * A snapshot of the requested branch for read-only analysis. Close it when the analysis is
+     * done to release the mirror, or reclaim the checkout it fell back to.
+     */
+    public final class Lease implements AutoCloseable {
+        private final RepositorySnapshot snapshot;
+        private final RepositorySnapshot baseSnapshot;
+        private final CommitRange range;
+        private final Mirror mirror;
+        private final Repository repository;
+        private final WorkspaceManager.Workspace checkout;
+
+        private Lease(RepositorySnapshot snapshot, RepositorySnapshot baseSnapshot, CommitRange range,
+                      Mirror mirror, Repository repository, WorkspaceManager.Workspace checkout) {
+            this.snapshot = snapshot;
+            this.baseSnapshot = baseSnapshot;
+            this.range = range;
+            this.mirror = mirror;
+            this.repository = repository;
+            this.checkout = checkout;
+        }
+
+        public RepositorySnapshot getSnapshot() {
+            return snapshot;
+        }
+
+        /** For a commit range, the merge base versions of the changed files; otherwise null. */
+        public RepositorySnapshot getBaseSnapshot() {
+            return baseSnapshot;
+        }
+
+        public CommitRange getRange() {
+            return range;
+        }
+
+        /** Adds the commit range analyzed, if any, to a result as "diff". */
+        public Map<String, Object> withRange(Map<String, Object> result) {
+            if (range == null) {
+                return result;
+            }
+            Map<String, Object> described = new HashMap<>(result);
+            described.put("diff", range.toMap());
+            return described;
+        }
+
+        @Override
+        public void close() {
+            if (repository != null) {
+                repository.close();
+            }
+            if (mirror != null) {
+                release(mirror);
+            }
+            if (checkout != null) {
+                checkout.close();
+            }
+        }
+    }
+
+    private static final String EVICTED = ".evicted-";
+
+    private final HistoryMiner historyMiner;
+    private final WorkspaceManager workspaces;
+    private final boolean enabled;
+    private final boolean objectDbSnapshots;
+    private final boolean shallowClones;
+    private final Path root;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Mirror> mirrors = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong objectDbReads = new AtomicLong();
+    private final AtomicLong rangeReads = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public GitMirrorCache(HistoryMiner historyMiner, WorkspaceManager workspaces,
+                          @Value("${git.mirror.enabled:true}") boolean enabled,
+                          @Value("${git.mirror.dir:${java.io.tmpdir}/qa-mcp-cache/mirrors}") String directory,
+                          @Value("${git.mirror.max-mb:4096}") long maxMegabytes,
+                          @Value("${git.scan.object-db:true}") boolean objectDbSnapshots,
+                          @Value("${git.clone.shallow:true}") boolean shallowClones) {
+        this.historyMiner = historyMiner;
+        this.workspaces = workspaces;
+        this.objectDbSnapshots = objectDbSnapshots;
+        this.shallowClones = shallowClones;
+        this.root = Path.of(directory);
+        this.maxBytes = maxMegabytes * 1024 * 1024;
+        boolean usable = enabled;
+        if (enabled) {
+            try {
+                Files.createDirectories(root);
+                loadExisting();
+                System.out.println("Git mirror cache at " + root + " with " + mirrors.size() + " mirrors");
+            } catch (IOException e) {
+                System.err.println("WARNING: Git mirror cache disabled, cannot open " + directory + ": " + e.getMessage());
+                usable = false;
+            }
+        }
+        this.enabled = usable;
+    }
+
+    /** Same contract as GitUtils.cloneRepo: path ends up holding the requested branch. */
+    public void cloneRepo(String url, Path path, String branch) throws Exception {
+        if (!enabled) {
+            directClone(url, path, branch);
+            return;
+        }
+
+        Mirror mirror = acquire(key(url));
+        try {
+            GitUtils.checkoutFromMirror(mirror.directory, path, fetch(mirror, url, branch));
+        } catch (Exception e) {
+            System.err.println("Mirror of " + url + " failed, cloning directly: " + e.getMessage());
+            fallbacks.incrementAndGet();
+            deleteDirectory(path);
+            Files.createDirectories(path);
+            directClone(url, path, branch);
+        } finally {
+            release(mirror);
+        }
+    }
+
+    /**
+     * Snapshot of the branch for read-only analysis. Files are read straight from the mirror's
+     * packfiles, so nothing is written to or read back from a working tree; with object database
+     * snapshots turned off, or if that fails, the branch is checked out into a workspace that is
+     * reclaimed when the lease is closed. Files carry their change history unless the checkout is
+     * shallow; it is mined while the lease is open, the first time a file's history is asked for.
+     */
+    public Lease open(String url, String branch) throws Exception {
+        if (enabled && objectDbSnapshots) {
+            Mirror mirror = acquire(key(url));
+            Repository repository = null;
+            try {
+                ObjectId commit = fetch(mirror, url, branch);
+                repository = new FileRepositoryBuilder().setGitDir(mirror.directory.toFile()).setMustExist(true).build();
+                RepositorySnapshot snapshot = RepositorySnapshot.ofCommit(repository, commit, mirror.directory);
+                Repository mined = repository;
+                snapshot.attachHistory(() -> historyMiner.mine(historyKey(url, branch), mined, commit));
+                objectDbReads.incrementAndGet();
+                return new Lease(snapshot, null, null, mirror, repository, null);
+            } catch (Exception e) {
+                System.err.println("Reading " + url + " from the object database failed, checking out instead: " + e.getMessage());
+                if (repository != null) {
+                    repository.close();
+                }
+                release(mirror);
+            }
+        }
+
+        WorkspaceManager.Workspace checkout = workspaces.create(directory -> cloneRepo(url, directory, branch));
+        Repository repository = null;
+        try {
+            Path directory = checkout.getDirectory();
+            RepositorySnapshot snapshot = RepositorySnapshot.of(directory);
+            if (!Files.exists(directory.resolve(".git/shallow"))) {
+                repository = new FileRepositoryBuilder()
+                    .setGitDir(directory.resolve(".git").toFile()).setMustExist(true).build();
+                Repository mined = repository;
+                ObjectId commit = repository.resolve(Constants.HEAD);
+                snapshot.attachHistory(() -> historyMiner.mine(historyKey(url, branch), mined, commit));
+            }
+            return new Lease(snapshot, null, null, null, repository, checkout);
+        } catch (Exception e) {
+            if (repository != null) {
+                repository.close();
+            }
+            checkout.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Snapshot of a commit range, for checking a pull request. With baseRef, the snapshot holds only
+     * the files changed between headRef and its merge base with baseRef, and the lease's base
+     * snapshot holds the merge base versions of the files changed or deleted. Without it the whole
+     * of headRef is analyzed. headRef defaults to the branch; either ref may be a branch, a full ref
+     * name such as refs/pull/12/head, or a commit SHA. Without either this is open(url, branch).
+     * Files carry the change history of the branch.
+     */
+    public Lease open(String url, String branch, String baseRef, String headRef) throws Exception {
+        if (isBlank(baseRef) && isBlank(headRef)) {
+            return open(url, branch);
+        }
+        if (enabled) {
+            Mirror mirror = acquire(key(url));
+            Repository repository = null;
+            try {
+                ObjectId tip = fetch(mirror, url, branch);
+                repository = new FileRepositoryBuilder().setGitDir(mirror.directory.toFile()).setMustExist(true).build();
+                return openRange(url, branch, baseRef, headRef, repository, tip, mirror, null);
+            } catch (IllegalArgumentException e) {
+                // An unknown ref: a direct clone would not find it either
+                if (repository != null) {
+                    repository.close();
+                }
+                release(mirror);
+                throw e;
+            } catch (Exception e) {
+                System.err.println("Reading " + url + " from the mirror failed, cloning instead: " + e.getMessage());
+                if (repository != null) {
+                    repository.close();
+                }
+                release(mirror);
+            }
+        }
+
+        // A range needs the history down to the merge base, so this clone is never shallow
+        WorkspaceManager.Workspace checkout = workspaces.create(directory -> GitUtils.cloneRepo(url, directory, branch));
+        Repository repository = null;
+        try {
+            repository = new FileRepositoryBuilder()
+                .setGitDir(checkout.getDirectory().resolve(".git").toFile()).setMustExist(true).build();
+            return openRange(url, branch, baseRef, headRef, repository, repository.resolve(Constants.HEAD), null, checkout);
+        } catch (Exception e) {
+            if (repository != null) {
+                repository.close();
+            }
+            checkout.close();
+            throw e;
+        }
+    }
+
+    private Lease openRange(String url, String branch, String baseRef, String headRef, Repository repository,
+                            ObjectId tip, Mirror mirror, WorkspaceManager.Workspace checkout) throws Exception {
+        ObjectId head;
+        ObjectId base;
+        // Resolving may fetch into the mirror
+        synchronized (mirror != null ? mirror : repository) {
+            head = isBlank(headRef) ? tip : GitUtils.resolveRef(repository, url, headRef);
+            base = isBlank(baseRef) ? null : GitUtils.resolveRef(repository, url, baseRef);
+        }
+        Path root = mirror != null ? mirror.directory : checkout.getDirectory();
+        RepositorySnapshot snapshot = RepositorySnapshot.ofCommit(repository, head, root);
+        // History is the branch's own, so every pull request against it reuses one set of totals
+        // instead of mining each new head SHA from scratch; commits only on headRef are not counted
+        snapshot.attachHistory(() -> historyMiner.mine(historyKey(url, branch), repository, tip));
+        rangeReads.incrementAndGet();
+        if (base == null) {
+            return new Lease(snapshot, null, null, mirror, repository, checkout);
+        }
+        
+        CommitRange range = CommitRange.of(repository, base, head);
+        RepositorySnapshot baseSnapshot = RepositorySnapshot.ofCommit(repository, range.getMergeBase(), root)
+            .only(range.getBasePaths());
+        System.out.println("Commit range " + range.getMergeBase().name() + ".." + head.name() + " of " + url
+            + " changes " + range.getHeadPaths().size() + " files");
+        return new Lease(snapshot.only(range.getHeadPaths()), baseSnapshot, range, mirror, repository, checkout);
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    // Without a mirror, analysis only needs the branch tip and the source files
+    private void directClone(String url, Path path, String branch) throws Exception {
+        if (shallowClones) {
+            GitUtils.shallowClone(url, path, branch, RepositorySnapshot.analyzableExtensions());
+        } else {
+            GitUtils.cloneRepo(url, path, branch);
+        }
+    }
+
+    private ObjectId fetch(Mirror mirror, String url, String branch) throws Exception {
+        synchronized (mirror) {
+            boolean isNew = !Files.exists(mirror.directory.resolve("HEAD"));
+            ObjectId commit = GitUtils.fetchMirror(url, mirror.directory, branch);
+            (isNew ? created : fetches).incrementAndGet();
+            long packBytes = sizeOf(mirror.directory.resolve("objects/pack"));
+            if (mirror.packBytes < 0) {
+                mirror.sizeBytes = sizeOf(mirror.directory);
+            } else {
+                mirror.sizeBytes += packBytes - mirror.packBytes;
+            }
+            mirror.packBytes = packBytes;
+            return commit;
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("mirrors", mirrors.size());
+        stats.put("sizeBytes", totalBytes());
+        stats.put("maxBytes", maxBytes);
+        stats.put("created", created.get());
+        stats.put("fetches", fetches.get());
+        stats.put("fallbacks", fallbacks.get());
+        stats.put("objectDbSnapshots", objectDbSnapshots);
+        stats.put("shallowClones", shallowClones);
+        stats.put("objectDbReads", objectDbReads.get());
+        stats.put("rangeReads", rangeReads.get());
+        stats.put("evicted", evicted.get());
+        return stats;
+    }
+
+    private synchronized Mirror acquire(String key) {
+        Mirror mirror = mirrors.computeIfAbsent(key, k -> new Mirror(root.resolve(k + ".git")));
+        mirror.users++;
+        mirror.lastUsed = System.currentTimeMillis();
+        return mirror;
+    }
+
+    private void release(Mirror mirror) {
+        List<Path> doomed;
+        synchronized (this) {
+            mirror.users--;
+            doomed = evict();
+        }
+        doomed.forEach(workspaces::deleteInBackground);
+    }
+
+    // Called with the cache lock held; iteration runs from least to most recently used. Evicted
+    // mirrors are renamed, so a new mirror of the same URL can be created at once, and the renamed
+    // directories returned for deletion outside the lock.
+    private List<Path> evict() {
+        List<Path> doomed = new ArrayList<>();
+        long total = totalBytes();
+        Iterator<Mirror> eldest = mirrors.values().iterator();
+        while (total > maxBytes && eldest.hasNext()) {
+            Mirror mirror = eldest.next();
+            if (mirror.users > 0) {
+                continue;
+            }
+            eldest.remove();
+            total -= mirror.sizeBytes;
+            Path evictedDirectory = mirror.directory.resolveSibling(
+                mirror.directory.getFileName() + EVICTED + System.nanoTime());
+            try {
+                doomed.add(Files.move(mirror.directory, evictedDirectory, StandardCopyOption.ATOMIC_MOVE));
+            } catch (IOException e) {
+                doomed.add(mirror.directory);
+            }
+            evicted.incrementAndGet();
+        }
+        return doomed;
+    }
+
+    private long totalBytes() {
+        long total = 0;
+        for (Mirror mirror : mirrors.values()) {
+            total += mirror.sizeBytes;
+        }
+        return total;
+    }
+
+    // Rebuilds the LRU order from the mirrors' modification times after a restart
+    private void loadExisting() throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root, "*" + EVICTED + "*")) {
+            entries.forEach(workspaces::deleteInBackground);
+        }
+        List<Mirror> found = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root, "*.git")) {
+            for (Path directory : entries) {
+                Mirror mirror = new Mirror(directory);
+                mirror.sizeBytes = sizeOf(directory);
+                mirror.packBytes = sizeOf(directory.resolve("objects/pack"));
+                mirror.lastUsed = Files.getLastModifiedTime(directory).toMillis();
+                found.add(mirror);
+            }
+        }
+        found.sort(Comparator.comparingLong(mirror -> mirror.lastUsed));
+        for (Mirror mirror : found) {
+            String name = mirror.directory.getFileName().toString();
+            mirrors.put(name.substring(0, name.length() - ".git".length()), mirror);
+        }
+        List<Path> doomed;
+        synchronized (this) {
+            doomed = evict();
+        }
+        doomed.forEach(workspaces::deleteInBackground);
+    }
+
+    private static String historyKey(String url, String branch) {
+        return key(url) + "/" + (branch != null ? branch : "");
+    }
+
+    private static String key(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(url.trim().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long sizeOf(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteDirectory(Path path) {
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException ignored) {}
+            });
+        } catch (IOException ignored) {}
+    }
+}
@@ -1,9 +1,24 @@
 package com.mcp.qa.utils;
 
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.treewalk.TreeWalk;
 
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
 
 public class GitUtils {
 
@@ -35,4 +50,177 @@ public class GitUtils {
         
         git.close();
     }
+
+    /**
+     * Like cloneRepo, but fetches only the tip of the one branch (depth 1) and writes only files
+     * whose extension is in extensions, so history, other branches and non-source files never
+     * cross the network or touch the disk. The result is for analysis only: the index is left
+     * empty and the skipped files are absent from the working tree.
+     */
+    public static void shallowClone(String url, Path path, String branch, Set<String> extensions) throws Exception {
+        try (Git git = Git.init().setDirectory(path.toFile()).call()) {
+            ObjectId commit = null;
+            if (branch != null && !branch.isEmpty() && !branch.equals("main") && !branch.equals("master")) {
+                try {
+                    commit = fetchTip(git, url, Constants.R_HEADS + branch);
+                } catch (Exception e) {
+                    System.err.println("Warning: Could not checkout branch " + branch + ", using default branch");
+                }
+            }
+            if (commit == null) {
+                commit = fetchTip(git, url, Constants.HEAD);
+            }
+            
+            Repository repository = git.getRepository();
+            RefUpdate head = repository.updateRef(Constants.HEAD, true);
+            head.setNewObjectId(commit);
+            head.forceUpdate();
+            
+            try (ObjectReader reader = repository.newObjectReader();
+                 RevWalk revWalk = new RevWalk(reader);
+                 TreeWalk treeWalk = new TreeWalk(reader)) {
+                treeWalk.addTree(revWalk.parseCommit(commit).getTree());
+                treeWalk.setRecursive(true);
+                while (treeWalk.next()) {
+                    FileMode mode = treeWalk.getFileMode(0);
+                    String relativePath = treeWalk.getPathString();
+                    int dot = relativePath.lastIndexOf('.');
+                    if ((mode != FileMode.REGULAR_FILE && mode != FileMode.EXECUTABLE_FILE)
+                            || dot <= relativePath.lastIndexOf('/')
+                            || !extensions.contains(relativePath.substring(dot + 1).toLowerCase())) {
+                        continue;
+                    }
+                    Path file = path.resolve(relativePath);
+                    Files.createDirectories(file.getParent());
+                    try (OutputStream out = Files.newOutputStream(file)) {
+                        reader.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).copyTo(out);
+                    }
+                }
+            }
+        }
+    }
+
+    private static ObjectId fetchTip(Git git, String url, String ref) throws Exception {
+        String tracking = Constants.R_REMOTES + "origin/" + Repository.shortenRefName(ref);
+        git.fetch()
+            .setRemote(url)
+            .setRefSpecs(new RefSpec("+" + ref + ":" + tracking))
+            .setDepth(1)
+            .call();
+        Ref fetched = git.getRepository().exactRef(tracking);
+        if (fetched == null) {
+            throw new IllegalStateException("Remote " + url + " has no " + ref);
+        }
+        return fetched.getObjectId();
+    }
+
+    /**
+     * Returns the commit SHA that cloneRepo(url, path, branch) would check out, from a single
+     * ls-remote round trip, or null if the remote cannot be reached. branch may also be a full ref
+     * name such as refs/pull/12/head, or a commit SHA, which is returned as is.
+     */
+    public static String resolveCommit(String url, String branch) {
+        try {
+            Map<String, Ref> refs = Git.lsRemoteRepository()
+                .setRemote(url)
+                .setTimeout(30)
+                .callAsMap();
+            
+            if (branch != null && ObjectId.isId(branch)) {
+                return branch.toLowerCase();
+            }
+            Ref ref = null;
+            if (branch != null && branch.startsWith(Constants.R_REFS)) {
+                ref = refs.get(branch);
+            } else if (branch != null && !branch.isEmpty() && !branch.equals("main") && !branch.equals("master")) {
+                ref = refs.get("refs/heads/" + branch);
+            }
+            if (ref == null) {
+                ref = refs.get("HEAD");
+            }
+            return ref != null && ref.getObjectId() != null ? ref.getObjectId().name() : null;
+        } catch (Exception e) {
+            System.err.println("Warning: Could not resolve " + url + " (branch: " + branch + "): " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Creates or updates a bare mirror of url at mirror, fetching only what changed since the last
+     * fetch, and returns the commit cloneRepo(url, path, branch) would check out.
+     */
+    public static ObjectId fetchMirror(String url, Path mirror, String branch) throws Exception {
+        if (!Files.exists(mirror.resolve("HEAD"))) {
+            Git.init().setBare(true).setDirectory(mirror.toFile()).call().close();
+        }
+        
+        try (Git git = Git.open(mirror.toFile())) {
+            FetchResult result = git.fetch()
+                .setRemote(url)
+                .setRefSpecs(new RefSpec("+refs/heads/*:refs/heads/*"))
+                .setRemoveDeletedRefs(true)
+                .call();
+            
+            Repository repository = git.getRepository();
+            if (branch != null && !branch.isEmpty() && !branch.equals("main") && !branch.equals("master")) {
+                Ref ref = repository.exactRef(Constants.R_HEADS + branch);
+                if (ref != null) {
+                    return ref.getObjectId();
+                }
+                System.err.println("Warning: Could not checkout branch " + branch + ", using default branch");
+            }
+            Ref head = result.getAdvertisedRef(Constants.HEAD);
+            if (head == null || head.getObjectId() == null) {
+                throw new IllegalStateException("Remote " + url + " has no default branch");
+            }
+            return head.getObjectId();
+        }
+    }
+
+    /**
+     * Resolves ref, a branch, full ref name or commit SHA, in repository. If it is not there yet,
+     * as with pull request refs, which mirrors do not fetch, it is fetched from url into
+     * refs/requested/ first.
+     */
+    public static ObjectId resolveRef(Repository repository, String url, String ref) throws Exception {
+        ObjectId commit = repository.resolve(ref + "^{commit}");
+        if (commit != null) {
+            return commit;
+        }
+        
+        String requested = Constants.R_REFS + "requested/"
+            + (ref.startsWith(Constants.R_REFS) ? ref.substring(Constants.R_REFS.length()) : ref);
+        try (Git git = new Git(repository)) {
+            git.fetch()
+                .setRemote(url)
+                .setRefSpecs(new RefSpec("+" + ref + ":" + requested))
+                .call();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Unknown ref " + ref + " in " + url + ": " + e.getMessage(), e);
+        }
+        commit = repository.resolve(requested + "^{commit}");
+        if (commit == null) {
+            throw new IllegalArgumentException("Unknown ref " + ref + " in " + url);
+        }
+        return commit;
+    }
+
+    /**
+     * Checks out commit from a local mirror into path. The new repository borrows the mirror's
+     * objects through objects/info/alternates, like git clone --shared, so only the working tree is
+     * written.
+     */
+    public static void checkoutFromMirror(Path mirror, Path path, ObjectId commit) throws Exception {
+        Git.init().setDirectory(path.toFile()).call().close();
+        Path alternates = path.resolve(".git/objects/info/alternates");
+        Files.createDirectories(alternates.getParent());
+        Files.writeString(alternates, mirror.resolve("objects").toAbsolutePath() + "\n");
+        
+        try (Git git = Git.open(path.toFile())) {
+            RefUpdate head = git.getRepository().updateRef(Constants.HEAD, true);
+            head.setNewObjectId(commit);
+            head.forceUpdate();
+            git.reset().setMode(ResetCommand.ResetType.HARD).setRef(commit.name()).call();
+        }
+    }
 }
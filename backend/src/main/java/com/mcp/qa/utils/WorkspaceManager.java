@@ -0,0 +1,311 @@
+package com.mcp.qa.utils;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Hands out checkout directories under one root, so temporary working trees are bounded and never
+ * leak. At most maxConcurrentClones directories are being populated at once, and a new one waits
+ * while the directories in use and those awaiting deletion would exceed the disk quota. A checkout
+ * being populated counts as the average size of those before it until its real size is known, so
+ * the quota can still be overshot by a checkout much larger than usual. Released
+ * directories are renamed into a trash directory, which is instant, and deleted by a background
+ * thread, so requests never pay for recursive deletes. Each process works in a directory of its
+ * own under the root and holds a lock on it while it runs; at startup the directories of processes
+ * that are gone are purged the same way, so instances can share a root.
+ */
+@Component
+public class WorkspaceManager {
+
+    @FunctionalInterface
+    public interface Populator {
+        void populate(Path directory) throws Exception;
+    }
+
+    /** A checkout directory; closing it hands the directory to the background cleaner. */
+    public final class Workspace implements AutoCloseable {
+        private final Path directory;
+        private long sizeBytes;
+        private boolean closed;
+
+        private Workspace(Path directory) {
+            this.directory = directory;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        @Override
+        public void close() {
+            reclaim(this);
+        }
+    }
+
+    private static final String LOCK_FILE = "instance.lock";
+
+    private final Path active;
+    private final Path trash;
+    // Held while this process runs, so other instances leave its directory alone
+    private final FileChannel lock;
+    private final long maxBytes;
+    private final long waitMillis;
+    private final int maxClones;
+    private final Semaphore clones;
+    private final ExecutorService cleaner = Executors.newSingleThreadExecutor(
+        Thread.ofVirtual().name("workspace-cleaner").factory());
+    private final Set<Workspace> live = new HashSet<>();
+    private long liveBytes;
+    private long pendingBytes;
+    private long sizedCheckouts;
+    private long sizedBytes;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reclaimed = new AtomicLong();
+    private final AtomicLong quotaWaits = new AtomicLong();
+    private final AtomicLong orphansPurged = new AtomicLong();
+
+    public WorkspaceManager(@Value("${workspace.dir:${java.io.tmpdir}/qa-mcp-cache/workspaces}") String directory,
+                            @Value("${workspace.max-mb:2048}") long maxMegabytes,
+                            @Value("${workspace.max-concurrent-clones:4}") int maxConcurrentClones,
+                            @Value("${workspace.wait-seconds:300}") long waitSeconds) throws IOException {
+        Path root = Path.of(directory);
+        Path instances = root.resolve("instances");
+        Path home = instances.resolve(ProcessHandle.current().pid() + "-" + System.currentTimeMillis());
+        Files.createDirectories(home);
+        this.lock = FileChannel.open(home.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.lock.lock();
+        this.active = home.resolve("active");
+        this.trash = home.resolve("trash");
+        this.maxBytes = maxMegabytes * 1024 * 1024;
+        this.waitMillis = waitSeconds * 1000;
+        this.maxClones = Math.max(1, maxConcurrentClones);
+        this.clones = new Semaphore(maxClones, true);
+        Files.createDirectories(active);
+        Files.createDirectories(trash);
+        purgeOrphans(instances, home);
+        System.out.println("Workspaces at " + home + ", quota " + maxMegabytes + " MB, "
+            + maxConcurrentClones + " concurrent clones");
+    }
+
+    /**
+     * Creates a directory and fills it with populator, for example a clone. Waits for room under
+     * the quota and for a clone slot first; throws IllegalStateException if neither frees up
+     * within the wait time. The directory is reclaimed if populator fails.
+     */
+    public Workspace create(Populator populator) throws Exception {
+        long reserved = reserveRoom();
+        Workspace workspace = null;
+        boolean slot = false;
+        try {
+            if (!clones.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Timed out waiting for a clone slot, " + maxClones + " clones running");
+            }
+            slot = true;
+            workspace = new Workspace(Files.createTempDirectory(active, "repo-"));
+            synchronized (this) {
+                workspace.sizeBytes = reserved;
+                live.add(workspace);
+            }
+            created.incrementAndGet();
+            populator.populate(workspace.directory);
+        } catch (Exception e) {
+            // A workspace hands its reservation on to the cleaner
+            if (workspace != null) {
+                workspace.close();
+            } else {
+                unreserve(reserved);
+            }
+            throw e;
+        } finally {
+            if (slot) {
+                clones.release();
+            }
+        }
+
+        long size = sizeOf(workspace.directory);
+        synchronized (this) {
+            sizedCheckouts++;
+            sizedBytes += size;
+            if (!workspace.closed) {
+                liveBytes += size - workspace.sizeBytes;
+                workspace.sizeBytes = size;
+                notifyAll();
+            }
+        }
+        return workspace;
+    }
+
+    /**
+     * Deletes a directory that is not a workspace, such as an evicted mirror, on the background
+     * cleaner. It does not count against the quota.
+     */
+    public void deleteInBackground(Path directory) {
+        discard(directory, 0);
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("live", live.size());
+        stats.put("liveBytes", liveBytes);
+        stats.put("pendingDeleteBytes", pendingBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("availableCloneSlots", clones.availablePermits());
+        stats.put("created", created.get());
+        stats.put("reclaimed", reclaimed.get());
+        stats.put("quotaWaits", quotaWaits.get());
+        stats.put("orphansPurged", orphansPurged.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Whatever is left in the trash is purged by the next instance to start
+        cleaner.shutdownNow();
+        try {
+            lock.close();
+        } catch (IOException ignored) {}
+    }
+
+    // Waits until a checkout of the average size fits, or nothing else is using the quota, and
+    // counts it as live; returns the bytes reserved
+    private synchronized long reserveRoom() throws InterruptedException {
+        long estimate = sizedCheckouts > 0 ? sizedBytes / sizedCheckouts : 0;
+        long deadline = System.currentTimeMillis() + waitMillis;
+        boolean waited = false;
+        while (liveBytes + pendingBytes > 0 && liveBytes + pendingBytes + estimate >= maxBytes) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new IllegalStateException("Workspace quota of " + maxBytes / (1024 * 1024)
+                    + " MB exhausted: " + live.size() + " checkouts in use");
+            }
+            if (!waited) {
+                quotaWaits.incrementAndGet();
+                waited = true;
+            }
+            wait(remaining);
+        }
+        liveBytes += estimate;
+        return estimate;
+    }
+
+    private synchronized void unreserve(long reserved) {
+        liveBytes -= reserved;
+        notifyAll();
+    }
+
+    private void reclaim(Workspace workspace) {
+        long size;
+        synchronized (this) {
+            if (workspace.closed) {
+                return;
+            }
+            workspace.closed = true;
+            live.remove(workspace);
+            liveBytes -= workspace.sizeBytes;
+            size = workspace.sizeBytes;
+            pendingBytes += size;
+        }
+        discard(workspace.directory, size);
+    }
+
+    // Moves directory out of the way right away and deletes it in the background
+    private void discard(Path directory, long size) {
+        Path target = directory;
+        try {
+            target = Files.move(directory, trash.resolve(directory.getFileName() + "-" + System.nanoTime()),
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Delete in place instead
+        }
+        Path doomed = target;
+        try {
+            cleaner.execute(() -> {
+                deleteDirectory(doomed);
+                synchronized (this) {
+                    pendingBytes -= size;
+                    reclaimed.incrementAndGet();
+                    notifyAll();
+                }
+            });
+        } catch (RuntimeException e) {
+            // Shutting down; the next start purges it
+            synchronized (this) {
+                pendingBytes -= size;
+            }
+        }
+    }
+
+    // The directories of instances whose process no longer holds their lock
+    private void purgeOrphans(Path instances, Path home) throws IOException {
+        List<Path> orphans = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(instances)) {
+            for (Path instance : entries) {
+                if (!instance.equals(home) && !isLocked(instance)) {
+                    orphans.add(instance);
+                }
+            }
+        }
+        // Not sized, which would delay startup by a walk of each tree
+        for (Path orphan : orphans) {
+            orphansPurged.incrementAndGet();
+            discard(orphan, 0);
+        }
+    }
+
+    private static boolean isLocked(Path instance) {
+        try (FileChannel channel = FileChannel.open(instance.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock held = channel.tryLock();
+            if (held == null) {
+                return true;
+            }
+            held.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            // Another manager in this JVM
+            return true;
+        } catch (IOException e) {
+            // Not an instance directory, or unreadable: leave it alone
+            return true;
+        }
+    }
+
+    private static long sizeOf(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteDirectory(Path path) {
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException ignored) {}
+            });
+        } catch (IOException ignored) {}
+    }
+}
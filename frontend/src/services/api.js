@@ -44,6 +44,13 @@ export const aiService = {
     };
     return api.post('/ai/memory_leak_prediction', payload);
   },
+
+  combinedAnalysis: async (repoUrl, branch = 'main', path = null) => {
+    const payload = {
+      args: path ? { path } : { repoUrl, branch }
+    };
+    return api.post('/ai/combined_analysis', payload);
+  },
 };
 
 export const scanService = {